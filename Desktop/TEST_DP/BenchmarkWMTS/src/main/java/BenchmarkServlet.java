@@ -3,41 +3,57 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Created by Menelaos Kotsollaris on 2017-05-04.
  *
- * Class Explanation: TODO
+ * Serves the tiles of a LevelFilesSet at {@code
+ * /tiles/{level}/{column}/{row}} (optionally followed by ".jpg"). The paths
+ * of the dataset are read from the tileDataSetPath, lookupFilePath and
+ * tileDataFilePath init parameters, and default to the ones of {@link
+ * MyFileNames}.
  */
-@WebServlet public class BenchmarkServlet extends HttpServlet
+@WebServlet("/tiles/*") public class BenchmarkServlet extends HttpServlet
 {
     private LevelFilesSet levelFilesSet;
 
-    public void init()
+    public void init() throws ServletException
     {
-        /*String tileDataSetPath = MyFileNames.TileDatasetPath.getFileName();
-        String lookupFilePath = MyFileNames.LookupFilePath.getFileName();
-        String tileDataFilePath = MyFileNames.TileDataFilePath.getFileName();
         String
-                imageBlockFilePath =
-                MyFileNames.ImageBlockPath
-                        .getFileName();
+                tileDataSetPath =
+                getPath("tileDataSetPath", MyFileNames.TileDatasetPath);
+        String
+                lookupFilePath =
+                getPath("lookupFilePath", MyFileNames.LookupFilePath);
+        String
+                tileDataFilePath =
+                getPath("tileDataFilePath", MyFileNames.TileDataFilePath);
         FileNames
-                fileNames = new FileNames.Builder(tileDataSetPath, lookupFilePath,
-                                      tileDataFilePath)
-                        .build();
+                fileNames =
+                new FileNames.Builder(tileDataSetPath, lookupFilePath,
+                                      tileDataFilePath).build();
         try
         {
             levelFilesSet = new LevelFilesSet.Builder(fileNames).build();
         }
         catch(IOException e)
         {
-            e.printStackTrace();
-        }*/
+            throw new ServletException(e);
+        }
+    }
 
+    /**
+     * Returns the value of the init parameter, or the default path if it is
+     * not set.
+     */
+    private String getPath(String parameter, MyFileNames defaultPath)
+    {
+        String path = getInitParameter(parameter);
+        return path != null ? path : defaultPath.getFileName();
     }
 
     protected void doPost(HttpServletRequest request,
@@ -50,17 +66,28 @@ import java.io.PrintWriter;
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException
     {
-        // Set response content type
-        response.setContentType("text/html");
-
-        // Actual logic goes here.
-        PrintWriter out = response.getWriter();
-        out.println("<h1>" + "Hey! :)" + "</h1>");
+        String path = request.getPathInfo();
+        long key = path == null ? TileKey.invalidKey :
+                TileServer.parseKey(path);
+        if(key == TileKey.invalidKey)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        outputTileToBrowser(TileKey.level(key), TileKey.column(key),
+                            TileKey.row(key), response);
     }
 
     public void destroy()
     {
-        // Finalization code...
+        try
+        {
+            levelFilesSet.close();
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -71,12 +98,36 @@ import java.io.PrintWriter;
             throws Exception
     {
         response.setContentType("text/html");
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        OutputStream outputStream = response.getOutputStream();
         for(Tile tile : tiles)
         {
             outputStream.write(tile.getData());
         }
-        byte c[] = outputStream.toByteArray();
-        response.getOutputStream().write(c, 0, c.length);
+    }
+
+    /**
+     * Streams the tile from the {@link TileDataFile} to the user's browser,
+     * without reading the whole tile into a byte array first. The servlet's
+     * output stream is not a socket channel, so the bytes still pass through
+     * a small temporary buffer on their way to the container. Answers with
+     * 404 if there is no such tile.
+     */
+    public void outputTileToBrowser(int level, int column, int row,
+                                    HttpServletResponse response)
+            throws IOException
+    {
+        int tileSize = level < levelFilesSet.getLevelNumber() ?
+                levelFilesSet.getTileSize(level, column, row) : -1;
+        if(tileSize < 0)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType("image/jpeg");
+        response.setContentLength(tileSize);
+        WritableByteChannel
+                channel =
+                Channels.newChannel(response.getOutputStream());
+        levelFilesSet.transferTile(level, column, row, channel);
     }
 }
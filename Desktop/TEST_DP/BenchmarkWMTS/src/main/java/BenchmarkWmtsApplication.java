@@ -1,10 +1,61 @@
-import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.AutoConfigurationExcludeFilter;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.core.env.Environment;
 
-@SpringBootApplication
+import java.io.IOException;
+
+/**
+ * The servlet application of the controllers (e.g. {@link WmtsController}).
+ * The reactive endpoints run in their own application, {@link
+ * ReactiveTileApplication}, on the reactive stack, so they are left out of
+ * the component scan.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@ComponentScan(excludeFilters = {
+		@ComponentScan.Filter(type = FilterType.CUSTOM,
+				classes = TypeExcludeFilter.class),
+		@ComponentScan.Filter(type = FilterType.CUSTOM,
+				classes = AutoConfigurationExcludeFilter.class),
+		@ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE,
+				classes = {ReactiveTileApplication.class,
+						ReactiveTileController.class})})
 public class BenchmarkWmtsApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(BenchmarkWmtsApplication.class, args);
+		new SpringApplicationBuilder(BenchmarkWmtsApplication.class)
+				.web(WebApplicationType.SERVLET).run(args);
+	}
+
+	/**
+	 * The tiles served by the controllers. The paths default to the ones of
+	 * {@link MyFileNames} and can be overridden by the wmts.tile-dataset-path,
+	 * wmts.lookup-file-path and wmts.tile-data-file-path properties.
+	 */
+	@Bean(destroyMethod = "close")
+	public LevelFilesSet tileSource(Environment environment) throws IOException {
+		return newTileSource(environment);
+	}
+
+	/**
+	 * Opens the tiles served by an application; see {@link #tileSource}.
+	 */
+	static LevelFilesSet newTileSource(Environment environment)
+			throws IOException {
+		FileNames fileNames = new FileNames.Builder(
+				environment.getProperty("wmts.tile-dataset-path",
+						MyFileNames.TileDatasetPath.getFileName()),
+				environment.getProperty("wmts.lookup-file-path",
+						MyFileNames.LookupFilePath.getFileName()),
+				environment.getProperty("wmts.tile-data-file-path",
+						MyFileNames.TileDataFilePath.getFileName())).build();
+		return new LevelFilesSet.Builder(fileNames).lookupIndex(true).build();
 	}
 }
@@ -0,0 +1,615 @@
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The benchmark of building the storage formats from a tile dataset in the
+ * 'Simple' structure (a file per tile): the LevelFiles, the {@link
+ * ImageBlock}, the {@link IndexedFormat} and the {@link TileContainer}.
+ * Each format is built per level, from the level 0 to the given level, into
+ * its own directory under the output path, after deleting what a previous
+ * run left there. The TileContainer is converted from the LevelFiles of all
+ * the levels at once, so it is reported as a single build.
+ *
+ * Each build reports its tiles/s and MB/s (of the source tiles), the peak
+ * heap usage and the peak number of the open file descriptors (both sampled
+ * every {@link #samplingMillis} ms, the latter on Unix systems only) and the
+ * files, the bytes and the space on disk of the output. The
+ * space is estimated from the file sizes rounded up to the file system's
+ * blocks, plus an inode per file and directory and a block per directory.
+ *
+ * The ImageBlock and the IndexedFormat expect every tile of a level to
+ * exist; {@link #main} builds from a complete {@link SyntheticPyramid} unless
+ * a dataset is given.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class BuildBenchmark
+{
+    /**
+     * the interval (ms) of the sampling of the heap usage and of the open
+     * file descriptors; long enough not to slow down the timed builds
+     */
+    private final static long samplingMillis = 50;
+
+    /** the source dataset, a file per tile */
+    private final String tileDatasetPath;
+    /** the directory of the built formats */
+    private final String outputPath;
+    /** the highest built level */
+    private final int maxLevel;
+    /** the built formats */
+    private final List<Format> formats;
+    /** the number of the threads of a build */
+    private final int threads;
+    /** the size (bytes) of the blocks of the file system */
+    private final int blockSize;
+    /** the size (bytes) of an inode of the file system */
+    private final int inodeSize;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private BuildBenchmark()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private BuildBenchmark(Builder builder)
+    {
+        tileDatasetPath = builder.tileDatasetPath;
+        outputPath = builder.outputPath;
+        maxLevel = builder.maxLevel;
+        formats = builder.formats;
+        threads = builder.threads;
+        blockSize = builder.blockSize;
+        inodeSize = builder.inodeSize;
+    }
+
+    /**
+     * A built storage format.
+     */
+    public enum Format
+    {
+        /** the LookupFile and the TileDataFile of each level */
+        LEVEL_FILES,
+        /** the tiles grouped into directories of 32x32 tiles per level */
+        IMAGE_BLOCK,
+        /** a directory per column and row of each level */
+        INDEXED_FORMAT,
+        /** a single file of all the levels, from their LevelFiles */
+        TILE_CONTAINER
+    }
+
+    /**
+     * Provides the Builder pattern for the object initialization.
+     */
+    public static class Builder
+    {
+        /** the source dataset, a file per tile */
+        private final String tileDatasetPath;
+        /** the directory of the built formats */
+        private final String outputPath;
+        /** the highest built level */
+        private final int maxLevel;
+        /** the built formats */
+        private List<Format> formats = Arrays.asList(Format.values());
+        /** the number of the threads of a build */
+        private int threads = 1;
+        /** the size (bytes) of the blocks of the file system */
+        private int blockSize = 4096;
+        /** the size (bytes) of an inode of the file system */
+        private int inodeSize = 256;
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param tileDatasetPath the source dataset, a file per tile
+         * @param outputPath      the directory of the built formats
+         * @param maxLevel        the highest built level
+         */
+        public Builder(String tileDatasetPath, String outputPath,
+                       int maxLevel)
+        {
+            if(maxLevel < 0 || maxLevel > TileKey.maxLevel)
+                throw new IllegalArgumentException("maxLevel: " + maxLevel);
+            this.tileDatasetPath = tileDatasetPath;
+            this.outputPath = outputPath;
+            this.maxLevel = maxLevel;
+        }
+
+        /**
+         * Sets the built formats. The default value is all of them.
+         */
+        public Builder formats(Format... formats)
+        {
+            this.formats = Arrays.asList(formats.clone());
+            return this;
+        }
+
+        /**
+         * Sets the number of the threads reading and copying the tiles of a
+         * build; the TileContainer is always converted by a single thread.
+         * The default value is 1.
+         */
+        public Builder threads(int threads)
+        {
+            if(threads < 1)
+                throw new IllegalArgumentException("threads: " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the file system's sizes used for the space on disk. The
+         * default values are the ext4 ones: 4KB blocks and 256 bytes inodes.
+         */
+        public Builder fileSystem(int blockSize, int inodeSize)
+        {
+            if(blockSize < 1 || inodeSize < 0)
+                throw new IllegalArgumentException(
+                        "blockSize: " + blockSize + ", inodeSize: " +
+                                inodeSize);
+            this.blockSize = blockSize;
+            this.inodeSize = inodeSize;
+            return this;
+        }
+
+        /**
+         * Initializes the object.
+         */
+        public BuildBenchmark build()
+        {
+            return new BuildBenchmark(this);
+        }
+    }
+
+    /**
+     * Builds the formats and prints the result of each build.
+     *
+     * @return the results, per format and level
+     */
+    public List<Result> run() throws IOException
+    {
+        List<Result> results = new ArrayList<>();
+        ExecutorService workers = threads > 1 ?
+                Executors.newFixedThreadPool(threads) : null;
+        try
+        {
+            for(Format format : formats)
+            {
+                if(format == Format.TILE_CONTAINER)
+                {
+                    results.add(print(buildTileContainer(workers)));
+                    continue;
+                }
+                for(int level = 0; level <= maxLevel; level++)
+                {
+                    results.add(print(buildLevel(format, level, workers)));
+                }
+            }
+        }
+        finally
+        {
+            if(workers != null) workers.shutdownNow();
+        }
+        return results;
+    }
+
+    private static Result print(Result result)
+    {
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Builds a level of a format, other than the TileContainer.
+     */
+    private Result buildLevel(Format format, int level,
+                              ExecutorService workers) throws IOException
+    {
+        String formatPath = getFormatPath(format);
+        String levelPath = formatPath + File.separator + level;
+        if(format == Format.LEVEL_FILES)
+            deleteLevelFiles(level);
+        else if(FileUtilities.exists(levelPath))
+            FileUtilities.deleteDirectory(levelPath);
+        FileUtilities.createDir(formatPath);
+        DiskUsage source = DiskUsage.of(
+                Paths.get(tileDatasetPath, Integer.toString(level)), null,
+                blockSize);
+        Measurement measurement = new Measurement();
+        switch(format)
+        {
+            case LEVEL_FILES:
+                buildLevelFiles(level, workers);
+                break;
+            case IMAGE_BLOCK:
+                ImageBlock.generateImageBlockLevel(tileDatasetPath,
+                                                   formatPath, level,
+                                                   workers);
+                break;
+            case INDEXED_FORMAT:
+                buildIndexedFormat(formatPath, level, workers);
+                break;
+            default:
+                throw new IllegalArgumentException(format.toString());
+        }
+        measurement.stop();
+        DiskUsage output = format == Format.LEVEL_FILES ?
+                DiskUsage.of(Paths.get(formatPath), levelFilesPattern(level),
+                             blockSize) :
+                DiskUsage.of(Paths.get(levelPath), null, blockSize);
+        return new Result(format, Integer.toString(level), source,
+                          measurement, output);
+    }
+
+    /**
+     * Converts the LevelFiles of all the levels, building the missing ones
+     * first (not measured), to a TileContainer.
+     */
+    private Result buildTileContainer(ExecutorService workers)
+            throws IOException
+    {
+        FileNames fileNames = getLevelFilesNames();
+        for(int level = 0; level <= maxLevel; level++)
+        {
+            if(!FileUtilities.exists(fileNames.getLookupFilePath() + level))
+                buildLevelFiles(level, workers);
+        }
+        String formatPath = getFormatPath(Format.TILE_CONTAINER);
+        if(FileUtilities.exists(formatPath))
+            FileUtilities.deleteDirectory(formatPath);
+        FileUtilities.createDir(formatPath);
+        DiskUsage source = DiskUsage.of(Paths.get(tileDatasetPath), null,
+                                        blockSize);
+        Measurement measurement = new Measurement();
+        TileContainer.convert(fileNames, maxLevel,
+                              formatPath + File.separator + "tiles.container");
+        measurement.stop();
+        return new Result(Format.TILE_CONTAINER, "0-" + maxLevel, source,
+                          measurement,
+                          DiskUsage.of(Paths.get(formatPath), null,
+                                       blockSize));
+    }
+
+    /**
+     * Generates the IndexedFormat of a level; the format is deprecated, but
+     * still measured for the comparison.
+     */
+    @SuppressWarnings("deprecation")
+    private void buildIndexedFormat(String formatPath, int level,
+                                    ExecutorService workers)
+            throws IOException
+    {
+        IndexedFormat.generateIndexedFormatLevel(tileDatasetPath, formatPath,
+                                                 level, workers);
+    }
+
+    /**
+     * Generates the LevelFiles of a level.
+     */
+    private void buildLevelFiles(int level, ExecutorService workers)
+            throws IOException
+    {
+        new LevelFiles.Builder(getLevelFilesNames(), level).readers(workers)
+                .build().close();
+    }
+
+    /**
+     * Deletes the LevelFiles of a level, with their side files.
+     */
+    private void deleteLevelFiles(int level) throws IOException
+    {
+        File[] files = FileUtilities.getFiles(
+                getFormatPath(Format.LEVEL_FILES));
+        if(files == null) return;
+        Pattern pattern = levelFilesPattern(level);
+        for(File file : files)
+        {
+            if(pattern.matcher(file.getName()).matches())
+                FileUtilities.deleteFile(file.getPath());
+        }
+    }
+
+    /**
+     * Returns the pattern of the names of the LevelFiles of a level.
+     */
+    private static Pattern levelFilesPattern(int level)
+    {
+        return Pattern.compile("(lookup|tiledata)" + level + "(\\..*)?");
+    }
+
+    /**
+     * Returns the names of the built LevelFiles.
+     */
+    private FileNames getLevelFilesNames()
+    {
+        String formatPath = getFormatPath(Format.LEVEL_FILES);
+        return new FileNames.Builder(tileDatasetPath, formatPath +
+                File.separator + "lookup", formatPath + File.separator +
+                                             "tiledata").build();
+    }
+
+    private String getFormatPath(Format format)
+    {
+        return outputPath + File.separator + format.name().toLowerCase();
+    }
+
+    /**
+     * The time, the peak heap usage and the peak number of the open file
+     * descriptors of a build, from its creation to {@link #stop()}.
+     */
+    private static final class Measurement
+    {
+        /** the heap usage */
+        private final MemoryMXBean memory = ManagementFactory
+                .getMemoryMXBean();
+        /** the open file descriptors, null if not supported */
+        private final UnixOperatingSystemMXBean unix;
+        /** samples the heap usage and the open file descriptors */
+        private final ScheduledExecutorService sampler;
+        /** the highest used heap (bytes) of all the samples */
+        private final AtomicLong peakHeapBytes = new AtomicLong();
+        /** the highest number of the open file descriptors */
+        private final AtomicLong peakOpenFiles = new AtomicLong(-1);
+        /** the start of the build */
+        private final long start;
+        /** the duration (ns) of the build */
+        private long elapsedNanos;
+
+        private Measurement()
+        {
+            System.gc();
+            OperatingSystemMXBean system = ManagementFactory
+                    .getOperatingSystemMXBean();
+            unix = system instanceof UnixOperatingSystemMXBean ?
+                    (UnixOperatingSystemMXBean) system : null;
+            sampler = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+            sampler.scheduleAtFixedRate(this::sample, 0, samplingMillis,
+                                        TimeUnit.MILLISECONDS);
+            start = System.nanoTime();
+        }
+
+        /**
+         * Takes a sample of the used heap, the sum of all the heap pools at
+         * the same moment, and of the open file descriptors.
+         */
+        private void sample()
+        {
+            peakHeapBytes.accumulateAndGet(
+                    memory.getHeapMemoryUsage().getUsed(), Math::max);
+            if(unix != null)
+                peakOpenFiles.accumulateAndGet(
+                        unix.getOpenFileDescriptorCount(), Math::max);
+        }
+
+        private void stop()
+        {
+            elapsedNanos = System.nanoTime() - start;
+            sampler.shutdownNow();
+            sample();
+        }
+    }
+
+    /**
+     * The files of a directory tree and the space that they take.
+     */
+    private static final class DiskUsage
+    {
+        /** the number of the files */
+        private long files;
+        /** the number of the directories */
+        private long directories;
+        /** the sum of the sizes (bytes) of the files */
+        private long bytes;
+        /** the file sizes, each rounded up to the blocks */
+        private long blockBytes;
+
+        /**
+         * Measures a directory tree.
+         *
+         * @param root      the root of the tree, which may not exist
+         * @param pattern   the names of the counted files, or null for all
+         * @param blockSize the size (bytes) of the blocks of the file system
+         */
+        private static DiskUsage of(Path root, Pattern pattern,
+                                    int blockSize) throws IOException
+        {
+            DiskUsage usage = new DiskUsage();
+            if(!Files.exists(root)) return usage;
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+            {
+                @Override public FileVisitResult preVisitDirectory(
+                        Path directory, BasicFileAttributes attributes)
+                {
+                    if(pattern == null) usage.directories++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(
+                        Path file, BasicFileAttributes attributes)
+                {
+                    if(pattern != null && !pattern
+                            .matcher(file.getFileName().toString()).matches())
+                        return FileVisitResult.CONTINUE;
+                    usage.files++;
+                    usage.bytes += attributes.size();
+                    usage.blockBytes += (attributes.size() + blockSize - 1) /
+                            blockSize * blockSize;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return usage;
+        }
+
+        /**
+         * Returns the space (bytes) taken on disk: the files' blocks, a block
+         * per directory and an inode per file and directory.
+         *
+         * @param blockSize the size (bytes) of the blocks of the file system
+         * @param inodeSize the size (bytes) of an inode of the file system
+         */
+        private long getDiskBytes(int blockSize, int inodeSize)
+        {
+            return (files + directories) * inodeSize + directories *
+                    blockSize + blockBytes;
+        }
+    }
+
+    /**
+     * The result of a build.
+     */
+    public final class Result
+    {
+        /** the built format */
+        private final Format format;
+        /** the built level or levels */
+        private final String levels;
+        /** the source tiles */
+        private final DiskUsage source;
+        /** the time and the resources of the build */
+        private final Measurement measurement;
+        /** the output files */
+        private final DiskUsage output;
+
+        private Result(Format format, String levels, DiskUsage source,
+                       Measurement measurement, DiskUsage output)
+        {
+            this.format = format;
+            this.levels = levels;
+            this.source = source;
+            this.measurement = measurement;
+            this.output = output;
+        }
+
+        /** Returns the number of the source tiles built per second. */
+        public double getTileThroughput()
+        {
+            return source.files * 1e9 /
+                    Math.max(1, measurement.elapsedNanos);
+        }
+
+        /** Returns the bytes of the source tiles built per second. */
+        public double getByteThroughput()
+        {
+            return source.bytes * 1e9 /
+                    Math.max(1, measurement.elapsedNanos);
+        }
+
+        /** Returns the duration (ns) of the build. */
+        public long getElapsedNanos()
+        {
+            return measurement.elapsedNanos;
+        }
+
+        /** Returns the sampled peak heap usage (bytes) of the build. */
+        public long getPeakHeapBytes()
+        {
+            return measurement.peakHeapBytes.get();
+        }
+
+        /**
+         * Returns the peak number of the open file descriptors of the JVM
+         * during the build, or -1 if it is not known.
+         */
+        public long getPeakOpenFiles()
+        {
+            return measurement.peakOpenFiles.get();
+        }
+
+        /** Returns the number of the output files and directories. */
+        public long getOutputFileNumber()
+        {
+            return output.files + output.directories;
+        }
+
+        /** Returns the sum of the sizes (bytes) of the output files. */
+        public long getOutputBytes()
+        {
+            return output.bytes;
+        }
+
+        /** Returns the space (bytes) taken by the output on disk. */
+        public long getOutputDiskBytes()
+        {
+            return output.getDiskBytes(blockSize, inodeSize);
+        }
+
+        @Override public String toString()
+        {
+            double megabyte = 1024 * 1024;
+            return String.format(
+                    "%s, level %s: %d tiles (%.1f MB) in %.1f ms, %.0f " +
+                            "tiles/s, %.1f MB/s, peak heap %.1f MB, peak " +
+                            "open files %d, output %d files and " +
+                            "directories, %.1f MB (%.1f MB on disk)", format,
+                    levels, source.files, source.bytes / megabyte,
+                    measurement.elapsedNanos / 1e6, getTileThroughput(),
+                    getByteThroughput() / megabyte,
+                    getPeakHeapBytes() / megabyte, getPeakOpenFiles(),
+                    getOutputFileNumber(), getOutputBytes() / megabyte,
+                    getOutputDiskBytes() / megabyte);
+        }
+    }
+
+    /**
+     * Builds every format of every level up to the given one.
+     *
+     * @param args the output path, the highest level, optionally the number
+     *             of the threads and the source dataset; without a dataset, a
+     *             complete {@link SyntheticPyramid} is generated under the
+     *             output path first
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2)
+        {
+            System.err.println("Usage: BuildBenchmark <outputPath> " +
+                                       "<maxLevel> [threads] " +
+                                       "[tileDatasetPath]");
+            System.exit(1);
+        }
+        int maxLevel = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        String tileDatasetPath;
+        if(args.length > 3)
+        {
+            tileDatasetPath = args[3];
+        }
+        else
+        {
+            tileDatasetPath = args[0] + File.separator + "source";
+            new SyntheticPyramid.Builder(tileDatasetPath, maxLevel)
+                    .missingTileShare(0).build().generate();
+        }
+        new Builder(tileDatasetPath, args[0], maxLevel).threads(threads)
+                .build().run();
+    }
+}
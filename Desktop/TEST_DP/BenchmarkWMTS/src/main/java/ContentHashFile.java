@@ -0,0 +1,279 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The file holding a content hash per lookup record, stored next to the
+ * LookupFile and addressed by the same record numbers: the record {@code i}
+ * holds the 64 bits hash of the tile of the LookupFile's record {@code i}.
+ *
+ * The hash is the first 64 bits of the tile's SHA-256 digest, so it changes
+ * whenever the tile's bytes change; the servers answer revalidation requests
+ * (ETag) with it, without reading the tile. A hash of {@link #unknownHash}
+ * means that the hash of the tile is not known (e.g. LevelFiles generated
+ * before the hashes were kept).
+ *
+ * The file is only created when hashes are written, by a generation or an
+ * update of the level; opening the hash file of a level costs no disk space.
+ * The records missing from the file (or the whole file) are unknown.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+final class ContentHashFile implements Closeable
+{
+    /** the hash of the tiles whose hash is not known */
+    final static long unknownHash = 0;
+    /** the number of the bytes of a single record */
+    final static int hashAllocationBytes = 8;
+    /**
+     * the size (bytes) of each memory mapping; a multiple of the record size
+     * so that a record never spans two mappings
+     */
+    private final static long mappingSize =
+            (Integer.MAX_VALUE / hashAllocationBytes) * hashAllocationBytes;
+    /** the filepath of the file */
+    private final String filePath;
+    /** the channel used for reading the hashes, null while no file exists */
+    private volatile FileChannel channel;
+    /** the memory mapping of the file, null when the file is not mapped */
+    private volatile Mapping mapping;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private ContentHashFile()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Retrieves the hash file, if it exists; otherwise all the hashes are
+     * unknown until some are written.
+     */
+    private ContentHashFile(String filePath) throws IOException
+    {
+        this.filePath = filePath;
+        openChannel();
+    }
+
+    /**
+     * Retrieves the hash file of a level, without creating it.
+     *
+     * @param lookupFilePath the path of the level's {@link LookupFile}
+     */
+    static ContentHashFile getInstance(String lookupFilePath)
+            throws IOException
+    {
+        return new ContentHashFile(getFilePath(lookupFilePath));
+    }
+
+    /**
+     * Returns the path of the hash file of the given {@link LookupFile}.
+     */
+    static String getFilePath(String lookupFilePath)
+    {
+        return lookupFilePath + ".hash";
+    }
+
+    /**
+     * Returns the content hash of the given tile's bytes; never {@link
+     * #unknownHash}.
+     */
+    static long computeHash(byte[] data)
+    {
+        return toHash(newDigest().digest(data));
+    }
+
+    /**
+     * Returns the content hash of a tile from its SHA-256 digest; never
+     * {@link #unknownHash}.
+     */
+    static long toHash(byte[] digest)
+    {
+        long hash = ByteBuffer.wrap(digest).getLong(0);
+        return hash == unknownHash ? 1 : hash;
+    }
+
+    /**
+     * Returns a new SHA-256 digest, which every Java platform provides.
+     */
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Opens the reading channel, if the file exists and it is not open yet.
+     */
+    private synchronized void openChannel() throws IOException
+    {
+        if(channel != null || !FileUtilities.exists(filePath)) return;
+        channel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads the hash of a record; {@link #unknownHash} if the record is not
+     * in the file.
+     *
+     * @param record the number of the record
+     */
+    long readHash(long record) throws IOException
+    {
+        long position = record * hashAllocationBytes;
+        Mapping mapping = this.mapping;
+        if(mapping != null && position < mapping.length)
+            return mapping.buffers[(int) (position / mappingSize)]
+                    .getLong((int) (position % mappingSize));
+        FileChannel channel = this.channel;
+        if(channel == null ||
+                position + hashAllocationBytes > channel.size())
+            return unknownHash;
+        ByteBuffer buffer = ByteBuffer.allocate(hashAllocationBytes);
+        FileUtilities.readFully(channel, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Writes consecutive hashes to the file in one pass, creating the file
+     * if needed, and makes them durable.
+     *
+     * @param hashes     the hashes of the consecutive records
+     * @param fromRecord the record of the first hash
+     * @param number     the number of the hashes to be written
+     */
+    void writeHashes(long[] hashes, long fromRecord, int number)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                hashAllocationBytes * Math.min(64 * 1024, Math.max(1, number)));
+        long position = fromRecord * hashAllocationBytes;
+        try(FileChannel writeChannel = openWriteChannel())
+        {
+            for(int i = 0; i < number; i++)
+            {
+                buffer.putLong(hashes[i]);
+                if(buffer.hasRemaining()) continue;
+                position += flush(writeChannel, buffer, position);
+            }
+            flush(writeChannel, buffer, position);
+            writeChannel.force(false);
+        }
+        openChannel();
+    }
+
+    /**
+     * Overwrites some of the hashes of the file, keeping the rest.
+     *
+     * @param recordIndexes the numbers of the records to be written
+     * @param hashes        the hashes of the tiles, in the same order
+     */
+    void writeHashes(long[] recordIndexes, long[] hashes) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(hashAllocationBytes);
+        try(FileChannel writeChannel = openWriteChannel())
+        {
+            for(int i = 0; i < recordIndexes.length; i++)
+            {
+                buffer.clear();
+                buffer.putLong(hashes[i]).flip();
+                FileUtilities.writeFully(writeChannel, buffer,
+                                         recordIndexes[i] *
+                                                 hashAllocationBytes);
+            }
+            writeChannel.force(false);
+        }
+        openChannel();
+    }
+
+    /**
+     * Opens a channel for writing to the file, creating it if needed. The
+     * records before the written ones that were never written read as
+     * unknown, since the gap is filled with zeros.
+     */
+    private FileChannel openWriteChannel() throws IOException
+    {
+        return FileChannel.open(Paths.get(filePath), StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE);
+    }
+
+    /**
+     * Writes the buffered hashes to the file and clears the buffer.
+     *
+     * @return the number of bytes written
+     */
+    private static int flush(FileChannel channel, ByteBuffer buffer,
+                             long position) throws IOException
+    {
+        buffer.flip();
+        int length = buffer.remaining();
+        FileUtilities.writeFully(channel, buffer, position);
+        buffer.clear();
+        return length;
+    }
+
+    /**
+     * Maps the file into memory, if it exists, so that the following reads
+     * of the mapped records are served directly from the mapped pages. The
+     * records written beyond the end of the mapping are read from the file.
+     */
+    void map() throws IOException
+    {
+        FileChannel channel = this.channel;
+        if(channel == null) return;
+        long size = channel.size();
+        mapping = new Mapping(
+                FileUtilities.mapRegion(channel, 0, size, mappingSize), size);
+    }
+
+    /** gets the file name */
+    String getFilePath()
+    {
+        return filePath;
+    }
+
+    /**
+     * Closes the reading channel of the file.
+     */
+    @Override public void close() throws IOException
+    {
+        FileChannel channel = this.channel;
+        if(channel != null) channel.close();
+    }
+
+    /**
+     * The mappings of the file together with the number of the bytes they
+     * cover, published at once so that a reader never pairs the mappings of
+     * one call of {@link #map} with the length of another.
+     */
+    private static final class Mapping
+    {
+        /** the mappings, ordered by their position within the file */
+        private final MappedByteBuffer[] buffers;
+        /** the number of the mapped bytes */
+        private final long length;
+
+        private Mapping(MappedByteBuffer[] buffers, long length)
+        {
+            this.buffers = buffers;
+            this.length = length;
+        }
+    }
+
+    @Override public String toString()
+    {
+        return "ContentHashFile with the filepath: " + filePath;
+    }
+}
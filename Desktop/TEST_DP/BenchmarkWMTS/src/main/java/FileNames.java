@@ -60,16 +60,27 @@ final public class FileNames
      */
     public String getTileName(int level, int column, int row)
     {
-        return getTileDataSetPath() +
-                File.separator +
-                level +
-                File.separator +
-                level +
-                "_" +
-                column +
-                "_" +
-                row +
-                ".jpg";
+        return appendTileName(new StringBuilder(tileDataSetPath.length() + 32),
+                              level, column, row).toString();
+    }
+
+    /**
+     * Appends the expected {@link Tile} name to the target, so that a single
+     * builder can be reused for many tiles.
+     *
+     * @param target the builder that the name is appended to
+     * @param level  the level of the {@link Tile}.
+     * @param column the column of the {@link Tile}.
+     * @param row    the row of the {@link Tile}.
+     *
+     * @return the target
+     */
+    public StringBuilder appendTileName(StringBuilder target, int level,
+                                        int column, int row)
+    {
+        target.append(tileDataSetPath).append(File.separatorChar)
+                .append(level).append(File.separatorChar);
+        return TileKey.appendFileName(target, level, column, row);
     }
 
     /**
@@ -1,8 +1,21 @@
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Contains helpful static functions regarding file operations (I/O).
@@ -12,6 +25,11 @@ import java.nio.file.Paths;
  */
 final class FileUtilities
 {
+    /** the time (seconds) without progress before a write to a channel fails */
+    private final static int stallTimeoutSeconds = 30;
+    /** the longest sleep (ms) while waiting for a channel to accept bytes */
+    private final static int maxStallSleepMillis = 100;
+
     /**
      * Returns the bytes of the file.
      *
@@ -83,11 +101,109 @@ final class FileUtilities
         RandomAccessFile file = new RandomAccessFile(filePath, "r");
         file.seek(position);
         byte[] bytes = new byte[size];
-        file.read(bytes);
+        file.readFully(bytes);
         file.close();
         return bytes;
     }
 
+    /**
+     * Reads from the given channel until the buffer is full, starting at the
+     * given position. The channel's own position is not used nor modified, so
+     * the same channel can be read concurrently by many threads.
+     *
+     * @param channel  the channel of the file
+     * @param buffer   the buffer that will be filled with the data
+     * @param position the position within the file that the data starts
+     *
+     * @throws EOFException if the end of the file is reached before the buffer
+     *                      is full
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer,
+                          long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if(read < 0)
+                throw new EOFException(
+                        "Reached the end of the file at: " + position);
+            position += read;
+        }
+    }
+
+    /**
+     * Fills the buffer asynchronously, starting at the given position of the
+     * file; a short read is followed by another read from where it stopped.
+     *
+     * @param channel  the asynchronous channel of the file
+     * @param buffer   the buffer that will be filled with the data
+     * @param position the position within the file that the data starts
+     *
+     * @return a future completed with the flipped buffer once it is full, or
+     * completed exceptionally with an {@link EOFException} if the end of the
+     * file is reached first
+     */
+    static CompletableFuture<ByteBuffer> readFullyAsync(
+            AsynchronousFileChannel channel, ByteBuffer buffer, long position)
+    {
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        CompletionHandler<Integer, Long>
+                handler =
+                new CompletionHandler<Integer, Long>()
+                {
+                    @Override public void completed(Integer read,
+                                                    Long readPosition)
+                    {
+                        if(read < 0)
+                        {
+                            result.completeExceptionally(new EOFException(
+                                    "Reached the end of the file at: " +
+                                            readPosition));
+                            return;
+                        }
+                        if(!buffer.hasRemaining())
+                        {
+                            buffer.flip();
+                            result.complete(buffer);
+                            return;
+                        }
+                        read(readPosition + read);
+                    }
+
+                    @Override public void failed(Throwable e,
+                                                 Long readPosition)
+                    {
+                        result.completeExceptionally(e);
+                    }
+
+                    private void read(long readPosition)
+                    {
+                        try
+                        {
+                            channel.read(buffer, readPosition, readPosition,
+                                         this);
+                        }
+                        catch(RuntimeException e)
+                        {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                };
+        handler.completed(0, position);
+        return result;
+    }
+
+    /**
+     * Returns a future that is already completed exceptionally with the
+     * given exception.
+     */
+    static <T> CompletableFuture<T> failedFuture(Throwable e)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
     /**
      * Reads an integer from a file.
      */
@@ -114,6 +230,194 @@ final class FileUtilities
         return longNumber;
     }
 
+    /**
+     * Writes the remaining bytes of the buffer to the given channel, starting
+     * at the given position.
+     *
+     * @param channel  the channel of the file
+     * @param buffer   the buffer holding the data
+     * @param position the position within the file that the data is written
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer,
+                           long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to the given channel, waiting
+     * while the channel accepts no bytes ({@link #awaitWritable}).
+     *
+     * @param channel the target channel
+     * @param buffer  the buffer holding the data
+     *
+     * @throws IOException if the channel accepts no bytes for {@link
+     *                     #stallTimeoutSeconds} seconds (e.g. a client that
+     *                     stopped reading)
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException
+    {
+        long stalledSince = 0;
+        int waits = 0;
+        while(buffer.hasRemaining())
+        {
+            if(channel.write(buffer) > 0)
+            {
+                waits = 0;
+                continue;
+            }
+            if(waits == 0) stalledSince = System.nanoTime();
+            awaitWritable(channel, stalledSince, waits++);
+        }
+    }
+
+    /**
+     * Waits until the channel may accept bytes again. A non-blocking
+     * selectable channel (e.g. a socket whose send buffer is full) is waited
+     * for with a selector, so a slow client costs no busy spinning; any other
+     * channel is retried after a sleep that grows up to {@link
+     * #maxStallSleepMillis}.
+     *
+     * @param channel      the target channel
+     * @param stalledSince the time ({@link System#nanoTime}) of the first
+     *                     write that wrote no bytes
+     * @param waits        the number of the waits since then
+     *
+     * @throws IOException if the channel has accepted no bytes for {@link
+     *                     #stallTimeoutSeconds} seconds
+     */
+    private static void awaitWritable(WritableByteChannel channel,
+                                      long stalledSince, int waits)
+            throws IOException
+    {
+        long remainingMillis = TimeUnit.SECONDS.toMillis(stallTimeoutSeconds) -
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stalledSince);
+        if(remainingMillis <= 0)
+            throw new IOException("The channel has accepted no bytes for " +
+                                          stallTimeoutSeconds + " s");
+        if(channel instanceof SelectableChannel &&
+                !((SelectableChannel) channel).isBlocking())
+        {
+            try(Selector selector = Selector.open())
+            {
+                ((SelectableChannel) channel)
+                        .register(selector, SelectionKey.OP_WRITE);
+                selector.select(remainingMillis);
+            }
+            return;
+        }
+        try
+        {
+            Thread.sleep(Math.min(remainingMillis, Math.min(
+                    maxStallSleepMillis, 1L << Math.min(waits, 7))));
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Transfers a byte range of the channel to the target channel ({@link
+     * FileChannel#transferTo}). The data is not copied into the Java heap
+     * when the target is a file or a socket channel; any other target is
+     * written through a small temporary buffer. Loops until the whole range
+     * is transferred, waiting while the target accepts no bytes ({@link
+     * #awaitWritable}).
+     *
+     * @param channel  the channel of the file
+     * @param position the position within the file that the data starts
+     * @param size     the number of bytes to transfer
+     * @param target   the target channel (e.g. a socket)
+     *
+     * @throws EOFException if the end of the file is reached before the whole
+     *                      range is transferred
+     * @throws IOException  if the target accepts no bytes for {@link
+     *                      #stallTimeoutSeconds} seconds
+     */
+    static void transferFully(FileChannel channel, long position, long size,
+                              WritableByteChannel target) throws IOException
+    {
+        long stalledSince = 0;
+        int waits = 0;
+        while(size > 0)
+        {
+            long transferred = channel.transferTo(position, size, target);
+            if(transferred > 0)
+            {
+                position += transferred;
+                size -= transferred;
+                waits = 0;
+                continue;
+            }
+            if(position >= channel.size())
+                throw new EOFException(
+                        "Reached the end of the file at: " + position);
+            if(waits == 0) stalledSince = System.nanoTime();
+            awaitWritable(target, stalledSince, waits++);
+        }
+    }
+
+    /**
+     * Maps the whole file into memory (read only). Since a single mapping
+     * cannot exceed {@link Integer#MAX_VALUE} bytes, the file is split into
+     * consecutive mappings of {@code mappingSize} bytes (the last one may be
+     * shorter).
+     *
+     * @param filePath    the path of the file
+     * @param mappingSize the size of each mapping in bytes
+     *
+     * @return the mappings, ordered by their position within the file
+     */
+    static MappedByteBuffer[] mapFile(String filePath, long mappingSize)
+            throws IOException
+    {
+        if(mappingSize <= 0 || mappingSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                    "mappingSize: " + mappingSize);
+        try(FileChannel channel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.READ))
+        {
+            return mapRegion(channel, 0, channel.size(), mappingSize);
+        }
+    }
+
+    /**
+     * Maps a region of a file into memory (read only), split into
+     * consecutive mappings of {@code mappingSize} bytes (the last one may be
+     * shorter). The mappings stay valid after the channel is closed.
+     *
+     * @param channel     the channel of the file
+     * @param position    the position of the region within the file
+     * @param length      the length of the region
+     * @param mappingSize the size of each mapping in bytes
+     *
+     * @return the mappings, ordered by their position within the region
+     */
+    static MappedByteBuffer[] mapRegion(FileChannel channel, long position,
+                                        long length, long mappingSize)
+            throws IOException
+    {
+        if(mappingSize <= 0 || mappingSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                    "mappingSize: " + mappingSize);
+        int mappingNumber = (int) ((length + mappingSize - 1) / mappingSize);
+        MappedByteBuffer[] mappings = new MappedByteBuffer[mappingNumber];
+        for(int i = 0; i < mappingNumber; i++)
+        {
+            long start = i * mappingSize;
+            mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      position + start,
+                                      Math.min(mappingSize, length - start));
+        }
+        return mappings;
+    }
+
     /**
      * Returns the length of the file measured in bytes
      */
@@ -162,6 +466,18 @@ final class FileUtilities
         return new File(filename).delete();
     }
 
+    /**
+     * Replaces the target file with the source file in a single step, so
+     * that the target is never seen partially written.
+     */
+    static void moveAtomically(String sourcePath, String targetPath)
+            throws IOException
+    {
+        Files.move(Paths.get(sourcePath), Paths.get(targetPath),
+                   StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
     /**
      * Checks whether a file exists or not.
      */
@@ -0,0 +1,119 @@
+/**
+ * A Count-Min sketch with 4-bit counters, estimating how often each key has
+ * been requested recently. Used by the tile caches for deciding whether a new
+ * tile is worth more than the tile it would evict (TinyLFU admission).
+ *
+ * All the counters are halved once the number of the increments reaches the
+ * sample size, so that the sketch follows the recent popularity of the keys.
+ *
+ * The sketch is not synchronized: concurrent updates may get lost, which only
+ * makes the estimation slightly less accurate.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+final class FrequencySketch
+{
+    /** the seeds of the four hash functions */
+    private final static long[] seeds = {0xc3a5c85c97cb3127L,
+            0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /** mask for halving all the 4-bit counters of a word at once */
+    private final static long resetMask = 0x7777777777777777L;
+    /** the counters, sixteen per word */
+    private final long[] table;
+    /** the number of the increments before the counters are halved */
+    private final int sampleSize;
+    /** the number of the increments since the last reset */
+    private int size;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private FrequencySketch()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Creates a sketch sized for the given number of entries.
+     *
+     * @param expectedEntries the expected number of the cached entries
+     */
+    FrequencySketch(long expectedEntries)
+    {
+        int words = Integer.highestOneBit(
+                (int) Math.max(64, Math.min(expectedEntries, 1 << 26)) - 1)
+                << 1;
+        table = new long[words];
+        sampleSize = 10 * words;
+    }
+
+    /**
+     * Returns the estimated number of the recent requests of the key (0 to
+     * 15).
+     */
+    int frequency(long key)
+    {
+        int frequency = Integer.MAX_VALUE;
+        for(long seed : seeds)
+        {
+            long hash = hash(key, seed);
+            int offset = counterOffset(hash);
+            frequency = Math.min(frequency,
+                                 (int) ((table[index(hash)] >>> offset) &
+                                         0xF));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records a request of the key.
+     */
+    void increment(long key)
+    {
+        boolean added = false;
+        for(long seed : seeds)
+        {
+            long hash = hash(key, seed);
+            int index = index(hash);
+            int offset = counterOffset(hash);
+            if(((table[index] >>> offset) & 0xF) != 0xF)
+            {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if(added && ++size >= sampleSize) reset();
+    }
+
+    /**
+     * Halves all the counters.
+     */
+    private void reset()
+    {
+        for(int i = 0; i < table.length; i++)
+        {
+            table[i] = (table[i] >>> 1) & resetMask;
+        }
+        size /= 2;
+    }
+
+    private int index(long hash)
+    {
+        return (int) hash & (table.length - 1);
+    }
+
+    private static int counterOffset(long hash)
+    {
+        return (int) ((hash >>> 60) << 2);
+    }
+
+    /**
+     * Mixes the bits of the key (64-bit finalizer of MurmurHash3).
+     */
+    private static long hash(long key, long seed)
+    {
+        long x = key ^ seed;
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+}
@@ -0,0 +1,712 @@
+import org.springframework.boot.SpringApplication;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end-to-end benchmark of the tile serving: starts a tile server on
+ * localhost, either in this JVM or as a child JVM, and replays a {@link
+ * Workload} against it over HTTP with the {@link LoadHarness}, from
+ * keep-alive connections. Reports the throughput, the latency percentiles
+ * and the bytes per second seen by the clients, and the server's CPU time
+ * and garbage collections per request, read from its platform MBeans (over
+ * JMX for a child JVM).
+ *
+ * The server is either the {@link TileServer} or the Spring {@link
+ * BenchmarkWmtsApplication} (WMTS RESTful GetTile), both serving the
+ * LevelFilesSet of the given {@link FileNames}. A server in this JVM shares
+ * the CPU and the heap with the clients, so its CPU time and collections
+ * include theirs; a child JVM isolates them.
+ *
+ * The keep-alive connections are pooled by {@link HttpURLConnection}, which
+ * keeps up to http.maxConnections idle connections per server; the first
+ * run sets it to the number of its threads unless it is set already.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class HttpBenchmark
+{
+    /** the time allowed to a server to start listening */
+    private final static long startupTimeoutNanos =
+            TimeUnit.MINUTES.toNanos(2);
+
+    /** the requests */
+    private final Workload workload;
+    /** the file names of the served dataset */
+    private final FileNames fileNames;
+    /** the served application */
+    private final Server server;
+    /** true to start the server as a child JVM */
+    private final boolean childJvm;
+    /** the options of the child JVM (e.g. the heap size) */
+    private final List<String> jvmOptions;
+    /** the number of the client threads */
+    private final int threads;
+    /** true to run the clients on virtual threads where available */
+    private final boolean virtualThreads;
+    /** the target rate (requests/s), or 0 for the closed-loop mode */
+    private final double targetRate;
+    /** the duration (ns) of the warm-up */
+    private final long warmupNanos;
+    /** the duration (ns) of the measurement */
+    private final long measurementNanos;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private HttpBenchmark()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private HttpBenchmark(Builder builder)
+    {
+        workload = builder.workload;
+        fileNames = builder.fileNames;
+        server = builder.server;
+        childJvm = builder.childJvm;
+        jvmOptions = builder.jvmOptions;
+        threads = builder.threads;
+        virtualThreads = builder.virtualThreads;
+        targetRate = builder.targetRate;
+        warmupNanos = builder.warmupNanos;
+        measurementNanos = builder.measurementNanos;
+    }
+
+    /**
+     * The application serving the tiles.
+     */
+    public enum Server
+    {
+        /** the {@link TileServer}, on the JDK HTTP server */
+        TILE_SERVER("/{level}/{column}/{row}.jpg")
+                {
+                    @Override Closeable start(FileNames fileNames, int port)
+                            throws IOException
+                    {
+                        LevelFilesSet
+                                levelFilesSet =
+                                new LevelFilesSet.Builder(fileNames)
+                                        .lookupIndex(true).build();
+                        TileServer
+                                tileServer =
+                                new TileServer.Builder(levelFilesSet)
+                                        .port(port).build();
+                        tileServer.start();
+                        return () ->
+                        {
+                            tileServer.stop(0);
+                            levelFilesSet.close();
+                        };
+                    }
+
+                    @Override List<String> getCommand(FileNames fileNames,
+                                                      int port)
+                    {
+                        return Arrays.asList(TileServer.class.getName(),
+                                             fileNames.getTileDataSetPath(),
+                                             fileNames.getLookupFilePath(),
+                                             fileNames.getTileDataFilePath(),
+                                             Integer.toString(port));
+                    }
+                },
+        /** the {@link BenchmarkWmtsApplication}, with its WMTS controller */
+        WMTS_APPLICATION("/wmts/1.0.0/tiles/default/GoogleMapsCompatible/" +
+                                 "{level}/{row}/{column}.jpg")
+                {
+                    @Override Closeable start(FileNames fileNames, int port)
+                    {
+                        List<String> args = getArguments(fileNames, port);
+                        return SpringApplication.run(
+                                BenchmarkWmtsApplication.class,
+                                args.toArray(new String[args.size()]));
+                    }
+
+                    @Override List<String> getCommand(FileNames fileNames,
+                                                      int port)
+                    {
+                        List<String> command = new ArrayList<>();
+                        command.add(BenchmarkWmtsApplication.class.getName());
+                        command.addAll(getArguments(fileNames, port));
+                        return command;
+                    }
+
+                    private List<String> getArguments(FileNames fileNames,
+                                                      int port)
+                    {
+                        return Arrays.asList(
+                                "--server.port=" + port,
+                                "--wmts.tile-dataset-path=" +
+                                        fileNames.getTileDataSetPath(),
+                                "--wmts.lookup-file-path=" +
+                                        fileNames.getLookupFilePath(),
+                                "--wmts.tile-data-file-path=" +
+                                        fileNames.getTileDataFilePath());
+                    }
+                };
+
+        /** the path of a tile request, with the coordinates as placeholders */
+        private final String pathTemplate;
+
+        Server(String pathTemplate)
+        {
+            this.pathTemplate = pathTemplate;
+        }
+
+        /**
+         * Starts the server in this JVM.
+         *
+         * @return what stops the server
+         */
+        abstract Closeable start(FileNames fileNames, int port)
+                throws IOException;
+
+        /**
+         * Returns the main class and the arguments of a child JVM running the
+         * server.
+         */
+        abstract List<String> getCommand(FileNames fileNames, int port);
+    }
+
+    /**
+     * Provides the Builder pattern for the object initialization.
+     */
+    public static class Builder
+    {
+        /** the requests */
+        private final Workload workload;
+        /** the file names of the served dataset */
+        private final FileNames fileNames;
+        /** the served application */
+        private Server server = Server.TILE_SERVER;
+        /** true to start the server as a child JVM */
+        private boolean childJvm = false;
+        /** the options of the child JVM (e.g. the heap size) */
+        private List<String> jvmOptions = new ArrayList<>();
+        /** the number of the client threads */
+        private int threads = 1;
+        /** true to run the clients on virtual threads where available */
+        private boolean virtualThreads = false;
+        /** the target rate (requests/s), or 0 for the closed-loop mode */
+        private double targetRate = 0;
+        /** the duration (ns) of the warm-up */
+        private long warmupNanos = TimeUnit.SECONDS.toNanos(10);
+        /** the duration (ns) of the measurement */
+        private long measurementNanos = TimeUnit.SECONDS.toNanos(30);
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param workload  the requests
+         * @param fileNames the file names of the served dataset, whose
+         *                  LevelFiles must already exist
+         */
+        public Builder(Workload workload, FileNames fileNames)
+        {
+            this.workload = workload;
+            this.fileNames = fileNames;
+        }
+
+        /**
+         * Sets the served application. The default value is {@link
+         * Server#TILE_SERVER}.
+         */
+        public Builder server(Server server)
+        {
+            this.server = server;
+            return this;
+        }
+
+        /**
+         * Sets whether the server is started as a child JVM, with the given
+         * JVM options, rather than in this JVM. The default value is false.
+         */
+        public Builder childJvm(boolean childJvm, String... jvmOptions)
+        {
+            this.childJvm = childJvm;
+            this.jvmOptions = new ArrayList<>(Arrays.asList(jvmOptions));
+            return this;
+        }
+
+        /**
+         * Sets the number of the client threads. The default value is 1.
+         */
+        public Builder threads(int threads)
+        {
+            if(threads < 1)
+                throw new IllegalArgumentException("threads: " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets whether the clients run on virtual threads, where the JVM
+         * provides them. The default value is false.
+         */
+        public Builder virtualThreads(boolean virtualThreads)
+        {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Sets the target rate of the requests (requests/s), or 0 for the
+         * closed-loop mode. The default value is 0.
+         */
+        public Builder targetRate(double targetRate)
+        {
+            if(targetRate < 0)
+                throw new IllegalArgumentException(
+                        "targetRate: " + targetRate);
+            this.targetRate = targetRate;
+            return this;
+        }
+
+        /**
+         * Sets the durations of the warm-up, which also warms up the server,
+         * and of the measurement. The default values are 10 s and 30 s.
+         */
+        public Builder duration(long warmup, long measurement, TimeUnit unit)
+        {
+            if(warmup < 0 || measurement <= 0)
+                throw new IllegalArgumentException(
+                        "warmup: " + warmup + ", measurement: " + measurement);
+            this.warmupNanos = unit.toNanos(warmup);
+            this.measurementNanos = unit.toNanos(measurement);
+            return this;
+        }
+
+        /**
+         * Initializes the object.
+         */
+        public HttpBenchmark build()
+        {
+            return new HttpBenchmark(this);
+        }
+    }
+
+    /**
+     * Starts the server, runs the warm-up and the measurement, and stops the
+     * server.
+     *
+     * @return the results of the measurement
+     */
+    public Result run() throws IOException
+    {
+        if(System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections",
+                               Integer.toString(threads));
+        int port = getFreePort();
+        try(RunningServer runningServer = childJvm ?
+                startChildJvm(port) : startInProcess(port))
+        {
+            WorkloadDriver.TileReader reader = httpReader(
+                    "http://127.0.0.1:" + port + server.pathTemplate);
+            if(warmupNanos > 0)
+                newLoad(reader, warmupNanos).run();
+            ServerUsage before = runningServer.getUsage();
+            LoadHarness.Result load = newLoad(reader, measurementNanos).run();
+            ServerUsage after = runningServer.getUsage();
+            return new Result(server, childJvm, load, before, after);
+        }
+    }
+
+    /**
+     * Returns the load of a warm-up or of the measurement.
+     */
+    private LoadHarness newLoad(WorkloadDriver.TileReader reader,
+                                long durationNanos)
+    {
+        return new LoadHarness.Builder(workload, reader,
+                                       server + " over HTTP")
+                .threads(threads).virtualThreads(virtualThreads)
+                .targetRate(targetRate)
+                .duration(0, durationNanos, TimeUnit.NANOSECONDS).build();
+    }
+
+    /**
+     * Returns a reader requesting the tiles over HTTP. A 404 answer is an
+     * absent tile; any other answer than 200 fails the request. The
+     * responses are read to their end, so that the connections are kept
+     * alive.
+     *
+     * @param urlTemplate the URL of a tile request, with the {level},
+     *                    {column} and {row} placeholders
+     */
+    static WorkloadDriver.TileReader httpReader(String urlTemplate)
+    {
+        return (level, column, row) ->
+        {
+            URL url = new URL(urlTemplate
+                                      .replace("{level}",
+                                               Integer.toString(level))
+                                      .replace("{column}",
+                                               Integer.toString(column))
+                                      .replace("{row}",
+                                               Integer.toString(row)));
+            HttpURLConnection
+                    connection =
+                    (HttpURLConnection) url.openConnection();
+            connection.setUseCaches(false);
+            int status = connection.getResponseCode();
+            if(status != HttpURLConnection.HTTP_OK)
+            {
+                InputStream error = connection.getErrorStream();
+                if(error != null) readFully(error, -1);
+                if(status == HttpURLConnection.HTTP_NOT_FOUND) return null;
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            byte[] data = readFully(connection.getInputStream(),
+                                    connection.getContentLength());
+            return new Tile.Builder(data, level, column, row).build();
+        };
+    }
+
+    /**
+     * Reads a response to its end and closes it.
+     *
+     * @param contentLength the length of the response, or -1 if unknown
+     */
+    private static byte[] readFully(InputStream input, int contentLength)
+            throws IOException
+    {
+        try(InputStream stream = input)
+        {
+            if(contentLength >= 0)
+            {
+                byte[] data = new byte[contentLength];
+                int read = 0, count;
+                while(read < contentLength && (count = stream.read(
+                        data, read, contentLength - read)) > 0)
+                {
+                    read += count;
+                }
+                if(read < contentLength)
+                    throw new IOException(
+                            "Truncated response: " + read + " of " +
+                                    contentLength + " bytes");
+                return data;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while((count = stream.read(buffer)) > 0)
+            {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Returns a port that is free at the time of the call.
+     */
+    private static int getFreePort() throws IOException
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Starts the server in this JVM.
+     */
+    private RunningServer startInProcess(int port) throws IOException
+    {
+        Closeable stopper = server.start(fileNames, port);
+        return new RunningServer(ManagementFactory.getPlatformMBeanServer(),
+                                 stopper);
+    }
+
+    /**
+     * Starts the server as a child JVM with the same classpath, with the JMX
+     * agent listening on localhost, and waits for it to accept connections.
+     */
+    private RunningServer startChildJvm(int port) throws IOException
+    {
+        int jmxPort = getFreePort();
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" +
+                            File.separator + "java");
+        command.addAll(jvmOptions);
+        command.addAll(Arrays.asList(
+                "-Dcom.sun.management.jmxremote.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.authenticate=false",
+                "-Dcom.sun.management.jmxremote.ssl=false",
+                "-Dcom.sun.management.jmxremote.local.only=true",
+                "-Djava.rmi.server.hostname=127.0.0.1", "-cp",
+                System.getProperty("java.class.path")));
+        command.addAll(server.getCommand(fileNames, port));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        try
+        {
+            awaitPort(process, port);
+            JMXConnector connector = JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" +
+                                              "127.0.0.1:" + jmxPort +
+                                              "/jmxrmi"));
+            return new RunningServer(connector.getMBeanServerConnection(),
+                                     () ->
+                                     {
+                                         connector.close();
+                                         stopProcess(process);
+                                     });
+        }
+        catch(IOException | RuntimeException e)
+        {
+            stopProcess(process);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the child JVM accepts connections on the port.
+     */
+    private static void awaitPort(Process process, int port)
+            throws IOException
+    {
+        long deadline = System.nanoTime() + startupTimeoutNanos;
+        while(true)
+        {
+            try(Socket socket = new Socket())
+            {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                return;
+            }
+            catch(IOException e)
+            {
+                if(!process.isAlive())
+                    throw new IOException("The server exited with " +
+                                                  process.exitValue());
+                if(System.nanoTime() > deadline)
+                    throw new IOException("The server did not start", e);
+            }
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the child JVM, letting its shutdown hooks run first.
+     */
+    private static void stopProcess(Process process) throws IOException
+    {
+        process.destroy();
+        try
+        {
+            if(!process.waitFor(30, TimeUnit.SECONDS))
+                process.destroyForcibly().waitFor();
+        }
+        catch(InterruptedException e)
+        {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * A started server and its platform MBeans.
+     */
+    private static final class RunningServer implements Closeable
+    {
+        /** the platform MBeans of the server's JVM */
+        private final MBeanServerConnection mbeans;
+        /** stops the server */
+        private final Closeable stopper;
+
+        private RunningServer(MBeanServerConnection mbeans, Closeable stopper)
+        {
+            this.mbeans = mbeans;
+            this.stopper = stopper;
+        }
+
+        /**
+         * Reads the CPU time and the collections of the server's JVM so far.
+         */
+        private ServerUsage getUsage() throws IOException
+        {
+            try
+            {
+                long cpuNanos = ((Number) mbeans.getAttribute(
+                        new ObjectName("java.lang:type=OperatingSystem"),
+                        "ProcessCpuTime")).longValue();
+                long gcCount = 0, gcMillis = 0;
+                for(ObjectName collector : mbeans.queryNames(
+                        new ObjectName("java.lang:type=GarbageCollector,*"),
+                        null))
+                {
+                    gcCount += ((Number) mbeans.getAttribute(
+                            collector, "CollectionCount")).longValue();
+                    gcMillis += ((Number) mbeans.getAttribute(
+                            collector, "CollectionTime")).longValue();
+                }
+                return new ServerUsage(cpuNanos, gcCount, gcMillis);
+            }
+            catch(IOException e)
+            {
+                throw e;
+            }
+            catch(Exception e)
+            {
+                throw new IOException("Cannot read the server's MBeans", e);
+            }
+        }
+
+        @Override public void close() throws IOException
+        {
+            stopper.close();
+        }
+    }
+
+    /**
+     * The CPU time and the collections of the server's JVM so far.
+     */
+    private static final class ServerUsage
+    {
+        /** the CPU time (ns) of the process */
+        private final long cpuNanos;
+        /** the number of the collections */
+        private final long gcCount;
+        /** the time (ms) of the collections */
+        private final long gcMillis;
+
+        private ServerUsage(long cpuNanos, long gcCount, long gcMillis)
+        {
+            this.cpuNanos = cpuNanos;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    /**
+     * The results of the measurement.
+     */
+    public static final class Result
+    {
+        /** the served application */
+        private final Server server;
+        /** true if the server ran as a child JVM */
+        private final boolean childJvm;
+        /** the throughput and the latencies seen by the clients */
+        private final LoadHarness.Result load;
+        /** the CPU time (ns) of the server during the measurement */
+        private final long serverCpuNanos;
+        /** the number of the server's collections during the measurement */
+        private final long gcCount;
+        /** the time (ms) of the server's collections during the measurement */
+        private final long gcMillis;
+
+        private Result(Server server, boolean childJvm,
+                       LoadHarness.Result load, ServerUsage before,
+                       ServerUsage after)
+        {
+            this.server = server;
+            this.childJvm = childJvm;
+            this.load = load;
+            serverCpuNanos = after.cpuNanos - before.cpuNanos;
+            gcCount = after.gcCount - before.gcCount;
+            gcMillis = after.gcMillis - before.gcMillis;
+        }
+
+        /** Returns the throughput and the latencies seen by the clients. */
+        public LoadHarness.Result getLoad()
+        {
+            return load;
+        }
+
+        /** Returns the server's CPU time (ns) per answered request. */
+        public double getServerCpuNanosPerRequest()
+        {
+            return (double) serverCpuNanos /
+                    Math.max(1, load.getTotal().getTotalCount());
+        }
+
+        /** Returns the number of the server's collections. */
+        public long getGcCount()
+        {
+            return gcCount;
+        }
+
+        /** Returns the time (ms) of the server's collections. */
+        public long getGcMillis()
+        {
+            return gcMillis;
+        }
+
+        @Override public String toString()
+        {
+            long requests = Math.max(1, load.getTotal().getTotalCount());
+            return String.format(
+                    "%s%n  server (%s): %.1f us CPU/request, %d collections " +
+                            "(%d ms), %.3f ms GC/1000 requests", load,
+                    childJvm ? "child JVM" : "in-process, with the clients",
+                    getServerCpuNanosPerRequest() / 1e3, gcCount, gcMillis,
+                    gcMillis * 1000.0 / requests);
+        }
+    }
+
+    /**
+     * Runs the benchmark with synthesized sessions.
+     *
+     * @param args the tile dataset, the lookup file and the tile data file
+     *             paths, the lowest and the highest level, the number of the
+     *             client threads, and optionally the server ("tile-server" or
+     *             "wmts") and "child" to start it as a child JVM
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 6)
+        {
+            System.err.println("Usage: HttpBenchmark <tileDatasetPath> " +
+                                       "<lookupFilePath> <tileDataFilePath> " +
+                                       "<minLevel> <maxLevel> <threads> " +
+                                       "[tile-server|wmts] [child]");
+            System.exit(1);
+        }
+        FileNames fileNames = new FileNames.Builder(args[0], args[1], args[2])
+                .build();
+        Workload
+                workload =
+                new Workload.Builder(Integer.parseInt(args[3]),
+                                     Integer.parseInt(args[4]), 1000000)
+                        .build();
+        Server server = args.length > 6 && args[6].equals("wmts") ?
+                Server.WMTS_APPLICATION : Server.TILE_SERVER;
+        boolean childJvm = args.length > 7 && args[7].equals("child");
+        System.out.println(new Builder(workload, fileNames).server(server)
+                                   .childJvm(childJvm)
+                                   .threads(Integer.parseInt(args[5]))
+                                   .build().run());
+    }
+}
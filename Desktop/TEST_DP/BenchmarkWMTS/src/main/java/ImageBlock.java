@@ -2,6 +2,10 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Represents the Image Block structure.
@@ -28,30 +32,68 @@ class ImageBlock
         for(String directoryName : directoriesNames)
         {
             System.out.println(directoryName);
-            int level = Integer.parseInt(directoryName);
-            String
-                    imageBlockLevelPath =
-                    imageBlockDataSetPath + File.separator + level;
-            createDirectories(imageBlockLevelPath, level);
-            moveTiles(tileDataPath, imageBlockDataSetPath, level);
+            generateImageBlockLevel(tileDataPath, imageBlockDataSetPath,
+                                    Integer.parseInt(directoryName), null);
         }
     }
 
-    private static void moveTiles(String tileDataPath,
-                                  String imageBlockDataSetPath, int level)
+    /**
+     * Generates the Image Block structure of a single level.
+     *
+     * @param tileDataPath          the dataset in the 'Simple' structure's file
+     *                              path
+     * @param imageBlockDataSetPath the Image Block's file path
+     * @param level                 the level of the tiles
+     * @param copiers               the threads copying the tiles, a column
+     *                              each; null for the calling thread
+     */
+    static void generateImageBlockLevel(String tileDataPath,
+                                        String imageBlockDataSetPath,
+                                        int level, ExecutorService copiers)
             throws IOException
     {
-        String tileDataSetLevelPath = tileDataPath + File.separator + level;
+        String imageBlockLevelPath = imageBlockDataSetPath + File.separator +
+                level;
+        createDirectories(imageBlockLevelPath, level);
         int columnNumber = Tile.computeColumnTotalNumber(level);
-        for(int column = 0; column < columnNumber; column++)
+        if(copiers == null)
         {
-            for(int row = 0; row < columnNumber; row++)
+            for(int column = 0; column < columnNumber; column++)
             {
-                String fileName = tileDataSetLevelPath + File.separator +
-                        Tile.computeName(level, column, row);
-                Tile tile = Tile.getInstance(fileName);
-                classify(tile, imageBlockDataSetPath);
+                moveTiles(tileDataPath, imageBlockDataSetPath, level, column);
             }
+            return;
+        }
+        List<Future<?>> columns = new ArrayList<>(columnNumber);
+        for(int column = 0; column < columnNumber; column++)
+        {
+            int tileColumn = column;
+            columns.add(copiers.submit(() ->
+                                       {
+                                           moveTiles(tileDataPath,
+                                                     imageBlockDataSetPath,
+                                                     level, tileColumn);
+                                           return null;
+                                       }));
+        }
+        for(Future<?> column : columns)
+        {
+            Utilities.getResult(column);
+        }
+    }
+
+    private static void moveTiles(String tileDataPath,
+                                  String imageBlockDataSetPath, int level,
+                                  int column) throws IOException
+    {
+        String tileDataSetLevelPath = tileDataPath + File.separator + level;
+        int rowNumber = Tile.computeColumnTotalNumber(level);
+        for(int row = 0; row < rowNumber; row++)
+        {
+            String fileName = tileDataSetLevelPath + File.separator +
+                    Tile.computeName(level, column, row);
+            Tile tile = Tile.getInstance(fileName);
+            classify(tile, imageBlockDataSetPath);
         }
     }
 
@@ -116,10 +158,10 @@ class ImageBlock
     private static void createSubDirectories(String imageBlockLevelPath,
                                              int level)
     {
-        long expectedTileNumber = (int) Math.pow(4, level);
+        long expectedTileNumber = Tile.computeExpectedTileNumber(level);
         if(expectedTileNumber <= 1024) return;
         long subDirNumber = expectedTileNumber / 1024;
-        int maxCol = (int) Math.pow(2, level);
+        int maxCol = Tile.computeColumnTotalNumber(level);
         System.out.println("subDirs: " + subDirNumber);
         for(int columnCounter = 0; columnCounter < maxCol; columnCounter += 32)
         {
@@ -145,7 +187,7 @@ class ImageBlock
      * fixme duplicated code; see getNewFileName
      */
     private static String tilePath(String imageBlockLevelPath, int level,
-                                   int row, int column)
+                                   int column, int row)
     {
         if(level <= 4)
         {
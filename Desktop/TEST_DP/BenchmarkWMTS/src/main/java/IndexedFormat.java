@@ -2,6 +2,10 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * @deprecated This structure doesn't make any sense >.<.
@@ -24,14 +28,49 @@ public class IndexedFormat
                 FileUtilities.getDirectoriesNames(tileDatasetPath);
         for(int i = 0; i < directoriesNames.length; i++)
         {
-            String directoryName = directoriesNames[i];
-            int level = Integer.parseInt(directoryName);
-            String
-                    indexedFormatPathLevel =
-                    indexedFormatPath + File.separator + directoryName;
-            FileUtilities.createDir(directoryName);
-            createDirectories(indexedFormatPathLevel, level);
+            generateIndexedFormatLevel(tileDatasetPath, indexedFormatPath,
+                                       Integer.parseInt(directoriesNames[i]),
+                                       null);
+        }
+    }
+
+    /**
+     * Generates the Indexed Format Structure of a single level.
+     *
+     * @param copiers the threads copying the tiles, a column each; null for
+     *                the calling thread
+     */
+    public static void generateIndexedFormatLevel(String tileDatasetPath,
+                                                  String indexedFormatPath,
+                                                  int level,
+                                                  ExecutorService copiers)
+            throws IOException
+    {
+        String
+                indexedFormatPathLevel =
+                indexedFormatPath + File.separator + level;
+        createDirectories(indexedFormatPathLevel, level);
+        if(copiers == null)
+        {
             moveTiles(tileDatasetPath, indexedFormatPathLevel, level);
+            return;
+        }
+        int expectedColumn = Tile.computeColumnTotalNumber(level);
+        List<Future<?>> columns = new ArrayList<>(expectedColumn);
+        for(int column = 0; column < expectedColumn; column++)
+        {
+            int tileColumn = column;
+            columns.add(copiers.submit(() ->
+                                       {
+                                           moveTiles(tileDatasetPath,
+                                                     indexedFormatPathLevel,
+                                                     level, tileColumn);
+                                           return null;
+                                       }));
+        }
+        for(Future<?> column : columns)
+        {
+            Utilities.getResult(column);
         }
     }
 
@@ -45,24 +84,33 @@ public class IndexedFormat
         int expectedColumn = Tile.computeColumnTotalNumber(level);
         for(int column = 0; column < expectedColumn; column++)
         {
-            for(int row = 0; row < expectedColumn; row++)
-            {
-                String tileName = Tile.computeName(level, column, row);
-                String
-                        filePath =
-                        tileDataset + File.separator + level + File.separator +
-                                tileName;
-                String
-                        newFilePath =
-                        indexedFormatPathLevel + File.separator + column +
-                                File.separator + row + File.separator +
-                                tileName;
-                /*System.out.println("filepath: " + filePath);
-                System.out.println("newFilePath: " + newFilePath);*/
-                File file = new File(filePath);
-                File newFile = new File(newFilePath);
-                FileUtils.copyFile(file, newFile);
-            }
+            moveTiles(tileDataset, indexedFormatPathLevel, level, column);
+        }
+    }
+
+    /**
+     * Moves the tiles of a column to the new Path.
+     */
+    private static void moveTiles(String tileDataset,
+                                  String indexedFormatPathLevel, int level,
+                                  int column) throws IOException
+    {
+        int expectedColumn = Tile.computeColumnTotalNumber(level);
+        for(int row = 0; row < expectedColumn; row++)
+        {
+            String tileName = Tile.computeName(level, column, row);
+            String
+                    filePath =
+                    tileDataset + File.separator + level + File.separator +
+                            tileName;
+            String
+                    newFilePath =
+                    indexedFormatPathLevel + File.separator + column +
+                            File.separator + row + File.separator +
+                            tileName;
+            File file = new File(filePath);
+            File newFile = new File(newFilePath);
+            FileUtils.copyFile(file, newFile);
         }
     }
 
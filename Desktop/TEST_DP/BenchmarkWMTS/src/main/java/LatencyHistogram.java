@@ -0,0 +1,137 @@
+/**
+ * A histogram of latencies (ns) in the manner of HdrHistogram: the values
+ * are counted in buckets whose width grows with the value, so that every
+ * recorded value is kept within a relative error of 1/128 (under 0.8%) at a
+ * fixed memory cost, whatever the number of the recorded values. The values
+ * below 128 ns are kept exactly, and the values over about 137 s (2^37 ns)
+ * are counted in the last bucket (the exact maximum is kept aside).
+ *
+ * Not thread-safe: each thread records into its own histogram, and the
+ * histograms are added up afterwards.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class LatencyHistogram
+{
+    /** the number of the bits of the sub-buckets of each power of two */
+    private final static int subBucketBits = 7;
+    /** the number of the sub-buckets of each power of two */
+    private final static int subBucketCount = 1 << subBucketBits;
+    /** the exponent (power of two) of the highest tracked value */
+    private final static int maxExponent = 36;
+    /** the highest value that is kept within the relative error */
+    private final static long maxTrackedValue = (1L << maxExponent + 1) - 1;
+
+    /** the counts of the values, per bucket */
+    private final long[] counts =
+            new long[(maxExponent - subBucketBits + 2) * subBucketCount];
+    /** the number of the recorded values */
+    private long totalCount;
+    /** the sum of the recorded values */
+    private long totalValue;
+    /** the highest recorded value */
+    private long maxValue;
+
+    /**
+     * Records a value.
+     *
+     * @param value the latency (ns); the negative values are recorded as 0
+     */
+    public void record(long value)
+    {
+        value = Math.max(0, value);
+        counts[bucketIndex(Math.min(value, maxTrackedValue))]++;
+        totalCount++;
+        totalValue += value;
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for(int i = 0; i < counts.length; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Returns the bucket of a value: the values below {@link
+     * #subBucketCount} have a bucket each, and each following power of two
+     * is split into {@link #subBucketCount} buckets.
+     */
+    private static int bucketIndex(long value)
+    {
+        if(value < subBucketCount) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> exponent - subBucketBits);
+        return (exponent - subBucketBits + 1) * subBucketCount + subBucket -
+                subBucketCount;
+    }
+
+    /**
+     * Returns the highest value of a bucket.
+     */
+    private static long highestValue(int bucketIndex)
+    {
+        if(bucketIndex < subBucketCount) return bucketIndex;
+        int exponent = bucketIndex / subBucketCount + subBucketBits - 1;
+        long subBucket = bucketIndex % subBucketCount + subBucketCount;
+        int shift = exponent - subBucketBits;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the value at a percentile: the recorded values of the given
+     * percentage are not higher than it, within the relative error.
+     *
+     * @param percentile the percentile, from 0 to 100
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if(totalCount == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(
+                Math.min(100, percentile) / 100 * totalCount));
+        long count = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            count += counts[i];
+            if(count >= rank) return Math.min(highestValue(i), maxValue);
+        }
+        return maxValue;
+    }
+
+    /** Returns the number of the recorded values. */
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    /** Returns the highest recorded value. */
+    public long getMaxValue()
+    {
+        return maxValue;
+    }
+
+    /** Returns the mean of the recorded values. */
+    public double getMean()
+    {
+        return totalCount == 0 ? 0 : (double) totalValue / totalCount;
+    }
+
+    @Override public String toString()
+    {
+        return String.format(
+                "%d values, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, " +
+                        "max %.1f us", totalCount,
+                getValueAtPercentile(50) / 1e3,
+                getValueAtPercentile(99) / 1e3,
+                getValueAtPercentile(99.9) / 1e3, maxValue / 1e3);
+    }
+}
@@ -1,27 +1,70 @@
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Contains the Lookup file and the TileData file and provides the necessary
  * methods to store and retrieve the tiles into the files.
  *
+ * Existing LevelFiles can be updated in place ({@link #updateTiles}): the new
+ * bytes are appended to the TileDataFile and only the updated lookup records
+ * are rewritten. The bytes that are no longer referenced stay in the
+ * TileDataFile until the level is compacted ({@link #compact}).
+ *
+ * Next to the lookup records, the content hash of each tile is kept in a
+ * {@link ContentHashFile}, so that the hash of a tile is known without
+ * reading the tile.
+ *
  * @author mkotsollaris
  * @since 1.0
  */
-final class LevelFiles
+final class LevelFiles implements Closeable
 {
     /** the number of the bytes that we use for the position pointer */
     final static int positionAllocationBytes = 8;
     /** the number of the bytes that we use for the size pointer */
     final static int sizeAllocationBytes = 4;
+    /**
+     * the maximum gap (bytes) between two tiles of a batch that are still read
+     * with a single read
+     */
+    private final static int coalescingGapBytes = 32 * 1024;
+    /** the maximum number of bytes of a single coalesced read */
+    private final static int maxCoalescedReadBytes = 4 * 1024 * 1024;
+    /** the suffix of the files written by an unfinished compaction */
+    private final static String compactingSuffix = ".compacting";
     /** the Lookup File */
     private final LookupFile lookupFile;
     /** the TileData File */
     private final TileDataFile tileDataFile;
+    /** the file of the tiles' content hashes */
+    private final ContentHashFile hashFile;
     /** the level of the according tile dataset */
     private final int level;
     /** the path of the tile dataset in the particular level */
     private final String tileDataSetLevelPath;
+    /**
+     * the records of the tiles stored in the TileDataFile, null if all the
+     * tiles are stored; replaced as a whole on updates, never modified
+     */
+    private volatile BitSet presence;
+    /** the metadata of the level */
+    private final LevelMetadata metadata;
+    /** the tile served in place of the absent tiles, null for no tile */
+    private final byte[] blankTile;
+    /** the content hash of the blank tile, unknown for no blank tile */
+    private final long blankTileHash;
 
     /**
      * Provides the Builder pattern for the object initialization.
@@ -32,6 +75,18 @@ final class LevelFiles
         private final int level;
         /** the file names information */
         private final FileNames fileNames;
+        /** whether the LookupFile is mapped into memory */
+        private boolean memoryMapped;
+        /** whether the LookupFile is loaded into a compact index */
+        private boolean lookupIndex;
+        /** whether missing or incomplete content is generated */
+        private boolean generate = true;
+        /** the threads reading the source tiles during the generation */
+        private ExecutorService readers;
+        /** the layout of the tiles when the content is generated */
+        private TileLayout layout = TileLayout.ROW_MAJOR;
+        /** the blank tile of the level when the content is generated */
+        private byte[] blankTile;
 
         /**
          * Implements the Builder Pattern for the object initialization.
@@ -45,6 +100,87 @@ final class LevelFiles
             this.fileNames = fileNames;
         }
 
+        /**
+         * Maps the {@link LookupFile} into memory, so that a lookup costs no
+         * I/O calls.
+         *
+         * @param memoryMapped true for mapping the LookupFile
+         */
+        Builder memoryMapped(boolean memoryMapped)
+        {
+            this.memoryMapped = memoryMapped;
+            return this;
+        }
+
+        /**
+         * Loads the {@link LookupFile} into a compact in-memory {@link
+         * LookupIndex}, so that a lookup costs no I/O calls, using a fraction
+         * of the memory of the mapped file. Takes precedence over the
+         * mapping.
+         *
+         * @param lookupIndex true for loading the index
+         */
+        Builder lookupIndex(boolean lookupIndex)
+        {
+            this.lookupIndex = lookupIndex;
+            return this;
+        }
+
+        /**
+         * Sets whether the content is generated when the files of the level
+         * are missing, or resumed when they are incomplete. Otherwise the
+         * build fails with a {@link FileNotFoundException} (e.g. on a node
+         * that only serves the tiles). The default value is true.
+         *
+         * @param generate false for failing on missing content
+         */
+        Builder generate(boolean generate)
+        {
+            this.generate = generate;
+            return this;
+        }
+
+        /**
+         * Sets the threads that read the source tiles when the content is
+         * generated. If not set, the tiles are read by the generating
+         * thread.
+         *
+         * @param readers the reader threads
+         */
+        Builder readers(ExecutorService readers)
+        {
+            this.readers = readers;
+            return this;
+        }
+
+        /**
+         * Sets the order in which the tiles are laid out within the files
+         * when the content is generated. Existing LevelFiles are read with
+         * the layout recorded in their {@link LevelMetadata}. The default
+         * value is {@link TileLayout#ROW_MAJOR}.
+         *
+         * @param layout the {@link TileLayout}
+         */
+        Builder layout(TileLayout layout)
+        {
+            this.layout = layout;
+            return this;
+        }
+
+        /**
+         * Sets the blank tile of the level when the content is generated. The
+         * tiles identical to it, as well as the missing ones, are not stored;
+         * the blank tile is served in their place. Existing LevelFiles keep
+         * the blank tile they were generated with.
+         *
+         * @param blankTile the data of the blank tile, null for no blank tile
+         */
+        Builder blankTile(byte[] blankTile)
+        {
+            this.blankTile = blankTile;
+            return this;
+        }
+
         /**
          * Initializes the object.
          */
@@ -66,101 +202,316 @@ final class LevelFiles
     private LevelFiles(Builder builder) throws IOException
     {
         boolean generate = false;
+        boolean resume;
         level = builder.level;
         /* the file names information */
         FileNames fileNames = builder.fileNames;
         String lookupFileName = fileNames.getLookupFilePath() + level;
         String tileDataFileName = fileNames.getTileDataFilePath() + level;
+        recoverCompaction(lookupFileName, tileDataFileName);
         if(!(FileUtilities.exists(lookupFileName) &&
                 FileUtilities.exists(tileDataFileName))) generate = true;
         tileDataSetLevelPath = builder.fileNames.getTileDataSetPath() +
                 File.separator +
                 level;
-        lookupFile = new LookupFile.Builder(lookupFileName, level).build();
+        metadata = LevelMetadata.getInstance(lookupFileName);
+        resume = !generate && !metadata.isComplete();
+        if((generate || resume) && !builder.generate)
+            throw new FileNotFoundException(
+                    "The LevelFiles of the level " + level + " are " +
+                            (generate ? "missing" : "incomplete") + ": " +
+                            lookupFileName);
+        if(generate)
+        {
+            // marks the level as incomplete before any of its files exists
+            metadata.setLayout(builder.layout);
+            metadata.setComplete(false);
+            metadata.storeBlankTile(builder.blankTile);
+            metadata.store();
+        }
+        lookupFile = new LookupFile.Builder(lookupFileName, level)
+                .layout(metadata.getLayout()).build();
         tileDataFile =
                 new TileDataFile.Builder(tileDataFileName, level).build();
-        if(generate)
+        hashFile = ContentHashFile.getInstance(lookupFileName);
+        if(generate || resume)
         {
             System.out.println(
                     "Generating Content for the level: " + level + " ...");
-            generateContent();
+            BitSet generatedPresence =
+                    generateContent(builder.readers, metadata.loadBlankTile());
+            metadata.storePresence(generatedPresence);
+            metadata.setComplete(true);
+            metadata.store();
         }
 /*        else System.out.println(
                 "LevelFiles already exists for the level: " + level + ".");*/
+        presence = metadata.loadPresence();
+        blankTile = metadata.loadBlankTile();
+        blankTileHash = blankTile == null ? ContentHashFile.unknownHash :
+                ContentHashFile.computeHash(blankTile);
+        if(builder.memoryMapped)
+        {
+            lookupFile.map();
+            hashFile.map();
+        }
+        if(builder.lookupIndex) lookupFile.loadIndex();
     }
 
     /**
-     * Generates the LevelFiles (LookupFile and TileDataFile).
+     * Generates the LevelFiles (LookupFile and TileDataFile), resuming from
+     * the checkpoint of an interrupted generation, if any. The level stays
+     * marked as incomplete until the generation has finished.
+     *
+     * @param readers   the threads reading the source tiles, may be null
+     * @param blankTile the blank tile of the level, may be null
+     *
+     * @return the records of the tiles stored in the TileDataFile
      */
-    private void generateContent() throws IOException
+    private BitSet generateContent(ExecutorService readers, byte[] blankTile)
+            throws IOException
     {
-        int columnNumber = Tile.computeColumnTotalNumber(level);
-        long expectedTileNumber = Tile.computeExpectedTileNumber(level);
-        long tileCounter = 0;
-        for(int column = 0; column < columnNumber; column++)
+        LevelFilesGenerator
+                generator =
+                new LevelFilesGenerator.Builder(level, tileDataSetLevelPath,
+                                                lookupFile, tileDataFile)
+                        .readers(readers).blankTile(blankTile)
+                        .metadata(metadata).hashFile(hashFile).build();
+        generator.generate();
+        return generator.getPresence();
+    }
+
+    /**
+     * Returns true if the tile is stored in the {@link TileDataFile}.
+     *
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    boolean isPresent(int column, int row)
+    {
+        return presence == null ||
+                presence.get((int) lookupFile.getRecordIndex(column, row));
+    }
+
+    /**
+     * Returns the content hash of the tile without reading the tile: the hash
+     * of the blank tile for an absent tile, or {@link
+     * ContentHashFile#unknownHash} if it is not known (or there is no tile).
+     *
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    long getContentHash(int column, int row) throws IOException
+    {
+        if(!isPresent(column, row)) return blankTileHash;
+        return hashFile.readHash(lookupFile.getRecordIndex(column, row));
+    }
+
+    /**
+     * Returns the tile served in place of an absent tile: the blank tile of
+     * the level (shared among all the absent tiles) or null for no tile.
+     */
+    private Tile getAbsentTile(int column, int row)
+    {
+        if(blankTile == null) return null;
+        return new Tile.Builder(blankTile, level, column, row).build();
+    }
+
+    /**
+     * Returns the tile by parsing both lookup and tile data files.
+     *
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     *
+     * @return : The corresponding tile object, the blank tile or null if the
+     * tile is absent
+     */
+    public Tile getTile(int column, int row) throws IOException
+    {
+        if(!isPresent(column, row)) return getAbsentTile(column, row);
+        ByteBuffer record = getRecord(column, row);
+        byte[] tileData = tileDataFile.getTile(record.getLong(0), record
+                .getInt(positionAllocationBytes));
+        return new Tile.Builder(tileData, level, column, row).build();
+    }
+
+    /**
+     * Returns the tile without blocking the calling thread: both the lookup
+     * record and the tile's bytes are read asynchronously, unless the record
+     * is held in memory (mapped or indexed lookup file).
+     *
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     *
+     * @return a future completed with the corresponding tile object, the
+     * blank tile or null if the tile is absent
+     */
+    CompletableFuture<Tile> getTileAsync(int column, int row)
+    {
+        if(!isPresent(column, row))
+            return CompletableFuture.completedFuture(
+                    getAbsentTile(column, row));
+        return lookupFile.readRecordAsync(
+                lookupFile.getFilePosition(column, row)).thenCompose(record ->
+        {
+            int tileSize = record.getInt(positionAllocationBytes);
+            if(tileSize < 0)
+                return CompletableFuture.completedFuture((byte[]) null);
+            return tileDataFile.getTileAsync(record.getLong(0), tileSize);
+        }).thenApply(tileData -> tileData == null ? getAbsentTile(column, row) :
+                new Tile.Builder(tileData, level, column, row).build());
+    }
+
+    /**
+     * Returns a batch of tiles (e.g. the tiles of a viewport). All the lookup
+     * records are resolved first; then the tiles are read in the order of
+     * their position within the {@link TileDataFile}, and the tiles that are
+     * adjacent (or close enough) within the file are read with a single
+     * read.
+     *
+     * @param columns the columns of the {@link Tile}s
+     * @param rows    the rows of the {@link Tile}s, in the same order
+     *
+     * @return the tiles, in the order of the given columns and rows (the
+     * absent tiles are either the blank tile or null)
+     */
+    Tile[] getTiles(int[] columns, int[] rows) throws IOException
+    {
+        if(columns.length != rows.length)
+            throw new IllegalArgumentException(
+                    "columns: " + columns.length + ", rows: " + rows.length);
+        Tile[] tiles = new Tile[columns.length];
+        long[] tileDataPositions = new long[columns.length];
+        int[] tileSizes = new int[columns.length];
+        Integer[] order = new Integer[columns.length];
+        int tileNumber = 0;
+        for(int i = 0; i < columns.length; i++)
         {
-            for(int row = 0; row < columnNumber; row++)
+            if(!isPresent(columns[i], rows[i]))
             {
-                String fileName = tileDataSetLevelPath + File.separator +
-                        Tile.computeName(level, column, row);
-                Tile tile = Tile.getInstance(fileName);
-                if(tile.isValid())
-                {
-                    write(tile);
-                }
-                tileCounter++;
-                Utilities.showStatus(tileCounter, expectedTileNumber, 50000);
+                tiles[i] = getAbsentTile(columns[i], rows[i]);
+                continue;
             }
+            ByteBuffer record = getRecord(columns[i], rows[i]);
+            tileDataPositions[i] = record.getLong(0);
+            tileSizes[i] = record.getInt(positionAllocationBytes);
+            order[tileNumber++] = i;
         }
+        Arrays.sort(order, 0, tileNumber,
+                    Comparator.comparingLong(i -> tileDataPositions[i]));
+        int first = 0;
+        while(first < tileNumber)
+        {
+            long start = tileDataPositions[order[first]];
+            long end = start + tileSizes[order[first]];
+            int last = first + 1;
+            while(last < tileNumber)
+            {
+                long nextStart = tileDataPositions[order[last]];
+                long nextEnd = Math.max(end,
+                                        nextStart + tileSizes[order[last]]);
+                if(nextStart - end > coalescingGapBytes ||
+                        nextEnd - start > maxCoalescedReadBytes) break;
+                end = nextEnd;
+                last++;
+            }
+            byte[] data = tileDataFile.getTile(start, (int) (end - start));
+            for(int j = first; j < last; j++)
+            {
+                int i = order[j];
+                int from = (int) (tileDataPositions[i] - start);
+                byte[] tileData = Arrays.copyOfRange(data, from,
+                                                     from + tileSizes[i]);
+                tiles[i] = new Tile.Builder(tileData, level, columns[i],
+                                            rows[i]).build();
+            }
+            first = last;
+        }
+        return tiles;
     }
 
+    /**
+     * Returns the size (bytes) of the tile as stored in the {@link
+     * LookupFile}, without reading the tile itself. For an absent tile, the
+     * size of the blank tile or {@link LookupFile#absentTileSize}.
+     *
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    int getTileSize(int column, int row) throws IOException
+    {
+        if(!isPresent(column, row))
+            return blankTile == null ? LookupFile.absentTileSize :
+                    blankTile.length;
+        return getRecord(column, row).getInt(positionAllocationBytes);
+    }
 
     /**
-     * Updates the tileData and LookUpFile based on the given tile.
+     * Returns the lookup record of the tile, read at once so that the
+     * position and the size belong to the same version of the tile (see
+     * {@link LookupFile#readRecord}). The tile must be present.
      *
-     * As explained in page 135. Note that there will be 2^zoomLevel rows and
-     * columns. The tile generation algorithm follows the WGS84 standards.
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
      *
-     * File format: First byte: 32 bit (8 byte) for the first number that shows
-     * which byte to read from the File Dataset. Second byte: 16 bit (4 byte)
-     * for the second number that shows what's the size of the particular tile
-     * image.
+     * @return a buffer holding the position of the tile's bytes within the
+     * {@link TileDataFile} (at 0) and their size (at {@link
+     * #positionAllocationBytes})
+     */
+    ByteBuffer getRecord(int column, int row) throws IOException
+    {
+        return lookupFile.readRecord(lookupFile.getFilePosition(column, row));
+    }
+
+    /** Returns the {@link TileDataFile} of the level. */
+    TileDataFile getTileDataFile()
+    {
+        return tileDataFile;
+    }
+
+    /** Returns the blank tile of the level, or null if the level has none. */
+    byte[] getBlankTile()
+    {
+        return blankTile;
+    }
+
+    /**
+     * Reads the tile's bytes into the remaining bytes of the target buffer,
+     * which must be as many as the tile's size.
      *
-     * @param tile: the wanted tile
+     * @param record the lookup record of the tile ({@link #getRecord})
+     * @param target the buffer that will be filled with the tile
      */
-    private void write(Tile tile) throws IOException
+    void readTile(ByteBuffer record, ByteBuffer target) throws IOException
     {
-        long
-                lookupFilePosition =
-                lookupFile.getFilePosition(tile.getColumn(), tile.getRow());
-        long
-                tileDataFileLength =
-                FileUtilities.getFileLength(tileDataFile.getFilePath());
-        lookupFile.writeLong(tileDataFileLength, lookupFilePosition);
-        lookupFile.writeInt(
-                tile.getData().length,
-                lookupFilePosition + positionAllocationBytes);
-        tileDataFile.write(tile.getData(), tileDataFileLength);
+        tileDataFile.readTile(record.getLong(0), target);
     }
 
     /**
-     * Returns the tile by parsing both lookup and tile data files.
+     * Writes the tile's bytes to the target channel directly from the {@link
+     * TileDataFile}; see {@link TileDataFile#transferTile} for when the tile
+     * is copied into the heap.
      *
      * @param column the column of the {@link Tile}
      * @param row    the row of the {@link Tile}
+     * @param target the channel that the tile will be written to
      *
-     * @return : The corresponding tile object
+     * @return the number of bytes written, or {@link
+     * LookupFile#absentTileSize} if there is no tile
      */
-    public Tile getTile(int column, int row) throws IOException
+    int transferTile(int column, int row, WritableByteChannel target)
+            throws IOException
     {
-        long lookupFilePosition = lookupFile.getFilePosition(column, row);
-        long tileDataPosition = lookupFile.readLong(lookupFilePosition);
-        int
-                tileSize =
-                lookupFile
-                        .readInt(lookupFilePosition + positionAllocationBytes);
-        byte[] tileData = tileDataFile.getTile(tileDataPosition, tileSize);
-        return new Tile.Builder(tileData, level, column, row).build();
+        if(!isPresent(column, row))
+        {
+            if(blankTile == null) return LookupFile.absentTileSize;
+            FileUtilities.writeFully(target, ByteBuffer.wrap(blankTile));
+            return blankTile.length;
+        }
+        ByteBuffer record = getRecord(column, row);
+        int tileSize = record.getInt(positionAllocationBytes);
+        tileDataFile.transferTile(record.getLong(0), tileSize, target);
+        return tileSize;
     }
 
     /**
@@ -176,7 +527,7 @@ final class LevelFiles
      */
     long getPosition(int level, int column, int row)
     {
-        return ((column * (int) (Math.pow(2, level))) + row) *
+        return lookupFile.getLayout().index(level, column, row) *
                 (positionAllocationBytes + sizeAllocationBytes);
     }
 
@@ -191,9 +542,8 @@ final class LevelFiles
      */
     static long getExpectedFileLength(int level)
     {
-        return (int) Math.pow(2, level) *
-                (int) Math.pow(2, level) *
-                12;
+        return Tile.computeExpectedTileNumber(level) *
+                LookupFile.recordAllocationBytes();
     }
 
     /**
@@ -208,26 +558,259 @@ final class LevelFiles
     }
 
     /**
-     * Generates the level files for all the possible levels.
+     * Replaces or adds tiles of the level. The tiles' bytes are appended to
+     * the TileDataFile, and then their lookup records are rewritten; the
+     * tiles identical to the blank tile become absent. The rest of the level
+     * is left untouched.
+     *
+     * Reads may run concurrently: a read of a tile that is being updated
+     * returns either its previous or its new version, since the lookup
+     * records are read and replaced whole.
+     *
+     * @param tiles the new tiles, all of this level
+     */
+    synchronized void updateTiles(Tile... tiles) throws IOException
+    {
+        long[] recordIndexes = new long[tiles.length];
+        byte[][] storedTiles = new byte[tiles.length][];
+        BitSet updatedPresence = presence != null ? (BitSet) presence.clone() :
+                getFullPresence();
+        for(int i = 0; i < tiles.length; i++)
+        {
+            Tile tile = tiles[i];
+            if(tile.getLevel() != level)
+                throw new IllegalArgumentException(
+                        "Not a tile of the level " + level + ": " + tile);
+            recordIndexes[i] = lookupFile.getRecordIndex(tile.getColumn(),
+                                                         tile.getRow());
+            if(Arrays.equals(tile.getData(), blankTile))
+                updatedPresence.clear((int) recordIndexes[i]);
+            else
+            {
+                storedTiles[i] = tile.getData();
+                updatedPresence.set((int) recordIndexes[i]);
+            }
+        }
+        long[] positions = new long[tiles.length];
+        tileDataFile.appendTiles(storedTiles, positions);
+        int storedTileNumber = 0;
+        for(byte[] storedTile : storedTiles)
+        {
+            if(storedTile != null) storedTileNumber++;
+        }
+        // the records of the tiles becoming absent are kept as they are, so
+        // that the readers still holding the previous presence read valid
+        // records
+        long[] storedRecordIndexes = new long[storedTileNumber];
+        long[] storedPositions = new long[storedTileNumber];
+        int[] storedSizes = new int[storedTileNumber];
+        long[] storedHashes = new long[storedTileNumber];
+        for(int i = 0, j = 0; i < tiles.length; i++)
+        {
+            if(storedTiles[i] == null) continue;
+            storedRecordIndexes[j] = recordIndexes[i];
+            storedPositions[j] = positions[i];
+            storedHashes[j] = ContentHashFile.computeHash(storedTiles[i]);
+            storedSizes[j++] = storedTiles[i].length;
+        }
+        lookupFile.writeRecords(storedRecordIndexes, storedPositions,
+                                storedSizes);
+        // the hashes are written after the records: meanwhile a new tile may
+        // be served with its old hash, which only costs a later full read,
+        // but an old tile is never served with the new hash
+        hashFile.writeHashes(storedRecordIndexes, storedHashes);
+        metadata.storePresence(updatedPresence);
+        presence = updatedPresence;
+    }
+
+    /**
+     * Returns a presence bitmap with all the tiles of the level present.
+     */
+    private BitSet getFullPresence()
+    {
+        BitSet fullPresence = new BitSet();
+        fullPresence.set(0, (int) Tile.computeExpectedTileNumber(level));
+        return fullPresence;
+    }
+
+    /**
+     * Compacts the LevelFiles of a level: the bytes of the present tiles are
+     * copied, in their current order, into a new TileDataFile without the
+     * bytes that are no longer referenced (e.g. replaced by updates), and
+     * the lookup records are rewritten accordingly. Tiles sharing the same
+     * bytes keep sharing them.
+     *
+     * The new files are written next to the current ones and then swapped
+     * in with atomic renames; if the process stops in between, the next
+     * opening of the level either completes the swap or discards the new
+     * files. The LevelFiles of the level must not be open meanwhile.
+     *
+     * @param fileNames the {@link FileNames}
+     * @param level     the level to be compacted
+     *
+     * @return the number of the reclaimed bytes
+     */
+    static long compact(FileNames fileNames, int level) throws IOException
+    {
+        String lookupFileName = fileNames.getLookupFilePath() + level;
+        String tileDataFileName = fileNames.getTileDataFilePath() + level;
+        recoverCompaction(lookupFileName, tileDataFileName);
+        LevelMetadata metadata = LevelMetadata.getInstance(lookupFileName);
+        BitSet presence = metadata.loadPresence();
+        int recordNumber = (int) Tile.computeExpectedTileNumber(level);
+        long[] positions = new long[recordNumber];
+        int[] sizes = new int[recordNumber];
+        new LookupFile.Builder(lookupFileName, level)
+                .layout(metadata.getLayout()).build()
+                .readRecords(positions, sizes);
+        // the distinct positions of the stored bytes, ascending
+        long[] storedPositions = new long[recordNumber];
+        int storedNumber = 0;
+        for(int record = 0; record < recordNumber; record++)
+        {
+            if(isStored(presence, sizes, record))
+                storedPositions[storedNumber++] = positions[record];
+        }
+        Arrays.sort(storedPositions, 0, storedNumber);
+        int distinctNumber = 0;
+        for(int i = 0; i < storedNumber; i++)
+        {
+            if(distinctNumber == 0 ||
+                    storedPositions[i] != storedPositions[distinctNumber - 1])
+                storedPositions[distinctNumber++] = storedPositions[i];
+        }
+        // from now on, the position of a stored record is the index of its
+        // bytes within storedPositions
+        int[] storedSizes = new int[distinctNumber];
+        for(int record = 0; record < recordNumber; record++)
+        {
+            if(!isStored(presence, sizes, record)) continue;
+            int index = Arrays.binarySearch(storedPositions, 0, distinctNumber,
+                                            positions[record]);
+            storedSizes[index] = Math.max(storedSizes[index], sizes[record]);
+            positions[record] = index;
+        }
+        long compactedLength;
+        String compactedTileDataFileName = tileDataFileName + compactingSuffix;
+        try(FileChannel source = FileChannel.open(Paths.get(tileDataFileName),
+                                                  StandardOpenOption.READ);
+            FileChannel target = FileChannel
+                    .open(Paths.get(compactedTileDataFileName),
+                          StandardOpenOption.CREATE,
+                          StandardOpenOption.TRUNCATE_EXISTING,
+                          StandardOpenOption.WRITE))
+        {
+            compactedLength = copyStoredBytes(source, target, storedPositions,
+                                              storedSizes);
+            target.force(true);
+        }
+        long originalLength = FileUtilities.getFileLength(tileDataFileName);
+        for(int record = 0; record < recordNumber; record++)
+        {
+            if(isStored(presence, sizes, record))
+                positions[record] = storedPositions[(int) positions[record]];
+            else
+            {
+                positions[record] = 0;
+                sizes[record] = LookupFile.absentTileSize;
+            }
+        }
+        String compactedLookupFileName = lookupFileName + compactingSuffix;
+        FileUtilities.deleteFile(compactedLookupFileName);
+        new LookupFile.Builder(compactedLookupFileName, level).build()
+                .writeRecords(positions, sizes);
+        FileUtilities.moveAtomically(compactedTileDataFileName,
+                                     tileDataFileName);
+        FileUtilities.moveAtomically(compactedLookupFileName, lookupFileName);
+        return originalLength - compactedLength;
+    }
+
+    /**
+     * Returns true if the record points to bytes stored in the TileDataFile.
+     */
+    private static boolean isStored(BitSet presence, int[] sizes, int record)
+    {
+        return presence == null ? sizes[record] >= 0 : presence.get(record);
+    }
+
+    /**
+     * Copies the stored bytes from the source to the target, in ascending
+     * order; adjacent (or overlapping) ranges are copied with a single
+     * transfer. The positions are replaced with the new positions within the
+     * target.
      *
-     * @param fileNames the {@link FileNames}.
+     * @return the length of the target
      */
-    static LevelFiles[] getInstance(FileNames fileNames) throws IOException
+    private static long copyStoredBytes(FileChannel source, FileChannel target,
+                                        long[] positions, int[] sizes)
+            throws IOException
+    {
+        long targetLength = 0;
+        int first = 0;
+        while(first < sizes.length)
+        {
+            long start = positions[first];
+            long end = start + sizes[first];
+            int last = first + 1;
+            while(last < sizes.length && positions[last] <= end)
+            {
+                end = Math.max(end, positions[last] + sizes[last]);
+                last++;
+            }
+            FileUtilities.transferFully(source, start, end - start, target);
+            for(int i = first; i < last; i++)
+            {
+                positions[i] = targetLength + positions[i] - start;
+            }
+            targetLength += end - start;
+            first = last;
+        }
+        return targetLength;
+    }
+
+    /**
+     * Completes or discards a compaction that was interrupted: once the new
+     * TileDataFile has been swapped in, the new LookupFile must follow it;
+     * before that, the new files are discarded.
+     */
+    private static void recoverCompaction(String lookupFileName,
+                                          String tileDataFileName)
+            throws IOException
     {
-        int
-                totalTileDataSetDirectoryNumber =
-                FileUtilities.getDirectoriesNames(
-                        fileNames.getTileDataSetPath()).length;
-        LevelFiles[]
-                levelFiles =
-                new LevelFiles[totalTileDataSetDirectoryNumber + 1];
-        for(int i = 0; i < totalTileDataSetDirectoryNumber; i++)
+        String compactedLookupFileName = lookupFileName + compactingSuffix;
+        String compactedTileDataFileName = tileDataFileName + compactingSuffix;
+        if(FileUtilities.exists(compactedLookupFileName) &&
+                !FileUtilities.exists(compactedTileDataFileName))
         {
-            levelFiles[i] = new LevelFiles.Builder(fileNames, i).build();
+            FileUtilities.moveAtomically(compactedLookupFileName,
+                                         lookupFileName);
+            return;
         }
-        return levelFiles;
+        FileUtilities.deleteFile(compactedLookupFileName);
+        FileUtilities.deleteFile(compactedTileDataFileName);
     }
 
+    /**
+     * Releases the open files of the level.
+     */
+    @Override public void close() throws IOException
+    {
+        try
+        {
+            tileDataFile.close();
+        }
+        finally
+        {
+            try
+            {
+                lookupFile.close();
+            }
+            finally
+            {
+                hashFile.close();
+            }
+        }
+    }
 
     @Override public String toString()
     {
@@ -0,0 +1,564 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Generates the content of the LevelFiles (LookupFile and TileDataFile) of a
+ * particular level.
+ *
+ * Missing source tiles, as well as the tiles identical to the level's blank
+ * tile (if any), are not stored in the TileDataFile: their lookup record holds
+ * the {@link LookupFile#absentTileSize} sentinel, and they are left out of the
+ * level's presence bitmap.
+ *
+ * The tiles are appended in the order of the LookupFile's {@link
+ * TileLayout}, so that the TileDataFile follows the same layout.
+ *
+ * If the level's {@link LevelMetadata} is given, the generation is
+ * checkpointed: every {@link #checkpointTileNumber} tiles (or {@link
+ * #checkpointBytes} bytes) the appended tiles and their lookup records are
+ * forced to disk, and then the number of the records and the length of the
+ * TileDataFile are stored in the metadata. A generation that finds a
+ * checkpoint drops the bytes after it and resumes from the following tile.
+ * The tiles stored before the checkpoint are not used for deduplicating the
+ * following ones.
+ *
+ * The content of the tiles is deduplicated: each stored tile is fingerprinted
+ * (the first 128 bits of its SHA-256 digest), and the lookup records of the
+ * later tiles with the same fingerprint and size point to the already stored
+ * bytes instead of appending them again. Several records may therefore share
+ * the same position within the TileDataFile. The first 64 bits of the digest
+ * are also kept as the tile's content hash ({@link ContentHashFile}).
+ *
+ * The generation is pipelined: the source tiles are read and fingerprinted
+ * by the reader threads (if any), while a single appender (the calling
+ * thread) consumes them in order and appends their bytes to the TileDataFile
+ * through one open channel and a large write buffer. The running offset of
+ * the TileDataFile and the lookup table are kept in memory; the table is
+ * written to the LookupFile in one pass at the end. The content hashes are
+ * only buffered up to a checkpoint's worth of tiles at a time.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+final class LevelFilesGenerator
+{
+    /** the size (bytes) of the buffer used for appending to the TileDataFile */
+    private final static int writeBufferSize = 4 * 1024 * 1024;
+    /** the maximum number of tiles read ahead of the appender */
+    private final static int readAheadTileNumber = 1024;
+    /** the maximum number of the tiles appended between two checkpoints */
+    private final static int checkpointTileNumber = 64 * 1024;
+    /** the maximum number of the bytes appended between two checkpoints */
+    private final static long checkpointBytes = 256 * 1024 * 1024;
+    /**
+     * the maximum number of the distinct tiles remembered for the
+     * deduplication; the following ones are still deduplicated against them.
+     * The table has twice as many slots of 28 bytes, so it takes up to about
+     * 117MB
+     */
+    private final static int maxFingerprintNumber = 1 << 21;
+    /** the digests used for fingerprinting the tiles, per reading thread */
+    private final static ThreadLocal<MessageDigest>
+            digests =
+            ThreadLocal.withInitial(ContentHashFile::newDigest);
+    /** the level of the according tile dataset */
+    private final int level;
+    /** the path of the tile dataset in the particular level */
+    private final String tileDataSetLevelPath;
+    /**
+     * the path of the source tile being read, reused for all the tiles of
+     * the level
+     */
+    private final StringBuilder tileFilePath;
+    /** the Lookup File */
+    private final LookupFile lookupFile;
+    /** the TileData File */
+    private final TileDataFile tileDataFile;
+    /** the threads reading the source tiles, null for reading in place */
+    private final ExecutorService readers;
+    /** the blank tile of the level, null if the level has no blank tile */
+    private final byte[] blankTile;
+    /** the metadata holding the checkpoints, null for no checkpoints */
+    private final LevelMetadata metadata;
+    /** the file of the tiles' content hashes, null for no hashes */
+    private final ContentHashFile hashFile;
+    /** the records of the tiles that are stored in the TileDataFile */
+    private BitSet presence;
+    /** the tiles' positions within the TileDataFile, per lookup record */
+    private long[] positions;
+    /** the tiles' sizes, per lookup record */
+    private int[] sizes;
+    /**
+     * the content hashes of the tiles appended since hashRecord, written to
+     * the hash file at most checkpointTileNumber at a time; null for no
+     * hashes
+     */
+    private long[] hashes;
+    /** the record of the first hash of hashes */
+    private int hashRecord;
+    /** the write buffer of the TileDataFile */
+    private ByteBuffer writeBuffer;
+    /**
+     * the length of the TileDataFile, including the tiles that are still
+     * buffered
+     */
+    private long tileDataFileLength;
+    /** the fingerprints of the stored tiles */
+    private FingerprintTable fingerprints;
+    /** the number of the tiles that share the bytes of a stored tile */
+    private long duplicateTileNumber;
+    /** the number of the appended records */
+    private int appendedRecord;
+    /** the number of the records written up to the last checkpoint */
+    private int checkpointRecord;
+    /** the length of the TileDataFile at the last checkpoint */
+    private long checkpointLength;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private LevelFilesGenerator()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private LevelFilesGenerator(Builder builder)
+    {
+        level = builder.level;
+        tileDataSetLevelPath = builder.tileDataSetLevelPath;
+        tileFilePath = new StringBuilder(tileDataSetLevelPath.length() + 32)
+                .append(tileDataSetLevelPath).append(File.separatorChar);
+        lookupFile = builder.lookupFile;
+        tileDataFile = builder.tileDataFile;
+        readers = builder.readers;
+        blankTile = builder.blankTile;
+        metadata = builder.metadata;
+        hashFile = builder.hashFile;
+    }
+
+    /**
+     * Provides the Builder pattern for the object initialization.
+     */
+    static class Builder
+    {
+        /** the level of the according tile dataset */
+        private final int level;
+        /** the path of the tile dataset in the particular level */
+        private final String tileDataSetLevelPath;
+        /** the Lookup File */
+        private final LookupFile lookupFile;
+        /** the TileData File */
+        private final TileDataFile tileDataFile;
+        /** the threads reading the source tiles */
+        private ExecutorService readers;
+        /** the blank tile of the level */
+        private byte[] blankTile;
+        /** the metadata holding the checkpoints */
+        private LevelMetadata metadata;
+        /** the file of the tiles' content hashes */
+        private ContentHashFile hashFile;
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param level                the level of the {@link Tile}s
+         * @param tileDataSetLevelPath the tile dataset path of the level
+         * @param lookupFile           the {@link LookupFile} to be written
+         * @param tileDataFile         the {@link TileDataFile} to be written
+         */
+        Builder(int level, String tileDataSetLevelPath, LookupFile lookupFile,
+                TileDataFile tileDataFile)
+        {
+            this.level = level;
+            this.tileDataSetLevelPath = tileDataSetLevelPath;
+            this.lookupFile = lookupFile;
+            this.tileDataFile = tileDataFile;
+        }
+
+        /**
+         * Sets the threads that read the source tiles. If not set, the tiles
+         * are read by the appending thread.
+         *
+         * @param readers the reader threads
+         */
+        Builder readers(ExecutorService readers)
+        {
+            this.readers = readers;
+            return this;
+        }
+
+        /**
+         * Sets the blank tile of the level. The tiles that are identical to
+         * it are not stored, the same as the missing ones.
+         *
+         * @param blankTile the data of the blank tile, may be null
+         */
+        Builder blankTile(byte[] blankTile)
+        {
+            this.blankTile = blankTile;
+            return this;
+        }
+
+        /**
+         * Sets the metadata of the level, which holds the checkpoints of the
+         * generation. If not set, the generation always starts over.
+         *
+         * @param metadata the metadata of the level
+         */
+        Builder metadata(LevelMetadata metadata)
+        {
+            this.metadata = metadata;
+            return this;
+        }
+
+        /**
+         * Sets the file that the content hashes of the tiles are written to.
+         * If not set, no hashes are written.
+         *
+         * @param hashFile the {@link ContentHashFile} of the level
+         */
+        Builder hashFile(ContentHashFile hashFile)
+        {
+            this.hashFile = hashFile;
+            return this;
+        }
+
+        /**
+         * Initializes the object.
+         */
+        LevelFilesGenerator build()
+        {
+            return new LevelFilesGenerator(this);
+        }
+    }
+
+    /**
+     * Generates the LevelFiles (LookupFile and TileDataFile).
+     *
+     * File format of the LookupFile: the first 8 bytes of each record hold
+     * the position of the tile within the TileDataFile, and the following 4
+     * bytes hold the size of the particular tile image.
+     */
+    void generate() throws IOException
+    {
+        TileLayout layout = lookupFile.getLayout();
+        long expectedTileNumber = Tile.computeExpectedTileNumber(level);
+        positions = new long[(int) expectedTileNumber];
+        sizes = new int[(int) expectedTileNumber];
+        hashes = hashFile == null ? null : new long[(int) Math.min(
+                expectedTileNumber, checkpointTileNumber)];
+        presence = new BitSet((int) expectedTileNumber);
+        writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+        fingerprints = new FingerprintTable(
+                (int) Math.min(expectedTileNumber, maxFingerprintNumber));
+        duplicateTileNumber = 0;
+        ArrayDeque<Future<SourceTile>> pendingTiles = new ArrayDeque<>();
+        checkpointRecord = metadata == null ? 0 :
+                (int) metadata.getCheckpointRecord();
+        checkpointLength = metadata == null ? 0 :
+                metadata.getCheckpointLength();
+        appendedRecord = checkpointRecord;
+        hashRecord = checkpointRecord;
+        if(checkpointRecord > 0) resume();
+        try(FileChannel channel = FileChannel
+                .open(Paths.get(tileDataFile.getFilePath()),
+                      StandardOpenOption.WRITE))
+        {
+            channel.truncate(checkpointLength);
+            tileDataFileLength = checkpointLength;
+            for(long index = checkpointRecord; index < expectedTileNumber;
+                index++)
+            {
+                pendingTiles.add(read(layout.column(level, index),
+                                      layout.row(level, index)));
+                if(pendingTiles.size() < readAheadTileNumber) continue;
+                appendNext(pendingTiles.poll(), channel);
+            }
+            while(!pendingTiles.isEmpty())
+            {
+                appendNext(pendingTiles.poll(), channel);
+            }
+            flush(channel);
+            channel.force(false);
+        }
+        finally
+        {
+            for(Future<SourceTile> pendingTile : pendingTiles)
+            {
+                pendingTile.cancel(true);
+            }
+        }
+        writeRecords();
+        System.out.println("Deduplicated tiles for the level: " + level +
+                                   ": " + duplicateTileNumber);
+    }
+
+    /**
+     * Returns the records of the tiles that were stored in the TileDataFile;
+     * available after the generation.
+     */
+    BitSet getPresence()
+    {
+        return presence;
+    }
+
+    /**
+     * Restores the lookup records and the presence of the tiles written
+     * before the checkpoint.
+     */
+    private void resume() throws IOException
+    {
+        System.out.println("Resuming the level: " + level + " from the tile: " +
+                                   checkpointRecord);
+        lookupFile.readRecords(positions, sizes);
+        for(int record = 0; record < checkpointRecord; record++)
+        {
+            if(sizes[record] != LookupFile.absentTileSize) presence.set(record);
+        }
+    }
+
+    /**
+     * Appends the next tile in order, and checkpoints the generation when
+     * enough tiles or bytes have been appended since the last checkpoint.
+     */
+    private void appendNext(Future<SourceTile> pendingTile,
+                            FileChannel channel)
+            throws IOException
+    {
+        if(hashes != null && appendedRecord - hashRecord == hashes.length)
+            writeHashes();
+        append(Utilities.getResult(pendingTile), appendedRecord++, channel);
+        Utilities.showStatus(appendedRecord, positions.length, 50000);
+        if(metadata != null &&
+                (appendedRecord - checkpointRecord >= checkpointTileNumber ||
+                        tileDataFileLength - checkpointLength >=
+                                checkpointBytes)) checkpoint(channel);
+    }
+
+    /**
+     * Forces the appended tiles and their lookup records to disk, and then
+     * records the checkpoint in the metadata.
+     */
+    private void checkpoint(FileChannel channel) throws IOException
+    {
+        flush(channel);
+        channel.force(false);
+        writeRecords();
+        metadata.setCheckpoint(appendedRecord, tileDataFileLength);
+        metadata.store();
+        checkpointRecord = appendedRecord;
+        checkpointLength = tileDataFileLength;
+    }
+
+    /**
+     * Writes durably the lookup records, and the content hashes, appended
+     * since the last checkpoint.
+     */
+    private void writeRecords() throws IOException
+    {
+        writeHashes();
+        lookupFile.writeRecords(positions, sizes, checkpointRecord,
+                                appendedRecord);
+    }
+
+    /**
+     * Writes the content hashes appended since hashRecord, if any, and
+     * starts the next ones from the next record.
+     */
+    private void writeHashes() throws IOException
+    {
+        if(hashes == null) return;
+        hashFile.writeHashes(hashes, hashRecord, appendedRecord - hashRecord);
+        Arrays.fill(hashes, 0, appendedRecord - hashRecord,
+                    ContentHashFile.unknownHash);
+        hashRecord = appendedRecord;
+    }
+
+    /**
+     * Reads and fingerprints the source tile, either by a reader thread or in
+     * place. The result is null if the source tile does not exist, is not
+     * valid or is the blank tile.
+     */
+    private Future<SourceTile> read(int column, int row)
+    {
+        tileFilePath.setLength(tileDataSetLevelPath.length() + 1);
+        String fileName = TileKey.appendFileName(tileFilePath, level, column,
+                                                 row).toString();
+        Callable<SourceTile> reading = () ->
+        {
+            if(!FileUtilities.exists(fileName)) return null;
+            Tile tile = new Tile.Builder(FileUtilities.readFromFile(fileName),
+                                         level, column, row)
+                    .filePath(fileName).build();
+            if(!tile.isValid() || Arrays.equals(tile.getData(), blankTile))
+                return null;
+            return new SourceTile(tile.getData(),
+                                  digests.get().digest(tile.getData()));
+        };
+        if(readers != null) return readers.submit(reading);
+        FutureTask<SourceTile> task = new FutureTask<>(reading);
+        task.run();
+        return task;
+    }
+
+    /**
+     * Appends the tile to the TileDataFile and records its position and size
+     * in the lookup table. Missing and blank tiles are only recorded as
+     * absent, and the tiles whose content is already stored are pointed to
+     * the stored bytes.
+     *
+     * @param tile    the read tile, null if it is missing or blank
+     * @param record  the number of the tile's record in the LookupFile
+     * @param channel the channel of the TileDataFile
+     */
+    private void append(SourceTile tile, int record, FileChannel channel)
+            throws IOException
+    {
+        if(tile == null)
+        {
+            sizes[record] = LookupFile.absentTileSize;
+            return;
+        }
+        byte[] data = tile.data;
+        presence.set(record);
+        sizes[record] = data.length;
+        if(hashes != null)
+            hashes[record - hashRecord] = ContentHashFile.toHash(tile.sha256);
+        ByteBuffer fingerprint = ByteBuffer.wrap(tile.sha256);
+        long high = fingerprint.getLong(0);
+        long low = fingerprint.getLong(8);
+        long storedPosition = fingerprints.find(high, low, data.length);
+        if(storedPosition != FingerprintTable.noPosition)
+        {
+            positions[record] = storedPosition;
+            duplicateTileNumber++;
+            return;
+        }
+        fingerprints.add(high, low, data.length, tileDataFileLength);
+        positions[record] = tileDataFileLength;
+        if(data.length > writeBuffer.remaining()) flush(channel);
+        if(data.length > writeBuffer.capacity())
+        {
+            FileUtilities.writeFully(channel, ByteBuffer.wrap(data),
+                                     tileDataFileLength);
+        }
+        else writeBuffer.put(data);
+        tileDataFileLength += data.length;
+    }
+
+    /**
+     * Writes the buffered tiles to the end of the TileDataFile.
+     */
+    private void flush(FileChannel channel) throws IOException
+    {
+        long position = tileDataFileLength - writeBuffer.position();
+        writeBuffer.flip();
+        FileUtilities.writeFully(channel, writeBuffer, position);
+        writeBuffer.clear();
+    }
+
+    /**
+     * The bytes of a source tile to be stored, with their SHA-256 digest.
+     */
+    private static final class SourceTile
+    {
+        /** the bytes of the tile */
+        private final byte[] data;
+        /** the SHA-256 digest of the bytes */
+        private final byte[] sha256;
+
+        SourceTile(byte[] data, byte[] sha256)
+        {
+            this.data = data;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * An open addressing hash table from the fingerprints (and sizes) of the
+     * stored tiles to their positions within the TileDataFile. Holds up to
+     * the given number of fingerprints in primitive arrays; once full, it
+     * ignores the new ones.
+     */
+    private static final class FingerprintTable
+    {
+        /** the position of the empty slots */
+        final static long noPosition = -1;
+        /** the high 64 bits of the fingerprints */
+        private final long[] highs;
+        /** the low 64 bits of the fingerprints */
+        private final long[] lows;
+        /** the sizes of the tiles */
+        private final int[] sizes;
+        /** the positions of the tiles, {@link #noPosition} if empty */
+        private final long[] positions;
+        /** the maximum number of the fingerprints */
+        private final int capacity;
+        /** the number of the fingerprints */
+        private int size;
+
+        FingerprintTable(int capacity)
+        {
+            this.capacity = capacity;
+            int slotNumber =
+                    Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+            highs = new long[slotNumber];
+            lows = new long[slotNumber];
+            sizes = new int[slotNumber];
+            positions = new long[slotNumber];
+            Arrays.fill(positions, noPosition);
+        }
+
+        /**
+         * Returns the position of the stored tile with the same content, or
+         * {@link #noPosition} if there is none.
+         */
+        long find(long high, long low, int tileSize)
+        {
+            for(int slot = slot(high); positions[slot] != noPosition;
+                slot = (slot + 1) & (positions.length - 1))
+            {
+                if(highs[slot] == high && lows[slot] == low &&
+                        sizes[slot] == tileSize)
+                    return positions[slot];
+            }
+            return noPosition;
+        }
+
+        /**
+         * Remembers the position of a stored tile, unless the table is full.
+         */
+        void add(long high, long low, int tileSize, long position)
+        {
+            if(size == capacity) return;
+            int slot = slot(high);
+            while(positions[slot] != noPosition)
+            {
+                slot = (slot + 1) & (positions.length - 1);
+            }
+            highs[slot] = high;
+            lows[slot] = low;
+            sizes[slot] = tileSize;
+            positions[slot] = position;
+            size++;
+        }
+
+        private int slot(long high)
+        {
+            return (int) high & (positions.length - 1);
+        }
+    }
+}
@@ -1,4 +1,17 @@
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A set of LevelFiles.
@@ -6,10 +19,20 @@ import java.io.IOException;
  * @author mkotsollaris
  * @since 1.0
  */
-final public class LevelFilesSet
+final public class LevelFilesSet implements TileSource
 {
     /** The levelFiles per each Level */
     private final LevelFiles[] levelFiles;
+    /** The cache of the tiles, null if the tiles are not cached */
+    private final TileCache tileCache;
+    /** The off-heap cache of the tiles, null if not used */
+    private final OffHeapTileCache offHeapTileCache;
+    /**
+     * The number of the started and the finished updates of the tiles; odd
+     * while an update is in progress. The tiles read while it changes are
+     * not left in the caches.
+     */
+    private final AtomicLong updateCount = new AtomicLong();
 
     /**
      * Private constructor.
@@ -17,6 +40,10 @@ final public class LevelFilesSet
     private LevelFilesSet(Builder builder)
     {
         levelFiles = builder.levelFiles;
+        tileCache = builder.tileCacheBytes > 0 ?
+                new TileCache(builder.tileCacheBytes) : null;
+        offHeapTileCache = builder.offHeapTileCacheBytes > 0 ?
+                new OffHeapTileCache(builder.offHeapTileCacheBytes) : null;
     }
 
     private LevelFiles getLevelFile(int level)
@@ -30,16 +57,488 @@ final public class LevelFilesSet
         throw new AssertionError();
     }
 
+    @Override public int getLevelNumber()
+    {
+        return levelFiles.length;
+    }
+
+    /**
+     * Returns a {@link Tile} object. For a tile that is absent from the
+     * dataset, returns the level's blank tile or null if the level has no
+     * blank tile.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     */
+    @Override public Tile getTile(int level, int column, int row)
+            throws IOException
+    {
+        LevelFiles levelFile = levelFiles[level];
+        if(!isCached() || !levelFile.isPresent(column, row))
+            return levelFile.getTile(column, row);
+        long updates = updateCount.get();
+        byte[] data = getCachedData(level, column, row, updates);
+        if(data != null)
+            return new Tile.Builder(data, level, column, row).build();
+        Tile tile = levelFile.getTile(column, row);
+        cache(level, column, row, tile.getData(), updates);
+        return tile;
+    }
+
     /**
-     * Returns a {@link Tile} object.
+     * Returns a {@link Tile} object without blocking the calling thread. The
+     * cached tiles are returned at once; the rest are read asynchronously
+     * and offered to the caches once read.
      *
      * @param level  the level.
      * @param column the column of the tile.
      * @param row    the row of the tile.
      */
-    public Tile getTile(int level, int column, int row) throws IOException
+    @Override public CompletableFuture<Tile> getTileAsync(int level,
+                                                          int column, int row)
+    {
+        LevelFiles levelFile = levelFiles[level];
+        if(!isCached() || !levelFile.isPresent(column, row))
+            return levelFile.getTileAsync(column, row);
+        long updates = updateCount.get();
+        byte[] data = getCachedData(level, column, row, updates);
+        if(data != null)
+            return CompletableFuture.completedFuture(
+                    new Tile.Builder(data, level, column, row).build());
+        return levelFile.getTileAsync(column, row).thenApply(tile ->
+        {
+            if(tile == null) return null;
+            try
+            {
+                cache(level, column, row, tile.getData(), updates);
+            }
+            catch(IOException e)
+            {
+                throw new CompletionException(e);
+            }
+            return tile;
+        });
+    }
+
+    /**
+     * Returns a batch of tiles of a level (e.g. the tiles of a viewport). The
+     * tiles are read in the order of their position within the files, and
+     * neighbouring tiles are read with a single read.
+     *
+     * @param level   the level.
+     * @param columns the columns of the tiles.
+     * @param rows    the rows of the tiles, in the same order.
+     *
+     * @return the tiles, in the order of the given columns and rows
+     */
+    @Override public Tile[] getTiles(int level, int[] columns, int[] rows)
+            throws IOException
+    {
+        LevelFiles levelFile = levelFiles[level];
+        if(!isCached()) return levelFile.getTiles(columns, rows);
+        long updates = updateCount.get();
+        Tile[] tiles = new Tile[columns.length];
+        int[] missingIndices = new int[columns.length];
+        int missingNumber = 0;
+        for(int i = 0; i < columns.length; i++)
+        {
+            byte[] data = levelFile.isPresent(columns[i], rows[i]) ?
+                    getCachedData(level, columns[i], rows[i], updates) :
+                    null;
+            if(data == null) missingIndices[missingNumber++] = i;
+            else tiles[i] = new Tile.Builder(data, level, columns[i],
+                                             rows[i]).build();
+        }
+        if(missingNumber == 0) return tiles;
+        int[] missingColumns = new int[missingNumber];
+        int[] missingRows = new int[missingNumber];
+        for(int i = 0; i < missingNumber; i++)
+        {
+            missingColumns[i] = columns[missingIndices[i]];
+            missingRows[i] = rows[missingIndices[i]];
+        }
+        Tile[] readTiles = levelFile.getTiles(missingColumns, missingRows);
+        for(int i = 0; i < missingNumber; i++)
+        {
+            tiles[missingIndices[i]] = readTiles[i];
+            if(levelFile.isPresent(missingColumns[i], missingRows[i]))
+                cache(level, missingColumns[i], missingRows[i],
+                      readTiles[i].getData(), updates);
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns the size (bytes) of a tile without reading it, or a negative
+     * number if there is no such tile.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     */
+    @Override public int getTileSize(int level, int column, int row)
+            throws IOException
+    {
+        return levelFiles[level].getTileSize(column, row);
+    }
+
+    /**
+     * Returns the content hash of a tile, kept next to its lookup record, or
+     * 0 if it is not known.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     */
+    @Override public long getContentHash(int level, int column, int row)
+            throws IOException
+    {
+        return levelFiles[level].getContentHash(column, row);
+    }
+
+    /**
+     * Writes the bytes of a tile from the file or the caches to the target
+     * channel. The bytes are not copied into the heap when the target is a
+     * file or a socket channel; see {@link TileDataFile#transferTile}. If
+     * only the heap cache is used, a tile missing from it is read into the
+     * heap and cached before it is written.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     * @param target the channel that the tile will be written to.
+     *
+     * @return the number of bytes written, or a negative number if there is
+     * no such tile
+     */
+    @Override public int transferTile(int level, int column, int row,
+                                      WritableByteChannel target)
+            throws IOException
+    {
+        LevelFiles levelFile = levelFiles[level];
+        if(!isCached() || !levelFile.isPresent(column, row))
+            return levelFile.transferTile(column, row, target);
+        long updates = updateCount.get();
+        byte[] data = tileCache == null ? null :
+                tileCache.get(level, column, row);
+        if(data != null)
+        {
+            FileUtilities.writeFully(target, ByteBuffer.wrap(data));
+            return data.length;
+        }
+        if(offHeapTileCache == null)
+        {
+            data = levelFile.getTile(column, row).getData();
+            cache(level, column, row, data, updates);
+            FileUtilities.writeFully(target, ByteBuffer.wrap(data));
+            return data.length;
+        }
+        OffHeapTileCache.Lease lease =
+                offHeapTileCache.get(level, column, row);
+        if(lease == null && !isUpdating(updates))
+        {
+            ByteBuffer record = levelFile.getRecord(column, row);
+            lease = offHeapTileCache
+                    .load(level, column, row,
+                          record.getInt(LevelFiles.positionAllocationBytes),
+                          buffer -> levelFile.readTile(record, buffer));
+            if(updateCount.get() != updates)
+                offHeapTileCache.invalidate(level, column, row);
+        }
+        if(lease == null) return levelFile.transferTile(column, row, target);
+        try(OffHeapTileCache.Lease cachedTile = lease)
+        {
+            FileUtilities.writeFully(target,
+                                     cachedTile.getBuffer().duplicate());
+            return cachedTile.getSize();
+        }
+    }
+
+    /**
+     * Returns where the bytes of a tile are: a region of a TileDataFile, or
+     * the bytes themselves for the blank tile and the cached tiles. The
+     * region can be read by any means (e.g. a reactive file reader) without
+     * copying the tile into the heap at once. If the tiles are cached, the
+     * tiles go through the caches the same as with {@link #getTile}: a tile
+     * missing from them is read into the heap and cached.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     *
+     * @return the region, or null if there is no such tile
+     */
+    public TileRegion getTileRegion(int level, int column, int row)
+            throws IOException
+    {
+        LevelFiles levelFile = levelFiles[level];
+        if(!levelFile.isPresent(column, row))
+        {
+            byte[] blankTile = levelFile.getBlankTile();
+            return blankTile == null ? null : new TileRegion(blankTile);
+        }
+        if(isCached())
+        {
+            long updates = updateCount.get();
+            byte[] data = getCachedData(level, column, row, updates);
+            if(data != null) return new TileRegion(data);
+            data = levelFile.getTile(column, row).getData();
+            cache(level, column, row, data, updates);
+            return new TileRegion(data);
+        }
+        ByteBuffer record = levelFile.getRecord(column, row);
+        return new TileRegion(
+                levelFile.getTileDataFile(), record.getLong(0),
+                record.getInt(LevelFiles.positionAllocationBytes));
+    }
+
+    /**
+     * Returns true if the tiles are cached in the heap or off the heap.
+     */
+    private boolean isCached()
+    {
+        return tileCache != null || offHeapTileCache != null;
+    }
+
+    /**
+     * Returns the bytes of the tile from the caches, or null if the tile is
+     * not cached. A tile found off the heap is copied into the heap cache.
+     *
+     * @param updates the {@link #updateCount} before the tile was looked up
+     */
+    private byte[] getCachedData(int level, int column, int row, long updates)
+    {
+        byte[] data = tileCache == null ? null :
+                tileCache.get(level, column, row);
+        if(data != null || offHeapTileCache == null) return data;
+        try(OffHeapTileCache.Lease lease = offHeapTileCache
+                .get(level, column, row))
+        {
+            if(lease == null) return null;
+            data = lease.toByteArray();
+        }
+        if(tileCache == null || isUpdating(updates)) return data;
+        tileCache.put(level, column, row, data);
+        if(updateCount.get() != updates) invalidate(level, column, row);
+        return data;
+    }
+
+    /**
+     * Offers the bytes of a tile read from the files to the caches. If an
+     * update of the tiles has started since the tile was read, the bytes may
+     * be stale and are not left in the caches.
+     *
+     * @param updates the {@link #updateCount} before the tile was read
+     */
+    private void cache(int level, int column, int row, byte[] data,
+                       long updates) throws IOException
+    {
+        if(isUpdating(updates)) return;
+        if(tileCache != null) tileCache.put(level, column, row, data);
+        if(offHeapTileCache != null)
+        {
+            OffHeapTileCache.Lease lease = offHeapTileCache
+                    .load(level, column, row, data.length,
+                          buffer -> buffer.put(data));
+            if(lease != null) lease.close();
+        }
+        if(updateCount.get() != updates) invalidate(level, column, row);
+    }
+
+    /**
+     * Returns true if an update of the tiles was in progress at the given
+     * {@link #updateCount}.
+     */
+    private static boolean isUpdating(long updates)
+    {
+        return (updates & 1) != 0;
+    }
+
+    /**
+     * Removes a tile from the caches.
+     */
+    private void invalidate(int level, int column, int row)
+    {
+        if(tileCache != null) tileCache.invalidate(level, column, row);
+        if(offHeapTileCache != null)
+            offHeapTileCache.invalidate(level, column, row);
+    }
+
+    /**
+     * Returns the cache of the tiles (e.g. for its hit and miss counters), or
+     * null if the tiles are not cached.
+     */
+    public TileCache getTileCache()
+    {
+        return tileCache;
+    }
+
+    /**
+     * Returns the off-heap cache of the tiles (e.g. for its hit and miss
+     * counters), or null if it is not used.
+     */
+    public OffHeapTileCache getOffHeapTileCache()
+    {
+        return offHeapTileCache;
+    }
+
+    /**
+     * Replaces or adds tiles (e.g. a refresh of the imagery) without
+     * regenerating their levels; see {@link LevelFiles#updateTiles}. The
+     * updated tiles are removed from the caches once their records are
+     * rewritten, and the tiles read meanwhile are not cached, so that the
+     * previous bytes are not cached again by a concurrent reader.
+     *
+     * @param tiles the new tiles, of any level
+     */
+    public synchronized void updateTiles(Tile... tiles) throws IOException
+    {
+        updateCount.incrementAndGet();
+        try
+        {
+            updateLevels(tiles);
+        }
+        finally
+        {
+            updateCount.incrementAndGet();
+        }
+    }
+
+    private void updateLevels(Tile... tiles) throws IOException
     {
-        return levelFiles[level].getTile(column, row);
+        List<List<Tile>> tilesPerLevel = new ArrayList<>();
+        for(int level = 0; level < levelFiles.length; level++)
+        {
+            tilesPerLevel.add(new ArrayList<>());
+        }
+        for(Tile tile : tiles)
+        {
+            tilesPerLevel.get(tile.getLevel()).add(tile);
+        }
+        for(int level = 0; level < levelFiles.length; level++)
+        {
+            List<Tile> levelTiles = tilesPerLevel.get(level);
+            if(levelTiles.isEmpty()) continue;
+            levelFiles[level].updateTiles(
+                    levelTiles.toArray(new Tile[levelTiles.size()]));
+            for(Tile tile : levelTiles)
+            {
+                invalidate(level, tile.getColumn(), tile.getRow());
+            }
+        }
+    }
+
+    /**
+     * Reclaims the space of the replaced tiles of a level; see {@link
+     * LevelFiles#compact}. No LevelFilesSet of the files may be open
+     * meanwhile.
+     *
+     * @param fileNames the {@link FileNames}
+     * @param level     the level to be compacted
+     *
+     * @return the number of the reclaimed bytes
+     */
+    public static long compact(FileNames fileNames, int level)
+            throws IOException
+    {
+        return LevelFiles.compact(fileNames, level);
+    }
+
+    /**
+     * Releases the open files of all the levels.
+     */
+    @Override public void close() throws IOException
+    {
+        for(LevelFiles levelFile : levelFiles)
+        {
+            if(levelFile != null) levelFile.close();
+        }
+    }
+
+    /**
+     * The location of a tile's bytes: either a region of a file or, for the
+     * tiles held in memory, the bytes themselves.
+     */
+    public static final class TileRegion
+    {
+        /** the file of the tile, null for the tiles held in memory */
+        private final TileDataFile tileDataFile;
+        /** the position of the tile within the file */
+        private final long position;
+        /** the size (bytes) of the tile */
+        private final int size;
+        /** the bytes of the tile, null for the tiles within a file */
+        private final byte[] data;
+
+        private TileRegion(TileDataFile tileDataFile, long position, int size)
+        {
+            this.tileDataFile = tileDataFile;
+            this.position = position;
+            this.size = size;
+            this.data = null;
+        }
+
+        private TileRegion(byte[] data)
+        {
+            this.tileDataFile = null;
+            this.position = 0;
+            this.size = data.length;
+            this.data = data;
+        }
+
+        /** Returns the path of the file, or null if held in memory. */
+        public String getFilePath()
+        {
+            return tileDataFile == null ? null : tileDataFile.getFilePath();
+        }
+
+        /** Returns the position of the tile within the file. */
+        public long getPosition()
+        {
+            return position;
+        }
+
+        /** Returns the size (bytes) of the tile. */
+        public int getSize()
+        {
+            return size;
+        }
+
+        /** Returns the bytes of the tile, or null if within a file. */
+        public byte[] getData()
+        {
+            return data;
+        }
+
+        /**
+         * Reads a part of the tile without blocking the calling thread,
+         * through the asynchronous channel that the level's TileDataFile
+         * keeps open for all its readers.
+         *
+         * @param offset the offset of the part within the tile
+         * @param length the length of the part
+         *
+         * @return a future completed with the bytes of the part
+         */
+        public CompletableFuture<byte[]> readAsync(int offset, int length)
+        {
+            if(offset < 0 || length < 0 || offset > size - length)
+                throw new IndexOutOfBoundsException(
+                        "offset: " + offset + ", length: " + length +
+                                ", size: " + size);
+            if(data != null)
+                return CompletableFuture.completedFuture(
+                        Arrays.copyOfRange(data, offset, offset + length));
+            return tileDataFile.getTileAsync(position + offset, length);
+        }
+
+        @Override public String toString()
+        {
+            return data != null ? "TileRegion in memory of " + size + " bytes" :
+                    "TileRegion of " + size + " bytes at " + position + " of " +
+                            getFilePath();
+        }
     }
 
     /**
@@ -47,6 +546,24 @@ final public class LevelFilesSet
      */
     public static class Builder
     {
+        /** The file names information */
+        private final FileNames fileNames;
+        /** whether the LookupFiles are mapped into memory */
+        private boolean memoryMapped;
+        /** whether the LookupFiles are loaded into compact indexes */
+        private boolean lookupIndex;
+        /** whether missing or incomplete LevelFiles are generated */
+        private boolean generate = true;
+        /** the layout of the tiles when the LevelFiles are generated */
+        private TileLayout layout = TileLayout.ROW_MAJOR;
+        /** the blank tile of the LevelFiles that are generated */
+        private byte[] blankTile;
+        /** the maximum number of the cached bytes, 0 for no cache */
+        private long tileCacheBytes;
+        /** the maximum number of the off-heap cached bytes, 0 for no cache */
+        private long offHeapTileCacheBytes;
+        /** the number of the threads used for generating the LevelFiles */
+        private int ioThreads = 1;
         /** The levelFiles per each Level */
         private LevelFiles[] levelFiles;
 
@@ -57,15 +574,228 @@ final public class LevelFilesSet
          */
         public Builder(FileNames fileNames) throws IOException
         {
-            levelFiles = LevelFiles.getInstance(fileNames);
+            this.fileNames = fileNames;
+        }
+
+        /**
+         * Maps the LookupFile of each level into memory, so that the lookup
+         * of a tile is served without any I/O calls.
+         *
+         * @param memoryMapped true for mapping the LookupFiles
+         */
+        public Builder memoryMapped(boolean memoryMapped)
+        {
+            this.memoryMapped = memoryMapped;
+            return this;
+        }
+
+        /**
+         * Loads the LookupFile of each level into a compact in-memory index
+         * ({@link LookupIndex}) at startup, so that the lookup of a tile is
+         * served without any I/O calls, in a fraction of the memory of the
+         * mapped files.
+         *
+         * @param lookupIndex true for loading the indexes
+         */
+        public Builder lookupIndex(boolean lookupIndex)
+        {
+            this.lookupIndex = lookupIndex;
+            return this;
+        }
+
+        /**
+         * Sets whether missing LevelFiles are generated, and incomplete ones
+         * resumed, by {@link #build}. Otherwise the build fails with a {@link
+         * java.io.FileNotFoundException}, so that a node serving the tiles
+         * never starts generating them. The default value is true.
+         *
+         * @param generate false for failing on missing LevelFiles
+         */
+        public Builder generate(boolean generate)
+        {
+            this.generate = generate;
+            return this;
+        }
+
+        /**
+         * Sets the order in which the tiles are laid out within the LevelFiles
+         * that are generated. A space filling curve ({@link
+         * TileLayout#MORTON} or {@link TileLayout#HILBERT}) keeps the tiles
+         * of a viewport close to each other within the files. Existing
+         * LevelFiles keep the layout they were generated with.
+         *
+         * @param layout the {@link TileLayout}
+         */
+        public Builder layout(TileLayout layout)
+        {
+            this.layout = layout;
+            return this;
+        }
+
+        /**
+         * Sets the blank tile of the LevelFiles that are generated. Missing
+         * tiles, as well as the tiles identical to the blank tile, are not
+         * stored; the blank tile is returned in their place. Without a blank
+         * tile, missing tiles are returned as null. Existing LevelFiles keep
+         * the blank tile they were generated with.
+         *
+         * @param blankTile the data of the blank tile (e.g. an empty ocean
+         *                  tile)
+         */
+        public Builder blankTile(byte[] blankTile)
+        {
+            this.blankTile = blankTile;
+            return this;
+        }
+
+        /**
+         * Caches the tiles in the heap, up to the given number of bytes. The
+         * cache keeps the most frequently requested tiles ({@link
+         * TileCache}). By default the tiles are not cached.
+         *
+         * @param tileCacheBytes the maximum number of the cached bytes, 0 for
+         *                       no cache
+         */
+        public Builder tileCacheBytes(long tileCacheBytes)
+        {
+            if(tileCacheBytes < 0)
+                throw new IllegalArgumentException(
+                        "tileCacheBytes: " + tileCacheBytes);
+            this.tileCacheBytes = tileCacheBytes;
+            return this;
+        }
+
+        /**
+         * Caches the tiles off the heap, up to the given number of bytes
+         * ({@link OffHeapTileCache}). The cached tiles are written to the
+         * channels of {@link #transferTile} straight from the off-heap
+         * memory. If the heap cache is used as well, it is looked up first.
+         * By default the tiles are not cached.
+         *
+         * @param offHeapTileCacheBytes the maximum number of the off-heap
+         *                              bytes, 0 for no cache
+         */
+        public Builder offHeapTileCacheBytes(long offHeapTileCacheBytes)
+        {
+            if(offHeapTileCacheBytes < 0)
+                throw new IllegalArgumentException(
+                        "offHeapTileCacheBytes: " + offHeapTileCacheBytes);
+            this.offHeapTileCacheBytes = offHeapTileCacheBytes;
+            return this;
         }
 
         /**
-         * Initializes the object.
+         * Sets the I/O thread budget of the generation. The source tiles are
+         * read by {@code ioThreads} threads shared among all the levels, and
+         * up to {@code ioThreads} levels are generated concurrently. The
+         * default value (1) generates the levels one after the other.
+         *
+         * @param ioThreads the number of the I/O threads
+         */
+        public Builder ioThreads(int ioThreads)
+        {
+            if(ioThreads < 1)
+                throw new IllegalArgumentException("ioThreads: " + ioThreads);
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Initializes the object. Generates (or loads) the level files for
+         * all the possible levels. If any level fails, the levels already
+         * opened are closed before the failure is thrown.
          */
-        public LevelFilesSet build()
+        public LevelFilesSet build() throws IOException
         {
+            int
+                    totalTileDataSetDirectoryNumber =
+                    FileUtilities.getDirectoriesNames(
+                            fileNames.getTileDataSetPath()).length;
+            levelFiles = new LevelFiles[totalTileDataSetDirectoryNumber];
+            if(ioThreads == 1)
+            {
+                try
+                {
+                    for(int i = 0; i < totalTileDataSetDirectoryNumber; i++)
+                    {
+                        levelFiles[i] = levelFilesBuilder(i, null).build();
+                    }
+                }
+                catch(IOException | RuntimeException | Error e)
+                {
+                    closeLevelFiles(e, Collections.emptyList());
+                    throw e;
+                }
+                return new LevelFilesSet(this);
+            }
+            ExecutorService readers = Executors.newFixedThreadPool(ioThreads);
+            ExecutorService generators =
+                    Executors.newFixedThreadPool(ioThreads);
+            List<Future<LevelFiles>> futures = new ArrayList<>();
+            AtomicBoolean failed = new AtomicBoolean();
+            try
+            {
+                for(int i = 0; i < totalTileDataSetDirectoryNumber; i++)
+                {
+                    LevelFiles.Builder builder = levelFilesBuilder(i, readers);
+                    futures.add(generators.submit(
+                            () -> failed.get() ? null : builder.build()));
+                }
+                for(int i = 0; i < totalTileDataSetDirectoryNumber; i++)
+                {
+                    levelFiles[i] = Utilities.getResult(futures.get(i));
+                }
+            }
+            catch(IOException | RuntimeException | Error e)
+            {
+                // the levels not started yet are skipped, and the ones being
+                // generated are left to finish, so that they are closed
+                failed.set(true);
+                closeLevelFiles(e, futures);
+                throw e;
+            }
+            finally
+            {
+                generators.shutdownNow();
+                readers.shutdownNow();
+            }
             return new LevelFilesSet(this);
         }
+
+        /**
+         * Closes the levels opened by a failed build: the ones already in
+         * levelFiles and the ones of the other generations, once these have
+         * finished. The failures are added to the failure of the build.
+         *
+         * @param failure the failure of the build
+         * @param futures the generations of the levels, by level
+         */
+        private void closeLevelFiles(Throwable failure,
+                                     List<Future<LevelFiles>> futures)
+        {
+            for(int i = 0; i < levelFiles.length; i++)
+            {
+                LevelFiles levelFile = levelFiles[i];
+                try
+                {
+                    if(levelFile == null && i < futures.size())
+                        levelFile = Utilities.getResult(futures.get(i));
+                    if(levelFile != null) levelFile.close();
+                }
+                catch(IOException | RuntimeException | Error e)
+                {
+                    if(e != failure) failure.addSuppressed(e);
+                }
+            }
+        }
+
+        private LevelFiles.Builder levelFilesBuilder(int level,
+                                                     ExecutorService readers)
+        {
+            return new LevelFiles.Builder(fileNames, level)
+                    .memoryMapped(memoryMapped).lookupIndex(lookupIndex)
+                    .generate(generate).layout(layout)
+                    .blankTile(blankTile).readers(readers);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Properties;
+
+/**
+ * The metadata of the LevelFiles of a particular level (e.g. the {@link
+ * TileLayout} of the files), stored next to the LookupFile as a properties
+ * file. Readers use it for addressing the files the same way they were
+ * written.
+ *
+ * Next to it, the level may also have a presence bitmap (one bit per lookup
+ * record, set for the tiles stored in the TileDataFile) and a blank tile,
+ * which is served in place of the absent tiles.
+ *
+ * While the level is being generated, the metadata marks it as incomplete and
+ * holds the last checkpoint of the generation: the number of the lookup
+ * records, and the length of the TileDataFile, that are durably written. An
+ * interrupted generation is resumed from there.
+ *
+ * LevelFiles that were generated without a metadata file are treated as
+ * complete and {@link TileLayout#ROW_MAJOR}, with all their tiles present.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+final class LevelMetadata
+{
+    /** the key of the layout property */
+    private final static String layoutKey = "layout";
+    /** the key of the completion property */
+    private final static String completeKey = "complete";
+    /** the key of the number of the checkpointed lookup records */
+    private final static String checkpointRecordKey = "checkpoint.record";
+    /** the key of the checkpointed TileDataFile length */
+    private final static String checkpointLengthKey = "checkpoint.length";
+    /** the path of the metadata file */
+    private final String filePath;
+    /** the path of the LookupFile */
+    private final String lookupFilePath;
+    /** the stored properties */
+    private final Properties properties = new Properties();
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private LevelMetadata()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Loads the metadata file, if it exists.
+     */
+    private LevelMetadata(String lookupFilePath) throws IOException
+    {
+        this.lookupFilePath = lookupFilePath;
+        this.filePath = getFilePath(lookupFilePath);
+        if(!FileUtilities.exists(filePath)) return;
+        try(InputStream inputStream = new FileInputStream(filePath))
+        {
+            properties.load(inputStream);
+        }
+    }
+
+    /**
+     * Loads the metadata of a level. If the file does not exist, the metadata
+     * holds the default values.
+     *
+     * @param lookupFilePath the path of the level's {@link LookupFile}
+     */
+    static LevelMetadata getInstance(String lookupFilePath) throws IOException
+    {
+        return new LevelMetadata(lookupFilePath);
+    }
+
+    /**
+     * Returns the path of the metadata file of the given {@link LookupFile}.
+     */
+    static String getFilePath(String lookupFilePath)
+    {
+        return lookupFilePath + ".properties";
+    }
+
+    /** Returns the {@link TileLayout} of the level. */
+    TileLayout getLayout()
+    {
+        return TileLayout.valueOf(properties.getProperty(
+                layoutKey, TileLayout.ROW_MAJOR.name()));
+    }
+
+    /** Sets the {@link TileLayout} of the level. */
+    void setLayout(TileLayout layout)
+    {
+        properties.setProperty(layoutKey, layout.name());
+    }
+
+    /**
+     * Returns true if the generation of the level has been completed.
+     */
+    boolean isComplete()
+    {
+        return Boolean.parseBoolean(properties.getProperty(completeKey, "true"));
+    }
+
+    /**
+     * Marks the level as completely generated, or as being generated. Either
+     * way, the checkpoint is cleared.
+     */
+    void setComplete(boolean complete)
+    {
+        properties.setProperty(completeKey, Boolean.toString(complete));
+        properties.remove(checkpointRecordKey);
+        properties.remove(checkpointLengthKey);
+    }
+
+    /**
+     * Returns the number of the lookup records durably written by the
+     * interrupted generation, 0 if there is no checkpoint.
+     */
+    long getCheckpointRecord()
+    {
+        return Long.parseLong(properties.getProperty(checkpointRecordKey, "0"));
+    }
+
+    /**
+     * Returns the length of the TileDataFile at the last checkpoint, 0 if
+     * there is no checkpoint.
+     */
+    long getCheckpointLength()
+    {
+        return Long.parseLong(properties.getProperty(checkpointLengthKey, "0"));
+    }
+
+    /**
+     * Sets the checkpoint of the generation; stored with {@link #store()}.
+     *
+     * @param record             the number of the durably written records
+     * @param tileDataFileLength the length of the TileDataFile holding them
+     */
+    void setCheckpoint(long record, long tileDataFileLength)
+    {
+        properties.setProperty(checkpointRecordKey, Long.toString(record));
+        properties.setProperty(checkpointLengthKey,
+                               Long.toString(tileDataFileLength));
+    }
+
+    /**
+     * Returns the presence bitmap of the level, or null if the level has none
+     * (all the tiles are present).
+     */
+    BitSet loadPresence() throws IOException
+    {
+        String presenceFilePath = lookupFilePath + ".presence";
+        if(!FileUtilities.exists(presenceFilePath)) return null;
+        return toPresence(FileUtilities.readFromFile(presenceFilePath));
+    }
+
+    /**
+     * Returns the presence bitmap stored in the given bytes (big-endian
+     * longs).
+     */
+    static BitSet toPresence(byte[] bytes)
+    {
+        return BitSet.valueOf(ByteBuffer.wrap(bytes).asLongBuffer());
+    }
+
+    /**
+     * Returns the bytes of the presence bitmap, as they are stored.
+     */
+    static byte[] toByteArray(BitSet presence)
+    {
+        long[] words = presence.toLongArray();
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * 8);
+        buffer.asLongBuffer().put(words);
+        return buffer.array();
+    }
+
+    /**
+     * Writes the presence bitmap of the level durably. The file is replaced
+     * as a whole, so a crash leaves either the previous or the new bitmap.
+     *
+     * @param presence the records of the tiles stored in the TileDataFile
+     */
+    void storePresence(BitSet presence) throws IOException
+    {
+        storeAtomically(lookupFilePath + ".presence", toByteArray(presence));
+    }
+
+    /**
+     * Returns the blank tile of the level, or null if the level has none.
+     */
+    byte[] loadBlankTile() throws IOException
+    {
+        String blankTileFilePath = lookupFilePath + ".blank";
+        if(!FileUtilities.exists(blankTileFilePath)) return null;
+        return FileUtilities.readFromFile(blankTileFilePath);
+    }
+
+    /**
+     * Writes the blank tile of the level durably. The file is replaced as a
+     * whole, so a crash leaves either the previous or the new blank tile.
+     *
+     * @param blankTile the data of the blank tile, null for no blank tile
+     */
+    void storeBlankTile(byte[] blankTile) throws IOException
+    {
+        String blankTileFilePath = lookupFilePath + ".blank";
+        if(blankTile != null) storeAtomically(blankTileFilePath, blankTile);
+        else FileUtilities.deleteFile(blankTileFilePath);
+    }
+
+    /**
+     * Replaces the file with the given bytes: they are written and synced to
+     * a temporary file, which is then renamed over the file.
+     */
+    private static void storeAtomically(String filePath, byte[] data)
+            throws IOException
+    {
+        String temporaryFilePath = filePath + ".tmp";
+        try(FileOutputStream outputStream = new FileOutputStream(
+                temporaryFilePath))
+        {
+            outputStream.write(data);
+            outputStream.getFD().sync();
+        }
+        FileUtilities.moveAtomically(temporaryFilePath, filePath);
+    }
+
+    /**
+     * Writes the metadata to the file durably. The file is replaced as a
+     * whole, so a crash leaves either the previous or the new metadata.
+     */
+    void store() throws IOException
+    {
+        String temporaryFilePath = filePath + ".tmp";
+        try(FileOutputStream outputStream = new FileOutputStream(
+                temporaryFilePath))
+        {
+            properties.store(outputStream, "LevelFiles metadata");
+            outputStream.getFD().sync();
+        }
+        FileUtilities.moveAtomically(temporaryFilePath, filePath);
+    }
+
+    @Override public String toString()
+    {
+        return "LevelMetadata with the filepath: " + filePath + " " +
+                properties;
+    }
+}
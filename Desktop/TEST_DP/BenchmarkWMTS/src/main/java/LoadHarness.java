@@ -0,0 +1,495 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link Workload} against a storage format from a number of
+ * concurrent client threads, and records the latency of every request in a
+ * {@link LatencyHistogram} per level.
+ *
+ * In the closed-loop mode (the default), each thread issues its next request
+ * as soon as the previous one is answered. In the fixed-rate mode the
+ * requests are scheduled at the target rate, and the latency of a request is
+ * measured from its scheduled time rather than from when a thread got to it,
+ * so that a stalled backend is charged for the requests that queued behind
+ * it (no coordinated omission).
+ *
+ * The threads take the requests of the workload in turn, from the first one
+ * and starting over at its end. The requests issued during the warm-up are
+ * not recorded.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class LoadHarness
+{
+    /** the requests */
+    private final Workload workload;
+    /** the storage format */
+    private final WorkloadDriver.TileReader reader;
+    /** the name of the storage format, for the report */
+    private final String backendName;
+    /** the number of the client threads */
+    private final int threads;
+    /** true to run the clients on virtual threads where available */
+    private final boolean virtualThreads;
+    /** the target rate (requests/s), or 0 for the closed-loop mode */
+    private final double targetRate;
+    /** the duration (ns) of the warm-up */
+    private final long warmupNanos;
+    /** the duration (ns) of the measurement */
+    private final long measurementNanos;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private LoadHarness()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private LoadHarness(Builder builder)
+    {
+        workload = builder.workload;
+        reader = builder.reader;
+        backendName = builder.backendName;
+        threads = builder.threads;
+        virtualThreads = builder.virtualThreads;
+        targetRate = builder.targetRate;
+        warmupNanos = builder.warmupNanos;
+        measurementNanos = builder.measurementNanos;
+    }
+
+    /**
+     * Provides the Builder pattern for the object initialization.
+     */
+    public static class Builder
+    {
+        /** the requests */
+        private final Workload workload;
+        /** the storage format */
+        private final WorkloadDriver.TileReader reader;
+        /** the name of the storage format, for the report */
+        private final String backendName;
+        /** the number of the client threads */
+        private int threads = 1;
+        /** true to run the clients on virtual threads where available */
+        private boolean virtualThreads = false;
+        /** the target rate (requests/s), or 0 for the closed-loop mode */
+        private double targetRate = 0;
+        /** the duration (ns) of the warm-up */
+        private long warmupNanos = TimeUnit.SECONDS.toNanos(2);
+        /** the duration (ns) of the measurement */
+        private long measurementNanos = TimeUnit.SECONDS.toNanos(10);
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param workload    the requests
+         * @param reader      the storage format
+         * @param backendName the name of the storage format, for the report
+         */
+        public Builder(Workload workload, WorkloadDriver.TileReader reader,
+                       String backendName)
+        {
+            if(workload.size() == 0)
+                throw new IllegalArgumentException("empty workload");
+            this.workload = workload;
+            this.reader = reader;
+            this.backendName = backendName;
+        }
+
+        /**
+         * Sets the number of the client threads. The default value is 1.
+         */
+        public Builder threads(int threads)
+        {
+            if(threads < 1)
+                throw new IllegalArgumentException("threads: " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets whether the clients run on virtual threads, where the JVM
+         * provides them. The default value is false.
+         */
+        public Builder virtualThreads(boolean virtualThreads)
+        {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Sets the target rate of the requests (requests/s) of all the
+         * threads together, or 0 for the closed-loop mode. The default value
+         * is 0.
+         */
+        public Builder targetRate(double targetRate)
+        {
+            if(targetRate < 0)
+                throw new IllegalArgumentException(
+                        "targetRate: " + targetRate);
+            this.targetRate = targetRate;
+            return this;
+        }
+
+        /**
+         * Sets the durations of the warm-up and of the measurement. The
+         * default values are 2 s and 10 s.
+         */
+        public Builder duration(long warmup, long measurement, TimeUnit unit)
+        {
+            if(warmup < 0 || measurement <= 0)
+                throw new IllegalArgumentException(
+                        "warmup: " + warmup + ", measurement: " + measurement);
+            this.warmupNanos = unit.toNanos(warmup);
+            this.measurementNanos = unit.toNanos(measurement);
+            return this;
+        }
+
+        /**
+         * Initializes the object.
+         */
+        public LoadHarness build()
+        {
+            return new LoadHarness(this);
+        }
+    }
+
+    /**
+     * Runs the load and waits for it to finish.
+     *
+     * @return the recorded latencies
+     */
+    public Result run() throws IOException
+    {
+        ExecutorService executor = virtualThreads ?
+                TileServer.newVirtualThreadExecutor() : null;
+        boolean usingVirtualThreads = executor != null;
+        if(executor == null) executor = Executors.newFixedThreadPool(threads);
+        AtomicLong nextRequest = new AtomicLong();
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        List<Future<Client>> clients = new ArrayList<>(threads);
+        try
+        {
+            for(int i = 0; i < threads; i++)
+            {
+                Client client = new Client(nextRequest, start);
+                clients.add(executor.submit(() ->
+                                            {
+                                                client.run();
+                                                return client;
+                                            }));
+            }
+            Result result = new Result(backendName, threads,
+                                       usingVirtualThreads, targetRate,
+                                       measurementNanos);
+            for(Future<Client> client : clients)
+            {
+                result.add(Utilities.getResult(client));
+            }
+            return result;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The requests of a single client thread.
+     */
+    private final class Client
+    {
+        /** the number of the next request of all the threads */
+        private final AtomicLong nextRequest;
+        /** the start of the warm-up (System.nanoTime) */
+        private final long start;
+        /** the latencies per level, created on the first request */
+        private final LatencyHistogram[] histograms =
+                new LatencyHistogram[TileKey.maxLevel + 1];
+        /** the bytes of the tiles read */
+        private long readBytes;
+        /** the number of the failed requests */
+        private long errors;
+        /** the first failure */
+        private Exception firstError;
+
+        private Client(AtomicLong nextRequest, long start)
+        {
+            this.nextRequest = nextRequest;
+            this.start = start;
+        }
+
+        private void run()
+        {
+            long measurementStart = start + warmupNanos;
+            long end = measurementStart + measurementNanos;
+            double nanosPerRequest = targetRate > 0 ? 1e9 / targetRate : 0;
+            while(!Thread.currentThread().isInterrupted())
+            {
+                long request = nextRequest.getAndIncrement();
+                long requestStart;
+                if(targetRate > 0)
+                {
+                    requestStart = start + (long) (request * nanosPerRequest);
+                    if(requestStart >= end) return;
+                    waitUntil(requestStart);
+                }
+                else
+                {
+                    waitUntil(start);
+                    requestStart = System.nanoTime();
+                    if(requestStart >= end) return;
+                }
+                long key = workload.getKey((int) (request % workload.size()));
+                int level = TileKey.level(key);
+                Tile tile;
+                try
+                {
+                    tile = reader.getTile(level, TileKey.column(key),
+                                          TileKey.row(key));
+                }
+                catch(IOException | RuntimeException e)
+                {
+                    if(requestStart < measurementStart) continue;
+                    if(firstError == null) firstError = e;
+                    errors++;
+                    continue;
+                }
+                long latency = System.nanoTime() - requestStart;
+                if(requestStart < measurementStart) continue;
+                if(histograms[level] == null)
+                    histograms[level] = new LatencyHistogram();
+                histograms[level].record(latency);
+                if(tile != null) readBytes += tile.getData().length;
+            }
+        }
+    }
+
+    /**
+     * Waits until the given time (System.nanoTime).
+     */
+    private static void waitUntil(long time)
+    {
+        long remaining;
+        while((remaining = time - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+            if(Thread.currentThread().isInterrupted()) return;
+        }
+    }
+
+    /**
+     * Runs the load for each of the given thread counts, to show up to where
+     * a storage format scales, and prints the result of each run.
+     *
+     * @param builder      the settings of the runs, except for the threads
+     * @param threadCounts the numbers of the client threads
+     *
+     * @return the results, in the order of the thread counts
+     */
+    public static List<Result> sweep(Builder builder, int... threadCounts)
+            throws IOException
+    {
+        List<Result> results = new ArrayList<>(threadCounts.length);
+        for(int threads : threadCounts)
+        {
+            Result result = builder.threads(threads).build().run();
+            System.out.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * The latencies of a run, per level.
+     */
+    public static final class Result
+    {
+        /** the name of the storage format */
+        private final String backendName;
+        /** the number of the client threads */
+        private final int threads;
+        /** true if the clients ran on virtual threads */
+        private final boolean virtualThreads;
+        /** the target rate (requests/s), or 0 for the closed-loop mode */
+        private final double targetRate;
+        /** the duration (ns) of the measurement */
+        private final long measurementNanos;
+        /** the latencies per level, null for the levels not requested */
+        private final LatencyHistogram[] histograms =
+                new LatencyHistogram[TileKey.maxLevel + 1];
+        /** the latencies of all the levels */
+        private final LatencyHistogram total = new LatencyHistogram();
+        /** the bytes of the tiles read */
+        private long readBytes;
+        /** the number of the failed requests */
+        private long errors;
+        /** the first failure */
+        private Exception firstError;
+
+        private Result(String backendName, int threads,
+                       boolean virtualThreads, double targetRate,
+                       long measurementNanos)
+        {
+            this.backendName = backendName;
+            this.threads = threads;
+            this.virtualThreads = virtualThreads;
+            this.targetRate = targetRate;
+            this.measurementNanos = measurementNanos;
+        }
+
+        /**
+         * Adds the latencies of a client thread.
+         */
+        private void add(Client client)
+        {
+            for(int level = 0; level < histograms.length; level++)
+            {
+                if(client.histograms[level] == null) continue;
+                if(histograms[level] == null)
+                    histograms[level] = new LatencyHistogram();
+                histograms[level].add(client.histograms[level]);
+                total.add(client.histograms[level]);
+            }
+            readBytes += client.readBytes;
+            errors += client.errors;
+            if(firstError == null) firstError = client.firstError;
+        }
+
+        /**
+         * Returns the latencies of a level, or null if it was not requested.
+         */
+        public LatencyHistogram getHistogram(int level)
+        {
+            return histograms[level];
+        }
+
+        /** Returns the latencies of all the levels. */
+        public LatencyHistogram getTotal()
+        {
+            return total;
+        }
+
+        /** Returns the number of the answered requests per second. */
+        public double getThroughput()
+        {
+            return total.getTotalCount() * 1e9 / measurementNanos;
+        }
+
+        /** Returns the bytes of the tiles read per second. */
+        public double getByteThroughput()
+        {
+            return readBytes * 1e9 / measurementNanos;
+        }
+
+        /** Returns the number of the failed requests. */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        /** Returns the first failure, or null if no request failed. */
+        public Exception getFirstError()
+        {
+            return firstError;
+        }
+
+        /**
+         * Returns a line with the throughput and the latencies of all the
+         * levels.
+         */
+        public String getSummary()
+        {
+            return String.format("%s, %d %s threads, %s: %.0f requests/s, " +
+                                         "%.1f MB/s, %s%s", backendName,
+                                 threads,
+                                 virtualThreads ? "virtual" : "platform",
+                                 targetRate > 0 ? String.format(
+                                         "%.0f requests/s target",
+                                         targetRate) : "closed loop",
+                                 getThroughput(),
+                                 getByteThroughput() / (1024 * 1024), total,
+                                 errors > 0 ? ", " + errors + " errors (" +
+                                         firstError + ")" : "");
+        }
+
+        /**
+         * Returns the summary followed by a line per requested level.
+         */
+        @Override public String toString()
+        {
+            StringBuilder report = new StringBuilder(getSummary());
+            for(int level = 0; level < histograms.length; level++)
+            {
+                if(histograms[level] == null) continue;
+                report.append(String.format(
+                        "%n  level %2d: %.0f requests/s, %s", level,
+                        histograms[level].getTotalCount() * 1e9 /
+                                measurementNanos, histograms[level]));
+            }
+            return report.toString();
+        }
+    }
+
+    /**
+     * Sweeps the thread counts (1, 2, 4... up to 4 per processor) of each
+     * storage format, in the closed-loop mode, with synthesized sessions.
+     *
+     * @param args the tile dataset, the lookup file, the tile data file and
+     *             the ImageBlock paths, the lowest and the highest level, and
+     *             optionally "virtual" for virtual client threads
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 6)
+        {
+            System.err.println("Usage: LoadHarness <tileDatasetPath> " +
+                                       "<lookupFilePath> <tileDataFilePath> " +
+                                       "<imageBlockPath> <minLevel> " +
+                                       "<maxLevel> [virtual]");
+            System.exit(1);
+        }
+        FileNames fileNames = new FileNames.Builder(args[0], args[1], args[2])
+                .build();
+        Workload
+                workload =
+                new Workload.Builder(Integer.parseInt(args[4]),
+                                     Integer.parseInt(args[5]), 1000000)
+                        .build();
+        boolean virtualThreads = args.length > 6 &&
+                args[6].equals("virtual");
+        List<Integer> threadCounts = new ArrayList<>();
+        for(int threads = 1;
+            threads <= 4 * Runtime.getRuntime().availableProcessors();
+            threads *= 2)
+        {
+            threadCounts.add(threads);
+        }
+        int[] counts = threadCounts.stream().mapToInt(Integer::intValue)
+                .toArray();
+        sweep(new Builder(workload, WorkloadDriver.simpleFormat(fileNames),
+                          "SimpleFormat").virtualThreads(virtualThreads),
+              counts);
+        sweep(new Builder(workload, WorkloadDriver.imageBlock(args[3]),
+                          "ImageBlock").virtualThreads(virtualThreads),
+              counts);
+        try(LevelFilesSet levelFilesSet = new LevelFilesSet.Builder(fileNames)
+                .build())
+        {
+            sweep(new Builder(workload,
+                              WorkloadDriver.tileSource(levelFilesSet),
+                              "LevelFilesSet").virtualThreads(virtualThreads),
+                  counts);
+        }
+    }
+}
@@ -1,4 +1,12 @@
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The file containing the pointer to the TileDataFile and the size of the
@@ -6,12 +14,41 @@ import java.io.IOException;
  *
  * @author mkotsollaris
  */
-final class LookupFile
+final class LookupFile implements Closeable
 {
+    /**
+     * the size recorded for the tiles that are not stored in the TileDataFile
+     * (missing or blank tiles)
+     */
+    final static int absentTileSize = -1;
     /** the level of the tiledata file */
     private int level;
     /** the filepath of where the LookupFile is being allocated */
     private final String filePath;
+    /** the order of the records within the file */
+    private final TileLayout layout;
+    /**
+     * the size (bytes) of each memory mapping; a multiple of the record size
+     * so that a record never spans two mappings
+     */
+    private final static long mappingSize =
+            (Integer.MAX_VALUE / recordAllocationBytes()) *
+                    recordAllocationBytes();
+    /** the memory mappings of the file, null when the file is not mapped */
+    private volatile MappedByteBuffer[] mappings;
+    /** the in-memory index of the file, null when it is not loaded */
+    private volatile LookupIndex index;
+    /**
+     * the channel used for the asynchronous reads; opened on the first
+     * asynchronous read of a file that is neither mapped nor indexed
+     */
+    private volatile AsynchronousFileChannel asyncChannel;
+    /**
+     * the number of the started and the finished rewrites of records; odd
+     * while records are being rewritten. The reads of the file or of its
+     * mappings that overlap a rewrite are retried.
+     */
+    private volatile long version;
 
     /**
      * Creates an Empty lookup file or retrieves an existing one.
@@ -20,6 +57,7 @@ final class LookupFile
     {
         level = builder.level;
         filePath = builder.filePath;
+        layout = builder.layout;
         if(!FileUtilities.exists(filePath))
         {
             FileUtilities.createFile(filePath,
@@ -34,13 +72,60 @@ final class LookupFile
     }
 
     /**
-     * Reads a long variable.
+     * Reads a whole record, from a single snapshot of the lookup table: the
+     * position and the size always belong to the same version of the tile,
+     * even while the record is being rewritten by {@link
+     * #writeRecords(long[], long[], int[])}.
      *
-     * @param position the byte of the file.
+     * @param position the byte of the file where the record starts
+     *
+     * @return a buffer holding the tile's position (at 0) and size (at
+     * {@link LevelFiles#positionAllocationBytes})
      */
-    long readLong(long position) throws IOException
+    ByteBuffer readRecord(long position) throws IOException
     {
-        return FileUtilities.readLongFromFile(filePath, position);
+        ByteBuffer record = ByteBuffer.allocate(recordAllocationBytes());
+        LookupIndex index = this.index;
+        if(index != null)
+        {
+            long recordIndex = position / recordAllocationBytes();
+            record.putLong(index.getPosition(recordIndex))
+                    .putInt(index.getSize(recordIndex)).flip();
+            return record;
+        }
+        while(true)
+        {
+            long version = this.version;
+            if(!isWriting(version))
+            {
+                MappedByteBuffer[] mappings = this.mappings;
+                if(mappings == null)
+                    record.put(FileUtilities.readFromFile(
+                            filePath, position, recordAllocationBytes()));
+                else
+                {
+                    MappedByteBuffer mapping =
+                            mappings[(int) (position / mappingSize)];
+                    int offset = (int) (position % mappingSize);
+                    int sizeOffset =
+                            offset + LevelFiles.positionAllocationBytes;
+                    record.putLong(mapping.getLong(offset))
+                            .putInt(mapping.getInt(sizeOffset));
+                }
+                record.flip();
+                if(this.version == version) return record;
+                record.clear();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Returns true if the records were being rewritten at the given version.
+     */
+    private static boolean isWriting(long version)
+    {
+        return (version & 1) != 0;
     }
 
     /**
@@ -52,6 +137,8 @@ final class LookupFile
         private final int level;
         /** the filepath of where the LookupFile is being allocated */
         private final String filePath;
+        /** the order of the records within the file */
+        private TileLayout layout = TileLayout.ROW_MAJOR;
 
         /**
          * Implements the Builder Pattern for the object initialization.
@@ -65,6 +152,18 @@ final class LookupFile
             this.level = level;
         }
 
+        /**
+         * Sets the order of the records within the file. The default value
+         * is {@link TileLayout#ROW_MAJOR}.
+         *
+         * @param layout the {@link TileLayout}
+         */
+        Builder layout(TileLayout layout)
+        {
+            this.layout = layout;
+            return this;
+        }
+
         /**
          * Initializes the object.
          */
@@ -75,13 +174,242 @@ final class LookupFile
     }
 
     /**
-     * Reads an Integer from the file.
+     * Reads a record without blocking the calling thread. The records held by
+     * the index or the mappings are returned at once; the rest are read from
+     * the file asynchronously.
      *
-     * @param position the byte of the file.
+     * @param position the byte of the file where the record starts
+     *
+     * @return a future completed with a buffer holding the tile's position
+     * (at 0) and size (at {@link LevelFiles#positionAllocationBytes})
      */
-    int readInt(long position) throws IOException
+    CompletableFuture<ByteBuffer> readRecordAsync(long position)
     {
-        return FileUtilities.readIntFromFile(filePath, position);
+        try
+        {
+            if(index != null || mappings != null)
+                return CompletableFuture.completedFuture(readRecord(position));
+            long version = this.version;
+            return FileUtilities.readFullyAsync(
+                    getAsyncChannel(),
+                    ByteBuffer.allocate(recordAllocationBytes()), position)
+                    .thenCompose(record -> isWriting(version) ||
+                            this.version != version ?
+                            readRecordAsync(position) :
+                            CompletableFuture.completedFuture(record));
+        }
+        catch(IOException e)
+        {
+            return FileUtilities.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns the asynchronous channel of the file, opening it if needed.
+     */
+    private AsynchronousFileChannel getAsyncChannel() throws IOException
+    {
+        AsynchronousFileChannel asyncChannel = this.asyncChannel;
+        if(asyncChannel != null) return asyncChannel;
+        synchronized(this)
+        {
+            if(this.asyncChannel == null)
+                this.asyncChannel = AsynchronousFileChannel
+                        .open(Paths.get(filePath), StandardOpenOption.READ);
+            return this.asyncChannel;
+        }
+    }
+
+    /**
+     * Writes the whole lookup table to the file in one pass. The record {@code
+     * i} holds {@code positions[i]} and {@code sizes[i]}.
+     *
+     * @param positions the positions of the tiles within the {@link
+     *                  TileDataFile}
+     * @param sizes     the sizes of the tiles
+     */
+    void writeRecords(long[] positions, int[] sizes) throws IOException
+    {
+        writeRecords(positions, sizes, 0, positions.length);
+    }
+
+    /**
+     * Writes a range of the lookup table to the file in one pass, and makes
+     * it durable.
+     *
+     * @param positions  the positions of the tiles within the {@link
+     *                   TileDataFile}
+     * @param sizes      the sizes of the tiles
+     * @param fromRecord the first record to be written
+     * @param toRecord   the record after the last one to be written
+     */
+    void writeRecords(long[] positions, int[] sizes, int fromRecord,
+                      int toRecord) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                recordAllocationBytes() * 64 * 1024);
+        long position = (long) fromRecord * recordAllocationBytes();
+        try(FileChannel channel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.WRITE))
+        {
+            for(int i = fromRecord; i < toRecord; i++)
+            {
+                buffer.putLong(positions[i]).putInt(sizes[i]);
+                if(buffer.hasRemaining()) continue;
+                position += flush(channel, buffer, position);
+            }
+            flush(channel, buffer, position);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Overwrites some of the records of the file, keeping the rest. Each
+     * record is replaced at once for the concurrent readers ({@link
+     * #readRecord}): they get either its previous or its new version.
+     *
+     * @param recordIndexes the numbers of the records to be written
+     * @param positions     the positions of the tiles within the {@link
+     *                      TileDataFile}
+     * @param sizes         the sizes of the tiles
+     */
+    synchronized void writeRecords(long[] recordIndexes, long[] positions,
+                                   int[] sizes) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(recordAllocationBytes());
+        try(FileChannel channel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.WRITE))
+        {
+            version++;
+            try
+            {
+                for(int i = 0; i < recordIndexes.length; i++)
+                {
+                    buffer.clear();
+                    buffer.putLong(positions[i]).putInt(sizes[i]).flip();
+                    FileUtilities.writeFully(channel, buffer,
+                                             recordIndexes[i] *
+                                                     recordAllocationBytes());
+                }
+            }
+            finally
+            {
+                version++;
+            }
+            channel.force(false);
+        }
+        LookupIndex index = this.index;
+        if(index != null)
+            this.index = index.withRecords(recordIndexes, positions, sizes);
+    }
+
+    /**
+     * Reads the whole lookup table in one pass; the opposite of {@link
+     * #writeRecords(long[], int[])}.
+     *
+     * @param positions filled with the positions of the tiles
+     * @param sizes     filled with the sizes of the tiles
+     */
+    void readRecords(long[] positions, int[] sizes) throws IOException
+    {
+        readRecords(positions, sizes, 0, positions.length);
+    }
+
+    /**
+     * Reads consecutive records of the lookup table in one pass.
+     *
+     * @param positions    filled with the positions of the tiles, from 0
+     * @param sizes        filled with the sizes of the tiles, from 0
+     * @param fromRecord   the first record to be read
+     * @param recordNumber the number of the records to be read
+     */
+    void readRecords(long[] positions, int[] sizes, long fromRecord,
+                     int recordNumber) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                recordAllocationBytes() * 64 * 1024);
+        long position = fromRecord * recordAllocationBytes();
+        int record = 0;
+        try(FileChannel channel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.READ))
+        {
+            while(record < recordNumber)
+            {
+                buffer.clear();
+                buffer.limit((int) Math.min(
+                        buffer.capacity(),
+                        (long) (recordNumber - record) *
+                                recordAllocationBytes()));
+                FileUtilities.readFully(channel, buffer, position);
+                position += buffer.position();
+                buffer.flip();
+                while(buffer.hasRemaining())
+                {
+                    positions[record] = buffer.getLong();
+                    sizes[record++] = buffer.getInt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered records to the file and clears the buffer.
+     *
+     * @return the number of bytes written
+     */
+    private static int flush(FileChannel channel, ByteBuffer buffer,
+                             long position) throws IOException
+    {
+        buffer.flip();
+        int length = buffer.remaining();
+        FileUtilities.writeFully(channel, buffer, position);
+        buffer.clear();
+        return length;
+    }
+
+    /**
+     * Maps the file into memory, so that the following reads are served
+     * directly from the mapped pages instead of opening the file per read.
+     * Files larger than 2GB are split into several mappings.
+     *
+     * Should be called once the file has been fully written.
+     */
+    void map() throws IOException
+    {
+        mappings = FileUtilities.mapFile(filePath, mappingSize);
+    }
+
+    /**
+     * Loads the records into a compact in-memory {@link LookupIndex}, which
+     * serves the following reads instead of the file or its mappings. The
+     * records overwritten later are patched into the index ({@link
+     * LookupIndex#withRecords}).
+     *
+     * Should be called once the file has been fully written.
+     */
+    void loadIndex() throws IOException
+    {
+        index = LookupIndex.getInstance(
+                this, (int) Tile.computeExpectedTileNumber(level));
+    }
+
+    /** Returns the in-memory index of the file, or null if not loaded. */
+    LookupIndex getIndex()
+    {
+        return index;
+    }
+
+    /** Returns true if the file is mapped into memory. */
+    boolean isMapped()
+    {
+        return mappings != null;
+    }
+
+    /** Returns the number of bytes of a single record. */
+    static int recordAllocationBytes()
+    {
+        return LevelFiles.positionAllocationBytes +
+                LevelFiles.sizeAllocationBytes;
     }
 
     /** gets the file name */
@@ -90,9 +418,15 @@ final class LookupFile
         return filePath;
     }
 
+    /** Returns the {@link TileLayout} of the records. */
+    TileLayout getLayout()
+    {
+        return layout;
+    }
+
     /**
      * Calculates the position of the lookup file based on the level, row and
-     * column of the tile.
+     * column of the tile, following the {@link TileLayout} of the file.
      *
      * @param row:    the row of the wanted tile
      * @param column: the column of the wanted tile
@@ -102,13 +436,31 @@ final class LookupFile
      */
     long getFilePosition(int column, int row)
     {
-        if(Math.pow(2, level) < column || Math.pow(2, level) < row)
+        return getRecordIndex(column, row) * recordAllocationBytes();
+    }
+
+    /**
+     * Returns the number of the tile's record within the file, following the
+     * {@link TileLayout} of the file.
+     *
+     * @param column the column of the wanted tile
+     * @param row    the row of the wanted tile
+     */
+    long getRecordIndex(int column, int row)
+    {
+        if(!TileKey.isValid(level, column, row))
             throw new IllegalArgumentException(
                     "level: " + level + ", column: " + column + ", row: " +
                             row);
-        return ((column * (int) (Math.pow(2, level))) + row) *
-                (LevelFiles.positionAllocationBytes +
-                        LevelFiles.sizeAllocationBytes);
+        return layout.index(level, column, row);
+    }
+
+    /**
+     * Closes the asynchronous channel of the file, if opened.
+     */
+    @Override public synchronized void close() throws IOException
+    {
+        if(asyncChannel != null) asyncChannel.close();
     }
 
     @Override public String toString()
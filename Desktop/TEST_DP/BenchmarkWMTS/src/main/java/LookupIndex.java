@@ -0,0 +1,574 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compact in-memory copy of a {@link LookupFile}, answering the position
+ * and the size of a tile with no I/O, in a fraction of the file's size.
+ *
+ * The tiles' sizes are bit-packed per block of {@link #blockSize} records,
+ * with the width of the block's largest size. The positions are not stored:
+ * since the tiles are appended in the order of their records, the position of
+ * a tile is the position sampled at the start of its block plus the sizes of
+ * the preceding tiles of the block. The records that do not follow that order
+ * (tiles sharing the bytes of an earlier tile, tiles moved by an update, tiles
+ * after a gap) are marked as exceptions, and their positions are kept in a
+ * separate table. Absent tiles take no space in the data and are not
+ * exceptions.
+ *
+ * The index is immutable. The records overwritten by an update are kept in a
+ * small table of patches in front of the blocks, shared with a new index
+ * ({@link #withRecords}), so that an update costs no I/O and no rebuilding
+ * of the blocks. The blocks of the following records are not affected, since
+ * the bytes of their tiles do not move. Once there are more than {@link
+ * #maxPatchNumber} patches, the index is rebuilt from itself, in memory.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+final class LookupIndex
+{
+    /** the number of the records per block, a divisor of 64 */
+    private final static int blockSize = 32;
+    /** the number of the records read from the LookupFile at once */
+    private final static int readRecordNumber = 64 * 1024;
+    /** the maximum number of the patches before the index is rebuilt */
+    private final static int maxPatchNumber = 64 * 1024;
+    /** the number of the records */
+    private final int recordNumber;
+    /** the position of the first in-order tile of each block */
+    private final long[] blockPositions;
+    /** the offset (bits) of each block's sizes within sizeBits */
+    private final long[] blockBitOffsets;
+    /** the width (bits) of each block's sizes */
+    private final byte[] blockWidths;
+    /** the packed sizes; each one is stored as size + 1, 0 for absent */
+    private long[] sizeBits;
+    /** the number of the used bits of sizeBits */
+    private long sizeBitLength;
+    /** the records that are exceptions, one bit per record */
+    private final long[] exceptionWords;
+    /** the number of the exceptions before each word of exceptionWords */
+    private final int[] exceptionRanks;
+    /** the ids of the exceptions' positions, in the order of the records */
+    private int[] exceptionPositionIds;
+    /** the number of the exceptions */
+    private int exceptionNumber;
+    /** the distinct positions of the exceptions, by id */
+    private final PositionTable exceptionPositions;
+    /** the records overwritten since the blocks were built */
+    private final Patches patches;
+    /** the position of the next tile in order, while building the index */
+    private long expectedPosition;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private LookupIndex()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Builds the index, reading the records sequentially in chunks.
+     */
+    private LookupIndex(RecordReader reader, int recordNumber)
+            throws IOException
+    {
+        this.recordNumber = recordNumber;
+        exceptionPositions = new PositionTable();
+        patches = Patches.empty;
+        int blockNumber = (recordNumber + blockSize - 1) / blockSize;
+        blockPositions = new long[blockNumber];
+        blockBitOffsets = new long[blockNumber];
+        blockWidths = new byte[blockNumber];
+        sizeBits = new long[Math.max(1, blockNumber)];
+        exceptionWords = new long[(recordNumber + 63) / 64];
+        exceptionRanks = new int[exceptionWords.length];
+        exceptionPositionIds = new int[1024];
+        long[] positions = new long[readRecordNumber];
+        int[] sizes = new int[readRecordNumber];
+        for(int first = 0; first < recordNumber; first += readRecordNumber)
+        {
+            int number = Math.min(readRecordNumber, recordNumber - first);
+            reader.readRecords(positions, sizes, first, number);
+            for(int i = 0; i < number; i += blockSize)
+            {
+                addBlock(positions, sizes, i, Math.min(blockSize, number - i),
+                         first + i);
+            }
+        }
+        sizeBits = Arrays.copyOf(sizeBits, (int) ((sizeBitLength + 63) / 64));
+        exceptionPositionIds = Arrays.copyOf(exceptionPositionIds,
+                                             exceptionNumber);
+        exceptionPositions.trim();
+        int rank = 0;
+        for(int i = 0; i < exceptionWords.length; i++)
+        {
+            exceptionRanks[i] = rank;
+            rank += Long.bitCount(exceptionWords[i]);
+        }
+    }
+
+    /**
+     * Shares the blocks of the given index, with other patches.
+     */
+    private LookupIndex(LookupIndex index, Patches patches)
+    {
+        recordNumber = index.recordNumber;
+        blockPositions = index.blockPositions;
+        blockBitOffsets = index.blockBitOffsets;
+        blockWidths = index.blockWidths;
+        sizeBits = index.sizeBits;
+        sizeBitLength = index.sizeBitLength;
+        exceptionWords = index.exceptionWords;
+        exceptionRanks = index.exceptionRanks;
+        exceptionPositionIds = index.exceptionPositionIds;
+        exceptionNumber = index.exceptionNumber;
+        exceptionPositions = index.exceptionPositions;
+        this.patches = patches;
+    }
+
+    /**
+     * Builds the index of all the records of the LookupFile.
+     *
+     * @param lookupFile   the {@link LookupFile}
+     * @param recordNumber the number of the records of the file
+     */
+    static LookupIndex getInstance(LookupFile lookupFile, int recordNumber)
+            throws IOException
+    {
+        return new LookupIndex(lookupFile::readRecords, recordNumber);
+    }
+
+    /**
+     * Returns an index of the same records except for the given ones, which
+     * are overwritten (e.g. by an update); this index is left as it is.
+     *
+     * @param recordIndexes the numbers of the overwritten records
+     * @param positions     the new positions of the tiles
+     * @param sizes         the new sizes of the tiles
+     */
+    LookupIndex withRecords(long[] recordIndexes, long[] positions,
+                            int[] sizes)
+    {
+        for(long record : recordIndexes)
+        {
+            checkRecord(record);
+        }
+        LookupIndex index = new LookupIndex(
+                this, patches.with(recordIndexes, positions, sizes));
+        if(index.patches.size() <= maxPatchNumber) return index;
+        try
+        {
+            return new LookupIndex(index::readRecords, recordNumber);
+        }
+        catch(IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads consecutive records from the index, the same as {@link
+     * LookupFile#readRecords(long[], int[], long, int)}, decoding each block
+     * once.
+     */
+    private void readRecords(long[] positions, int[] sizes, long fromRecord,
+                             int number)
+    {
+        int first = checkRecord(fromRecord);
+        int exception = exceptionRank(first);
+        long position = inOrderPosition(first);
+        for(int i = 0; i < number; i++)
+        {
+            int record = first + i;
+            int block = record / blockSize;
+            if(i > 0 && record % blockSize == 0)
+                position = blockPositions[block];
+            int width = blockWidths[block];
+            long value = read(blockBitOffsets[block] +
+                                      (long) (record % blockSize) * width,
+                              width);
+            if(isException(record))
+                positions[i] = exceptionPositions.getPosition(
+                        exceptionPositionIds[exception++]);
+            else
+            {
+                positions[i] = position;
+                if(value > 0) position += value - 1;
+            }
+            sizes[i] = (int) value - 1;
+            int patch = patches.find(record);
+            if(patch < 0) continue;
+            positions[i] = patches.getPosition(patch);
+            sizes[i] = patches.getSize(patch);
+        }
+    }
+
+    /**
+     * Adds the records of a block to the index. The in-order tiles of the
+     * block start at the tile following the previous block's last in-order
+     * tile if there is one, otherwise at the nearest tile after it, so that
+     * a tile moved to the end of the file (e.g. by an update) does not break
+     * the order of the following blocks.
+     *
+     * @param positions the positions of the chunk's records
+     * @param sizes     the sizes of the chunk's records
+     * @param from      the first record of the block within the chunk
+     * @param number    the number of the records of the block
+     * @param record    the first record of the block within the file
+     */
+    private void addBlock(long[] positions, int[] sizes, int from, int number,
+                          int record)
+    {
+        int block = record / blockSize;
+        int width = 0;
+        for(int i = from; i < from + number; i++)
+        {
+            width = Math.max(width, 32 - Integer.numberOfLeadingZeros(
+                    sizes[i] + 1));
+        }
+        blockWidths[block] = (byte) width;
+        blockBitOffsets[block] = sizeBitLength;
+        ensureSizeBits(sizeBitLength + (long) number * width);
+        int start = -1;
+        for(int i = from; i < from + number; i++)
+        {
+            if(sizes[i] < 0 || positions[i] < expectedPosition) continue;
+            if(start < 0 || positions[i] < positions[start]) start = i;
+            if(positions[i] == expectedPosition) break;
+        }
+        long nextPosition = -1;
+        for(int i = from; i < from + number; i++)
+        {
+            write(sizes[i] + 1, width);
+            if(sizes[i] < 0) continue;
+            if(i == start)
+            {
+                blockPositions[block] = positions[i];
+                nextPosition = positions[i];
+            }
+            if(positions[i] == nextPosition) nextPosition += sizes[i];
+            else addException(record + i - from, positions[i]);
+        }
+        if(nextPosition >= 0) expectedPosition = nextPosition;
+    }
+
+    private void addException(int record, long position)
+    {
+        exceptionWords[record >>> 6] |= 1L << record;
+        if(exceptionNumber == exceptionPositionIds.length)
+            exceptionPositionIds = Arrays.copyOf(exceptionPositionIds,
+                                                 exceptionNumber * 2);
+        exceptionPositionIds[exceptionNumber++] =
+                exceptionPositions.getId(position);
+    }
+
+    private void ensureSizeBits(long bitLength)
+    {
+        int length = (int) ((bitLength + 63) / 64) + 1;
+        if(length > sizeBits.length)
+            sizeBits = Arrays.copyOf(sizeBits,
+                                     Math.max(length, sizeBits.length * 2));
+    }
+
+    /**
+     * Appends a value of the given width to the packed sizes.
+     */
+    private void write(long value, int width)
+    {
+        if(width == 0) return;
+        int index = (int) (sizeBitLength >>> 6);
+        int shift = (int) (sizeBitLength & 63);
+        sizeBits[index] |= value << shift;
+        if(shift + width > 64) sizeBits[index + 1] |= value >>> (64 - shift);
+        sizeBitLength += width;
+    }
+
+    private long read(long bitOffset, int width)
+    {
+        if(width == 0) return 0;
+        int index = (int) (bitOffset >>> 6);
+        int shift = (int) (bitOffset & 63);
+        long value = sizeBits[index] >>> shift;
+        if(shift + width > 64) value |= sizeBits[index + 1] << (64 - shift);
+        return value & ((1L << width) - 1);
+    }
+
+    private boolean isException(int record)
+    {
+        return (exceptionWords[record >>> 6] & (1L << record)) != 0;
+    }
+
+    /**
+     * Returns the position of the tile within the {@link TileDataFile}.
+     *
+     * @param record the number of the tile's record
+     */
+    long getPosition(long record)
+    {
+        int index = checkRecord(record);
+        int patch = patches.find(index);
+        if(patch >= 0) return patches.getPosition(patch);
+        if(isException(index))
+            return exceptionPositions.getPosition(
+                    exceptionPositionIds[exceptionRank(index)]);
+        return inOrderPosition(index);
+    }
+
+    /**
+     * Returns the number of the exceptions before the record.
+     */
+    private int exceptionRank(int record)
+    {
+        return exceptionRanks[record >>> 6] + Long.bitCount(
+                exceptionWords[record >>> 6] & ((1L << record) - 1));
+    }
+
+    /**
+     * Returns the position of an in-order tile: the block's position plus
+     * the sizes of the preceding in-order tiles of the block.
+     */
+    private long inOrderPosition(int record)
+    {
+        int block = record / blockSize;
+        int width = blockWidths[block];
+        long bitOffset = blockBitOffsets[block];
+        long position = blockPositions[block];
+        for(int i = block * blockSize; i < record; i++, bitOffset += width)
+        {
+            if(isException(i)) continue;
+            long value = read(bitOffset, width);
+            if(value > 0) position += value - 1;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the size of the tile, or {@link LookupFile#absentTileSize}.
+     *
+     * @param record the number of the tile's record
+     */
+    int getSize(long record)
+    {
+        int index = checkRecord(record);
+        int patch = patches.find(index);
+        if(patch >= 0) return patches.getSize(patch);
+        int block = index / blockSize;
+        int width = blockWidths[block];
+        return (int) read(blockBitOffsets[block] +
+                                  (long) (index - block * blockSize) * width,
+                          width) - 1;
+    }
+
+    private int checkRecord(long record)
+    {
+        if(record < 0 || record >= recordNumber)
+            throw new IllegalArgumentException("record: " + record);
+        return (int) record;
+    }
+
+    /**
+     * Returns the approximate number of the bytes held by the index.
+     */
+    long getMemoryBytes()
+    {
+        return 8L * (blockPositions.length + blockBitOffsets.length +
+                sizeBits.length + exceptionWords.length) +
+                blockWidths.length + 4L * (exceptionRanks.length +
+                exceptionPositionIds.length) +
+                exceptionPositions.getMemoryBytes() +
+                patches.getMemoryBytes();
+    }
+
+    @Override public String toString()
+    {
+        return "LookupIndex of " + recordNumber + " records, exceptions: " +
+                exceptionNumber + ", patches: " + patches.size() +
+                ", bytes: " + getMemoryBytes();
+    }
+
+    /**
+     * Reads consecutive records, e.g. from the {@link LookupFile}.
+     */
+    private interface RecordReader
+    {
+        /**
+         * Fills the arrays, from 0, with the positions and the sizes of the
+         * records.
+         */
+        void readRecords(long[] positions, int[] sizes, long fromRecord,
+                         int number) throws IOException;
+    }
+
+    /**
+     * The overwritten records, in an immutable open addressing hash table
+     * from the numbers of the records to their positions and sizes.
+     */
+    private final static class Patches
+    {
+        /** the table without any patch */
+        final static Patches empty = new Patches(0);
+        /** the numbers of the records (+1, 0 if empty) */
+        private final int[] records;
+        /** the positions of the tiles */
+        private final long[] positions;
+        /** the sizes of the tiles */
+        private final int[] sizes;
+        /** the number of the patches */
+        private int size;
+
+        private Patches(int capacity)
+        {
+            int slotNumber =
+                    Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+            records = new int[slotNumber];
+            positions = new long[slotNumber];
+            sizes = new int[slotNumber];
+        }
+
+        /**
+         * Returns a table of these patches and the given ones, which replace
+         * the patches of the same records.
+         */
+        Patches with(long[] recordIndexes, long[] positions, int[] sizes)
+        {
+            Patches patches = new Patches(size + recordIndexes.length);
+            for(int slot = 0; slot < records.length; slot++)
+            {
+                if(records[slot] != 0)
+                    patches.put(records[slot] - 1, this.positions[slot],
+                                this.sizes[slot]);
+            }
+            for(int i = 0; i < recordIndexes.length; i++)
+            {
+                patches.put((int) recordIndexes[i], positions[i], sizes[i]);
+            }
+            return patches;
+        }
+
+        private void put(int record, long position, int tileSize)
+        {
+            int slot = slot(record);
+            while(records[slot] != 0 && records[slot] != record + 1)
+            {
+                slot = (slot + 1) & (records.length - 1);
+            }
+            if(records[slot] == 0) size++;
+            records[slot] = record + 1;
+            positions[slot] = position;
+            sizes[slot] = tileSize;
+        }
+
+        /**
+         * Returns the slot of the record, or -1 if the record is not patched.
+         */
+        int find(int record)
+        {
+            if(size == 0) return -1;
+            for(int slot = slot(record); records[slot] != 0;
+                slot = (slot + 1) & (records.length - 1))
+            {
+                if(records[slot] == record + 1) return slot;
+            }
+            return -1;
+        }
+
+        long getPosition(int slot)
+        {
+            return positions[slot];
+        }
+
+        int getSize(int slot)
+        {
+            return sizes[slot];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        long getMemoryBytes()
+        {
+            return 16L * records.length;
+        }
+
+        private int slot(int record)
+        {
+            int hash = record * 0x9E3779B9;
+            return (hash ^ hash >>> 16) & (records.length - 1);
+        }
+    }
+
+    /**
+     * The distinct positions of the exceptions, each one with an id; the
+     * tiles that share the same bytes share the same id.
+     */
+    private final static class PositionTable
+    {
+        /** the positions, by id */
+        private long[] positions = new long[64];
+        /** the number of the positions */
+        private int size;
+        /** the hash table from the positions to their ids (+1, 0 if empty) */
+        private int[] slots = new int[128];
+
+        /**
+         * Returns the id of the position, adding it if it is new.
+         */
+        int getId(long position)
+        {
+            int slot = slot(position);
+            while(slots[slot] != 0)
+            {
+                if(positions[slots[slot] - 1] == position)
+                    return slots[slot] - 1;
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            if(size == positions.length)
+                positions = Arrays.copyOf(positions, size * 2);
+            positions[size] = position;
+            slots[slot] = ++size;
+            if(size * 2 > slots.length) rehash();
+            return size - 1;
+        }
+
+        long getPosition(int id)
+        {
+            return positions[id];
+        }
+
+        /**
+         * Drops the hash table, which is only needed for adding positions.
+         */
+        void trim()
+        {
+            positions = Arrays.copyOf(positions, size);
+            slots = null;
+        }
+
+        long getMemoryBytes()
+        {
+            return 8L * positions.length;
+        }
+
+        private void rehash()
+        {
+            slots = new int[slots.length * 2];
+            for(int id = 0; id < size; id++)
+            {
+                int slot = slot(positions[id]);
+                while(slots[slot] != 0)
+                {
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                slots[slot] = id + 1;
+            }
+        }
+
+        private int slot(long position)
+        {
+            long hash = position * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & (slots.length - 1);
+        }
+    }
+}
@@ -0,0 +1,608 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An off-heap cache of tiles' bytes. The bytes are kept in direct buffers
+ * (pages) outside the Java heap, so that a large cache does not add to the
+ * garbage collection pauses; only a small entry per cached tile is kept on
+ * the heap.
+ *
+ * The pages are split into chunks of a size class (memcached-like slab
+ * allocation): a tile is stored in a chunk of the smallest class that fits
+ * it, and each class evicts its own least recently used tiles. A tile is only
+ * admitted in place of a victim if it has been requested more often recently
+ * ({@link FrequencySketch}).
+ *
+ * The pages are handed to the size classes as the classes fill up. Once all
+ * the pages are handed out, they are rebalanced every {@link
+ * #rebalanceInterval} loads as the tile-size mix changes: a page of a class
+ * that evicted nothing since the last rebalancing is emptied and handed to
+ * the class that evicted the most (or could not store a tile at all). A page
+ * is only moved when none of its tiles is leased.
+ *
+ * A hit is handed out as a {@link Lease}: a read-only view of the cached bytes,
+ * which can be written straight to a channel. The chunk of the lease is not
+ * reused until the lease is closed, even if the tile gets evicted meanwhile.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class OffHeapTileCache
+{
+    /** the size (bytes) of a page */
+    private final static int pageSize = 4 * 1024 * 1024;
+    /** the chunk size of the smallest size class */
+    private final static int minChunkSize = 1024;
+    /** the growth factor between two successive size classes */
+    private final static double sizeClassFactor = 1.25;
+    /** the maximum number of victims examined for a single admission */
+    private final static int maxVictimNumber = 8;
+    /** the average tile size assumed for sizing the frequency sketch */
+    private final static int averageTileSize = 16 * 1024;
+    /** the number of the loads between two rebalancings of the pages */
+    private final static int rebalanceInterval = 1024;
+    /** the pages holding the tiles' bytes */
+    private final ByteBuffer[] pages;
+    /** the number of the pages handed to the size classes */
+    private final AtomicInteger allocatedPageNumber = new AtomicInteger();
+    /** the size classes, from the smallest to the largest chunk size */
+    private final SizeClass[] sizeClasses;
+    /** the cached tiles */
+    private final ConcurrentHashMap<Long, Entry>
+            entries =
+            new ConcurrentHashMap<>();
+    /** the recent request frequency of the tiles */
+    private final FrequencySketch sketch;
+    /** the number of the requests served by the cache */
+    private final LongAdder hitCount = new LongAdder();
+    /** the number of the requests not found in the cache */
+    private final LongAdder missCount = new LongAdder();
+    /** the number of the tiles evicted or rejected by the cache */
+    private final LongAdder evictionCount = new LongAdder();
+    /** the number of the loads since the last rebalancing of the pages */
+    private final AtomicInteger loadCount = new AtomicInteger();
+    /** held while the pages are rebalanced */
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+    /** the number of the pages moved between the size classes */
+    private final LongAdder reassignmentCount = new LongAdder();
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private OffHeapTileCache()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Creates an empty cache. The pages are allocated as they are needed.
+     *
+     * @param maxBytes the maximum number of the off-heap bytes
+     */
+    OffHeapTileCache(long maxBytes)
+    {
+        if(maxBytes < pageSize)
+            throw new IllegalArgumentException(
+                    "maxBytes: " + maxBytes + " < " + pageSize);
+        pages = new ByteBuffer[(int) Math.min(maxBytes / pageSize,
+                                              Integer.MAX_VALUE)];
+        int sizeClassNumber = 0;
+        for(double size = minChunkSize; size < pageSize;
+            size *= sizeClassFactor)
+        {
+            sizeClassNumber++;
+        }
+        sizeClasses = new SizeClass[sizeClassNumber + 1];
+        double size = minChunkSize;
+        for(int i = 0; i < sizeClassNumber; i++)
+        {
+            sizeClasses[i] = new SizeClass(((int) size + 63) & ~63);
+            size *= sizeClassFactor;
+        }
+        sizeClasses[sizeClassNumber] = new SizeClass(pageSize);
+        sketch = new FrequencySketch(maxBytes / averageTileSize);
+    }
+
+    /**
+     * Returns a lease of the cached bytes of the tile, or null if the tile is
+     * not cached. The lease must be closed once its buffer is consumed.
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    Lease get(int level, int column, int row)
+    {
+        long key = TileKey.pack(level, column, row);
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        Lease lease = entry == null ? null : entry.sizeClass.pin(entry);
+        if(lease == null) missCount.increment();
+        else hitCount.increment();
+        return lease;
+    }
+
+    /**
+     * Loads a tile into the cache, if the admission policy accepts it, and
+     * returns a lease of the cached bytes. The loader fills the cache's buffer
+     * directly (e.g. reading from a file), without any copy in the heap.
+     *
+     * @param level    the level of the {@link Tile}
+     * @param column   the column of the {@link Tile}
+     * @param row      the row of the {@link Tile}
+     * @param tileSize the size (bytes) of the tile
+     * @param loader   fills the given buffer with the tile's bytes
+     *
+     * @return the lease of the cached bytes, or null if the tile was not
+     * admitted
+     */
+    Lease load(int level, int column, int row, int tileSize, Loader loader)
+            throws IOException
+    {
+        if(tileSize < 0 || tileSize > pageSize)
+        {
+            evictionCount.increment();
+            return null;
+        }
+        if(loadCount.incrementAndGet() % rebalanceInterval == 0)
+            rebalance();
+        long key = TileKey.pack(level, column, row);
+        SizeClass sizeClass = sizeClassFor(tileSize);
+        Entry entry = sizeClass.allocate(key, tileSize);
+        if(entry == null)
+        {
+            evictionCount.increment();
+            return null;
+        }
+        try
+        {
+            loader.load(entry.view());
+        }
+        catch(IOException | RuntimeException e)
+        {
+            sizeClass.release(entry);
+            throw e;
+        }
+        return sizeClass.publish(entry);
+    }
+
+    /**
+     * Moves a page from an idle size class (no evictions since the last
+     * rebalancing) to the class with the most evictions, once all the pages
+     * are handed out. Skipped if another thread is rebalancing already.
+     */
+    private void rebalance()
+    {
+        if(!rebalanceLock.tryLock()) return;
+        try
+        {
+            long[] pressures = new long[sizeClasses.length];
+            for(int i = 0; i < sizeClasses.length; i++)
+            {
+                pressures[i] = sizeClasses[i].takePressure();
+            }
+            if(allocatedPageNumber.get() < pages.length) return;
+            int recipient = -1, donor = -1;
+            for(int i = 0; i < sizeClasses.length; i++)
+            {
+                if(pressures[i] > 0 &&
+                        (recipient < 0 || pressures[i] > pressures[recipient]))
+                    recipient = i;
+                if(pressures[i] == 0 && sizeClasses[i].getPageNumber() > 0 &&
+                        (donor < 0 || sizeClasses[i].getPageNumber() >
+                                sizeClasses[donor].getPageNumber()))
+                    donor = i;
+            }
+            if(recipient < 0 || donor < 0) return;
+            int pageIndex = sizeClasses[donor].releasePage();
+            if(pageIndex < 0) return;
+            sizeClasses[recipient].addPage(pageIndex);
+            reassignmentCount.increment();
+        }
+        finally
+        {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the tile from the cache (e.g. after the tile has been updated).
+     * Its chunk is reused once the open leases of the tile are closed.
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    void invalidate(int level, int column, int row)
+    {
+        Entry entry = entries.get(TileKey.pack(level, column, row));
+        if(entry != null) entry.sizeClass.remove(entry);
+    }
+
+    /** Returns the number of the requests served by the cache. */
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    /** Returns the number of the requests not found in the cache. */
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    /** Returns the number of the tiles evicted or rejected by the cache. */
+    public long getEvictionCount()
+    {
+        return evictionCount.sum();
+    }
+
+    /** Returns the number of the pages moved between the size classes. */
+    public long getReassignmentCount()
+    {
+        return reassignmentCount.sum();
+    }
+
+    /** Returns the number of the allocated off-heap bytes. */
+    public long getAllocatedBytes()
+    {
+        return (long) allocatedPageNumber.get() * pageSize;
+    }
+
+    /** Returns the maximum number of the off-heap bytes. */
+    public long getMaxBytes()
+    {
+        return (long) pages.length * pageSize;
+    }
+
+    private SizeClass sizeClassFor(int tileSize)
+    {
+        for(SizeClass sizeClass : sizeClasses)
+        {
+            if(sizeClass.chunkSize >= tileSize) return sizeClass;
+        }
+        throw new IllegalArgumentException("tileSize: " + tileSize);
+    }
+
+    @Override public String toString()
+    {
+        return "OffHeapTileCache hits: " + getHitCount() + ", misses: " +
+                getMissCount() + ", evictions: " + getEvictionCount() +
+                ", reassigned pages: " + getReassignmentCount() +
+                ", tiles: " + entries.size() + ", bytes: " +
+                getAllocatedBytes() + "/" + getMaxBytes();
+    }
+
+    /**
+     * Fills a buffer with the bytes of a tile.
+     */
+    interface Loader
+    {
+        /**
+         * Fills the remaining bytes of the buffer with the tile's bytes.
+         *
+         * @param target the buffer to be filled
+         */
+        void load(ByteBuffer target) throws IOException;
+    }
+
+    /**
+     * A read-only view of a cached tile's bytes. The cached bytes stay valid
+     * until the lease is closed.
+     */
+    public final class Lease implements Closeable
+    {
+        /** the leased entry */
+        private final Entry entry;
+        /** the view of the bytes */
+        private final ByteBuffer buffer;
+        /** whether the lease has been closed */
+        private boolean closed;
+
+        private Lease(Entry entry)
+        {
+            this.entry = entry;
+            this.buffer = entry.view().asReadOnlyBuffer();
+        }
+
+        /** Returns the read-only view of the tile's bytes. */
+        public ByteBuffer getBuffer()
+        {
+            return buffer;
+        }
+
+        /** Returns the size (bytes) of the tile. */
+        public int getSize()
+        {
+            return entry.length;
+        }
+
+        /** Copies the tile's bytes into a new array. */
+        public byte[] toByteArray()
+        {
+            byte[] data = new byte[entry.length];
+            buffer.duplicate().get(data);
+            return data;
+        }
+
+        /**
+         * Releases the cached bytes; the buffer must not be used afterwards.
+         */
+        @Override public void close()
+        {
+            if(closed) return;
+            closed = true;
+            entry.sizeClass.release(entry);
+        }
+    }
+
+    /**
+     * The on-heap metadata of a cached tile.
+     */
+    private final static class Entry
+    {
+        /** the key of the tile */
+        private final long key;
+        /** the size class of the chunk */
+        private final SizeClass sizeClass;
+        /** the index of the chunk's page */
+        private final int pageIndex;
+        /** the page of the chunk */
+        private final ByteBuffer page;
+        /** the position of the chunk within the page */
+        private final int offset;
+        /** the size (bytes) of the tile */
+        private final int length;
+        /** the number of the open leases; guarded by the size class */
+        private int pins;
+        /** whether the tile has left the cache; guarded by the size class */
+        private boolean evicted;
+
+        Entry(long key, SizeClass sizeClass, int pageIndex, ByteBuffer page,
+              int offset, int length)
+        {
+            this.key = key;
+            this.sizeClass = sizeClass;
+            this.pageIndex = pageIndex;
+            this.page = page;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /** Returns a view of the tile's bytes within the page. */
+        ByteBuffer view()
+        {
+            ByteBuffer view = page.duplicate();
+            view.limit(offset + length).position(offset);
+            return view.slice();
+        }
+    }
+
+    /**
+     * The chunks of a particular size, with their own lock and their own
+     * least recently used order.
+     */
+    private final class SizeClass
+    {
+        /** the size (bytes) of the chunks */
+        private final int chunkSize;
+        /** the free chunks, as (page index, offset) pairs */
+        private final ArrayDeque<long[]> freeChunks = new ArrayDeque<>();
+        /** the cached tiles of the class, in access order */
+        private final LinkedHashMap<Long, Entry>
+                lru =
+                new LinkedHashMap<>(16, 0.75f, true);
+        /** the number of the pages of the class */
+        private int pageNumber;
+        /**
+         * the evictions and the tiles that found no chunk nor victim since
+         * the last rebalancing
+         */
+        private long pressure;
+
+        SizeClass(int chunkSize)
+        {
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Pins the entry and returns a lease, or null if it has been evicted.
+         */
+        synchronized Lease pin(Entry entry)
+        {
+            if(entry.evicted) return null;
+            lru.get(entry.key);
+            entry.pins++;
+            return new Lease(entry);
+        }
+
+        /**
+         * Allocates a chunk for a new tile, evicting less frequently used
+         * tiles of the class if needed. The returned entry is pinned and not
+         * yet visible to the readers.
+         *
+         * @return the entry, or null if the tile was not admitted
+         */
+        synchronized Entry allocate(long key, int length)
+        {
+            long[] chunk = freeChunks.poll();
+            if(chunk == null && allocatePage()) chunk = freeChunks.poll();
+            Iterator<Map.Entry<Long, Entry>>
+                    victims =
+                    lru.entrySet().iterator();
+            int candidateFrequency = sketch.frequency(key);
+            for(int i = 0; chunk == null && i < maxVictimNumber &&
+                    victims.hasNext(); i++)
+            {
+                Entry victim = victims.next().getValue();
+                if(candidateFrequency <= sketch.frequency(victim.key))
+                    return null;
+                victims.remove();
+                entries.remove(victim.key, victim);
+                victim.evicted = true;
+                evictionCount.increment();
+                pressure++;
+                if(victim.pins == 0) free(victim);
+                chunk = freeChunks.poll();
+            }
+            if(chunk == null)
+            {
+                if(lru.isEmpty()) pressure++;
+                return null;
+            }
+            int pageIndex = (int) chunk[0];
+            Entry entry = new Entry(key, this, pageIndex, pages[pageIndex],
+                                    (int) chunk[1], length);
+            entry.pins = 1;
+            entry.evicted = true;
+            return entry;
+        }
+
+        /**
+         * Makes a loaded entry visible to the readers and returns a lease of
+         * it.
+         */
+        synchronized Lease publish(Entry entry)
+        {
+            Entry previous = entries.putIfAbsent(entry.key, entry);
+            if(previous == null)
+            {
+                entry.evicted = false;
+                lru.put(entry.key, entry);
+            }
+            return new Lease(entry);
+        }
+
+        /**
+         * Removes a published entry from the cache.
+         */
+        synchronized void remove(Entry entry)
+        {
+            if(entry.evicted) return;
+            lru.remove(entry.key);
+            entries.remove(entry.key, entry);
+            entry.evicted = true;
+            if(entry.pins == 0) free(entry);
+        }
+
+        /**
+         * Releases a pin of the entry; frees its chunk if it has been evicted
+         * and this was the last pin.
+         */
+        synchronized void release(Entry entry)
+        {
+            entry.pins--;
+            if(entry.evicted && entry.pins == 0) free(entry);
+        }
+
+        private void free(Entry entry)
+        {
+            freeChunks.push(new long[]{entry.pageIndex, entry.offset});
+        }
+
+        /**
+         * Hands a new page to the class, if the cache has not reached its
+         * maximum size.
+         */
+        private boolean allocatePage()
+        {
+            int pageIndex = allocatedPageNumber.getAndIncrement();
+            if(pageIndex >= pages.length)
+            {
+                allocatedPageNumber.decrementAndGet();
+                return false;
+            }
+            pages[pageIndex] = ByteBuffer.allocateDirect(pageSize);
+            addPage(pageIndex);
+            return true;
+        }
+
+        /**
+         * Splits an allocated page into free chunks of the class.
+         */
+        synchronized void addPage(int pageIndex)
+        {
+            for(int offset = 0; offset + chunkSize <= pageSize;
+                offset += chunkSize)
+            {
+                freeChunks.add(new long[]{pageIndex, offset});
+            }
+            pageNumber++;
+        }
+
+        /**
+         * Empties a page of the class, evicting its tiles, so that it can be
+         * handed to another class. Prefers the page with the most free
+         * chunks; skips the pages with leased tiles.
+         *
+         * @return the index of the page, or -1 if no page can be emptied
+         */
+        synchronized int releasePage()
+        {
+            Map<Integer, int[]> pageUsage = new HashMap<>();
+            for(long[] chunk : freeChunks)
+            {
+                pageUsage.computeIfAbsent((int) chunk[0],
+                                          pageIndex -> new int[2])[0]++;
+            }
+            for(Entry entry : lru.values())
+            {
+                if(entry.pins == 0)
+                    pageUsage.computeIfAbsent(entry.pageIndex,
+                                              pageIndex -> new int[2])[1]++;
+            }
+            int chunkNumber = pageSize / chunkSize, pageIndex = -1;
+            int freeChunkNumber = -1;
+            for(Map.Entry<Integer, int[]> usage : pageUsage.entrySet())
+            {
+                int[] counts = usage.getValue();
+                if(counts[0] + counts[1] == chunkNumber &&
+                        counts[0] > freeChunkNumber)
+                {
+                    pageIndex = usage.getKey();
+                    freeChunkNumber = counts[0];
+                }
+            }
+            if(pageIndex < 0) return -1;
+            for(Iterator<long[]> chunks = freeChunks.iterator();
+                chunks.hasNext(); )
+            {
+                if(chunks.next()[0] == pageIndex) chunks.remove();
+            }
+            for(Iterator<Entry> entries = lru.values().iterator();
+                entries.hasNext(); )
+            {
+                Entry entry = entries.next();
+                if(entry.pageIndex != pageIndex) continue;
+                entries.remove();
+                OffHeapTileCache.this.entries.remove(entry.key, entry);
+                entry.evicted = true;
+                evictionCount.increment();
+            }
+            pageNumber--;
+            return pageIndex;
+        }
+
+        /** Returns the number of the pages of the class. */
+        synchronized int getPageNumber()
+        {
+            return pageNumber;
+        }
+
+        /** Returns the pressure on the class and resets it. */
+        synchronized long takePressure()
+        {
+            long pressure = this.pressure;
+            this.pressure = 0;
+            return pressure;
+        }
+    }
+}
@@ -18,6 +18,9 @@ import java.util.concurrent.TimeUnit;
  * End Loop
  * Print Average Time for all
  * </pre>
+ *
+ * These are single-shot timings; see {@link RetrievalBenchmark} for the JMH
+ * benchmark of the retrieval.
  */
 public class PerformanceTests
 {
@@ -40,6 +43,24 @@ public class PerformanceTests
 
     static void compareRetrieval(int level) throws IOException
     {
+        compareRetrieval(level, 0);
+    }
+
+    /**
+     * Compares the retrieval times, with the LevelFilesSet caching up to the
+     * given number of bytes ({@link TileCache}).
+     *
+     * @param level          the level of the requested tiles
+     * @param tileCacheBytes the maximum number of the cached bytes, 0 for no
+     *                       cache
+     */
+    static void compareRetrieval(int level, long tileCacheBytes)
+            throws IOException
+    {
+        LevelFilesSet
+                levelFilesSet =
+                new LevelFilesSet.Builder(fileNames)
+                        .tileCacheBytes(tileCacheBytes).build();
         float levelFileSum = 0, simpleFormatSum = 0, imageBlockSum = 0;
         float levelFileMin = Float.MAX_VALUE, simpleFormatMin = Float.MAX_VALUE,
                 imageBlockMin = Float.MAX_VALUE;
@@ -62,8 +83,9 @@ public class PerformanceTests
                         measureSimpleFormatRetrieval(level, rowNumbers,
                                                      columnNumbers);
                 levelFilesSetTimer[j] =
-                        measureLevelFilesSetRetrieval(level, rowNumbers,
-                                                      columnNumbers);
+                        measureLevelFilesSetRetrieval(levelFilesSet, level,
+                                                      columnNumbers,
+                                                      rowNumbers);
                 imageBlockTimer[j] =
                         measureImageBlockRetrieval(level, rowNumbers,
                                                    columnNumbers);
@@ -107,6 +129,9 @@ public class PerformanceTests
                                    imageBlockThreshold +
                                    ", simpleFormatThreshold: " +
                                    simpleFormatThreshold + "\n");
+        if(levelFilesSet.getTileCache() != null)
+            System.out.println(levelFilesSet.getTileCache());
+        levelFilesSet.close();
     }
 
     private static boolean isMin(float value, float simpleFormatMin)
@@ -134,12 +159,12 @@ public class PerformanceTests
                 String
                         filePath =
                         fileNames.getTileName(level, columnNumber,
-                                              columnNumbers[j]);
+                                              rowNumbers[j]);
                 Tile
                         tile =
                         ImageBlock.getTile(
                                 MyFileNames.ImageBlockPath.getFileName(), level,
-                                columnNumber, columnNumbers[j]);
+                                columnNumber, rowNumbers[j]);
             }
         }
         long time2 = System.nanoTime();
@@ -170,7 +195,7 @@ public class PerformanceTests
                 String
                         filePath =
                         fileNames.getTileName(level, columnNumber,
-                                              columnNumbers[j]);
+                                              rowNumbers[j]);
                 Tile tile = Tile.getInstance(filePath);
             }
         }
@@ -179,14 +204,10 @@ public class PerformanceTests
                 .convert(time2 - time1, TimeUnit.NANOSECONDS);
     }
 
-    private static long measureLevelFilesSetRetrieval(int level,
-                                                      int[] columnNumbers,
-                                                      int[] rowNumbers)
-            throws IOException
+    private static long measureLevelFilesSetRetrieval(
+            LevelFilesSet levelFilesSet, int level, int[] columnNumbers,
+            int[] rowNumbers) throws IOException
     {
-        LevelFilesSet
-                levelFilesSet =
-                new LevelFilesSet.Builder(fileNames).build();
         long time1 = System.nanoTime();
         for(int i = 0; i < columnNumbers.length; i++)
         {
@@ -219,6 +240,11 @@ public class PerformanceTests
         System.out.println("SimpleFormat TIME: " + (time2 - time1));
     }
 
+    /**
+     * Draws uniformly distributed columns (or rows) of a level. For traffic
+     * that looks like map users, see {@link Workload} and {@link
+     * WorkloadDriver}.
+     */
     private static int[] generateRandomNumbers(int threshold, int level)
     {
         int max = Tile.computeColumnTotalNumber(level) - 1;
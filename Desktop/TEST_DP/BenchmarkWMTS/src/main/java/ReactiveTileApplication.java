@@ -0,0 +1,45 @@
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+
+/**
+ * The reactive application of the {@link ReactiveTileController}, on the
+ * reactive stack (Spring WebFlux). It is kept apart from {@link
+ * BenchmarkWmtsApplication}, whose servlet endpoints would otherwise make
+ * Spring Boot start the servlet stack, and it scans no components: the
+ * controller is its only endpoint. It listens on the port 8081 unless the
+ * server.port property says otherwise, and serves the tiles of the same
+ * wmts.* properties.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import(ReactiveTileController.class)
+public class ReactiveTileApplication
+{
+    public static void main(String[] args)
+    {
+        new SpringApplicationBuilder(ReactiveTileApplication.class)
+                .web(WebApplicationType.REACTIVE)
+                .properties("server.port=8081").run(args);
+    }
+
+    /**
+     * The tiles served by the controller; see {@link
+     * BenchmarkWmtsApplication#tileSource}.
+     */
+    @Bean(destroyMethod = "close")
+    public LevelFilesSet tileSource(Environment environment)
+            throws IOException
+    {
+        return BenchmarkWmtsApplication.newTileSource(environment);
+    }
+}
@@ -0,0 +1,164 @@
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Streams the tiles of a {@link LevelFilesSet} reactively (Spring WebFlux):
+ * the bytes of a tile are read from its region of the TileDataFile in chunks,
+ * and each chunk is read only when the client is ready for it, so a slow
+ * client neither pins a thread nor has its whole response buffered.
+ *
+ * {@code GET /reactive/{level}/{column}/{row}} answers with a single tile.
+ * {@code GET /reactive/{level}/tiles?minColumn=&minRow=&maxColumn=&maxRow=}
+ * answers with all the tiles of a viewport (inclusive), ordered by column and
+ * then by row, each one framed as its column, row and size (big-endian ints)
+ * followed by its bytes; an absent tile has a size of -1 and no bytes. The
+ * tiles are read one after the other, each one as soon as the previous one
+ * has been sent.
+ *
+ * The lookup records are read in place, so the served LevelFilesSet should
+ * keep them in memory (lookup index or memory mapping).
+ *
+ * The controller runs in its own reactive application, {@link
+ * ReactiveTileApplication}, apart from the servlet controllers.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+@RestController @RequestMapping("/reactive") public class ReactiveTileController
+{
+    /** the size (bytes) of the chunks that the tiles are read in */
+    private final static int chunkSize = 64 * 1024;
+    /** the maximum number of the tiles of a viewport request */
+    private final static int maxViewportTileNumber = 4096;
+    /** the size (bytes) of the frame header of each tile of a viewport */
+    private final static int frameHeaderBytes = 12;
+    /** the tiles served */
+    private final LevelFilesSet levelFilesSet;
+    /** the factory of the sent buffers */
+    private final DataBufferFactory bufferFactory =
+            new DefaultDataBufferFactory();
+
+    /**
+     * Creates the controller.
+     *
+     * @param levelFilesSet the tiles served
+     */
+    public ReactiveTileController(LevelFilesSet levelFilesSet)
+    {
+        this.levelFilesSet = levelFilesSet;
+    }
+
+    /**
+     * Streams a single tile; 404 if there is no such tile.
+     */
+    @GetMapping("/{level}/{column}/{row}")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getTile(
+            @PathVariable int level, @PathVariable int column,
+            @PathVariable int row)
+    {
+        if(!isValid(level, column, row))
+            return Mono.just(ResponseEntity.badRequest().build());
+        return Mono.fromCallable(
+                () -> levelFilesSet.getTileRegion(level, column, row))
+                .map(region -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .contentLength(region.getSize()).body(read(region)))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Streams the tiles of a viewport, framed; 400 if the viewport is out of
+     * the level or has more than {@link #maxViewportTileNumber} tiles.
+     */
+    @GetMapping("/{level}/tiles")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getTiles(
+            @PathVariable int level, @RequestParam int minColumn,
+            @RequestParam int minRow, @RequestParam int maxColumn,
+            @RequestParam int maxRow)
+    {
+        long columnNumber = (long) maxColumn - minColumn + 1;
+        int rowNumber = maxRow - minRow + 1;
+        if(!isValid(level, minColumn, minRow) ||
+                !isValid(level, maxColumn, maxRow) || columnNumber < 1 ||
+                rowNumber < 1 ||
+                columnNumber * rowNumber > maxViewportTileNumber)
+            return Mono.just(ResponseEntity.badRequest().build());
+        Flux<DataBuffer> tiles = Flux
+                .range(0, (int) columnNumber * rowNumber)
+                .concatMap(i -> readFramed(level, minColumn + i / rowNumber,
+                                           minRow + i % rowNumber), 1);
+        return Mono.just(ResponseEntity.ok().contentType(
+                MediaType.APPLICATION_OCTET_STREAM).body(tiles));
+    }
+
+    /**
+     * Returns true if the tile is within the served levels.
+     */
+    private boolean isValid(int level, int column, int row)
+    {
+        return level < levelFilesSet.getLevelNumber() &&
+                TileKey.isValid(level, column, row);
+    }
+
+    /**
+     * Returns the frame of a tile of a viewport: its header and its bytes.
+     */
+    private Flux<DataBuffer> readFramed(int level, int column, int row)
+    {
+        return Mono.fromCallable(() -> Optional.ofNullable(
+                levelFilesSet.getTileRegion(level, column, row)))
+                .flatMapMany(region ->
+                {
+                    int size = region.isPresent() ? region.get().getSize() :
+                            LookupFile.absentTileSize;
+                    DataBuffer header = bufferFactory.wrap(
+                            ByteBuffer.allocate(frameHeaderBytes)
+                                    .putInt(column).putInt(row).putInt(size)
+                                    .array());
+                    return region.isPresent() ? Flux.concat(
+                            Mono.just(header), read(region.get())) :
+                            Flux.just(header);
+                });
+    }
+
+    /**
+     * Reads the bytes of a tile: at once for the tiles held in memory, or in
+     * chunks from the TileDataFile, each one read upon the client's demand.
+     * The chunks are read through the TileDataFile's shared asynchronous
+     * channel ({@link LevelFilesSet.TileRegion#readAsync}), so no file is
+     * opened per tile.
+     */
+    private Flux<DataBuffer> read(LevelFilesSet.TileRegion region)
+    {
+        if(region.getData() != null)
+            return Flux.just(bufferFactory.wrap(region.getData()));
+        int chunkNumber = (region.getSize() + chunkSize - 1) / chunkSize;
+        return Flux.range(0, chunkNumber)
+                .concatMap(chunk -> readChunk(region, chunk), 1);
+    }
+
+    /**
+     * Reads a chunk of a tile of the TileDataFile, once subscribed.
+     */
+    private Mono<DataBuffer> readChunk(LevelFilesSet.TileRegion region,
+                                       int chunk)
+    {
+        int offset = chunk * chunkSize;
+        int length = Math.min(chunkSize, region.getSize() - offset);
+        return Mono.defer(() -> Mono.fromFuture(
+                region.readAsync(offset, length))).map(bufferFactory::wrap);
+    }
+}
@@ -0,0 +1,288 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JMH benchmark of the tile retrieval, comparing the storage formats
+ * (SimpleFormat, ImageBlock and LevelFilesSet) per level, batch size and
+ * access pattern. Replaces the timings of {@link PerformanceTests}.
+ *
+ * The backends are opened, and the requested tiles are drawn, once per trial
+ * outside the measured code; before measuring, the trial checks that every
+ * backend returns byte-identical tiles. The dataset paths default to {@link
+ * MyFileNames} and can be overridden by the benchmark.tileDatasetPath,
+ * benchmark.imageBlockPath, benchmark.lookupFilePath and
+ * benchmark.tileDataFilePath system properties. The LevelFiles of the
+ * benchmarked levels must already exist.
+ *
+ * Run with the GC profiler for the allocation rates: {@code java -cp ...
+ * RetrievalBenchmark}, or through the JMH command line with {@code -prof gc}.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+@State(Scope.Benchmark) @BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS) @Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1) @Fork(2)
+public class RetrievalBenchmark
+{
+    /** the number of the batches drawn per trial, requested in turn */
+    private final static int batchNumber = 4096;
+    /** the number of the tiles compared among the backends per trial */
+    private final static int verifiedTileNumber = 256;
+    /** the seed of the drawn tiles, the same for all the backends */
+    private final static long seed = 42;
+
+    /** the level of the requested tiles */
+    @Param({"5", "10"}) public int level;
+    /** the number of the tiles per benchmarked operation */
+    @Param({"1", "16", "64"}) public int batchSize;
+    /** the order of the requested tiles */
+    @Param({"RANDOM", "SEQUENTIAL", "VIEWPORT"}) public AccessPattern
+            accessPattern;
+    /** the storage format */
+    @Param({"SIMPLE_FORMAT", "IMAGE_BLOCK", "LEVEL_FILES_SET"}) public Backend
+            backend;
+
+    /** the file names of the datasets */
+    private FileNames fileNames;
+    /** the path of the ImageBlock dataset */
+    private String imageBlockPath;
+    /** the LevelFilesSet of the datasets */
+    private LevelFilesSet levelFilesSet;
+    /** the columns of the tiles of each batch */
+    private int[][] columns;
+    /** the rows of the tiles of each batch */
+    private int[][] rows;
+    /** the next batch to be requested */
+    private int nextBatch;
+
+    /**
+     * The order of the requested tiles.
+     */
+    public enum AccessPattern
+    {
+        /** tiles drawn uniformly from the whole level */
+        RANDOM
+                {
+                    @Override void draw(SplittableRandom random, int level,
+                                        int[] columns, int[] rows)
+                    {
+                        int
+                                columnNumber =
+                                Tile.computeColumnTotalNumber(level);
+                        for(int i = 0; i < columns.length; i++)
+                        {
+                            columns[i] = random.nextInt(columnNumber);
+                            rows[i] = random.nextInt(columnNumber);
+                        }
+                    }
+                },
+        /** consecutive tiles of a row, from a random tile on */
+        SEQUENTIAL
+                {
+                    @Override void draw(SplittableRandom random, int level,
+                                        int[] columns, int[] rows)
+                    {
+                        int
+                                columnNumber =
+                                Tile.computeColumnTotalNumber(level);
+                        long first = random.nextLong(
+                                Tile.computeExpectedTileNumber(level));
+                        for(int i = 0; i < columns.length; i++)
+                        {
+                            long index = (first + i) %
+                                    Tile.computeExpectedTileNumber(level);
+                            rows[i] = (int) (index / columnNumber);
+                            columns[i] = (int) (index % columnNumber);
+                        }
+                    }
+                },
+        /** the tiles of a square viewport around a random tile */
+        VIEWPORT
+                {
+                    @Override void draw(SplittableRandom random, int level,
+                                        int[] columns, int[] rows)
+                    {
+                        int
+                                columnNumber =
+                                Tile.computeColumnTotalNumber(level);
+                        int width =
+                                (int) Math.ceil(Math.sqrt(columns.length));
+                        int minColumn = random.nextInt(columnNumber);
+                        int minRow = random.nextInt(columnNumber);
+                        for(int i = 0; i < columns.length; i++)
+                        {
+                            columns[i] =
+                                    (minColumn + i % width) % columnNumber;
+                            rows[i] = (minRow + i / width) % columnNumber;
+                        }
+                    }
+                };
+
+        /**
+         * Fills the columns and the rows of a batch.
+         */
+        abstract void draw(SplittableRandom random, int level, int[] columns,
+                           int[] rows);
+    }
+
+    /**
+     * The storage format that the tiles are read from.
+     */
+    public enum Backend
+    {
+        /** a file per tile ({@link Tile#getInstance}) */
+        SIMPLE_FORMAT
+                {
+                    @Override Tile getTile(RetrievalBenchmark benchmark,
+                                           int level, int column, int row)
+                            throws IOException
+                    {
+                        return Tile.getInstance(benchmark.fileNames
+                                                        .getTileName(level,
+                                                                     column,
+                                                                     row));
+                    }
+                },
+        /** the {@link ImageBlock} directories */
+        IMAGE_BLOCK
+                {
+                    @Override Tile getTile(RetrievalBenchmark benchmark,
+                                           int level, int column, int row)
+                            throws IOException
+                    {
+                        return ImageBlock.getTile(benchmark.imageBlockPath,
+                                                  level, column, row);
+                    }
+                },
+        /** the {@link LevelFilesSet} */
+        LEVEL_FILES_SET
+                {
+                    @Override Tile getTile(RetrievalBenchmark benchmark,
+                                           int level, int column, int row)
+                            throws IOException
+                    {
+                        return benchmark.levelFilesSet.getTile(level, column,
+                                                               row);
+                    }
+                };
+
+        /**
+         * Reads a tile from the backend.
+         */
+        abstract Tile getTile(RetrievalBenchmark benchmark, int level,
+                              int column, int row) throws IOException;
+    }
+
+    /**
+     * Opens the backends, draws the requested tiles and checks that the
+     * backends agree on them.
+     */
+    @Setup(Level.Trial) public void setUp() throws IOException
+    {
+        fileNames = new FileNames.Builder(
+                System.getProperty("benchmark.tileDatasetPath",
+                                   MyFileNames.TileDatasetPath.getFileName()),
+                System.getProperty("benchmark.lookupFilePath",
+                                   MyFileNames.LookupFilePath.getFileName()),
+                System.getProperty("benchmark.tileDataFilePath",
+                                   MyFileNames.TileDataFilePath.getFileName()))
+                .build();
+        imageBlockPath = System.getProperty(
+                "benchmark.imageBlockPath",
+                MyFileNames.ImageBlockPath.getFileName());
+        levelFilesSet = new LevelFilesSet.Builder(fileNames).build();
+        SplittableRandom random = new SplittableRandom(seed);
+        columns = new int[batchNumber][batchSize];
+        rows = new int[batchNumber][batchSize];
+        for(int i = 0; i < batchNumber; i++)
+        {
+            accessPattern.draw(random, level, columns[i], rows[i]);
+        }
+        nextBatch = 0;
+        verifyBackends();
+    }
+
+    /**
+     * Checks that all the backends return the same bytes for the first of
+     * the requested tiles.
+     */
+    private void verifyBackends() throws IOException
+    {
+        int tileNumber = Math.min(verifiedTileNumber, batchNumber * batchSize);
+        for(int i = 0; i < tileNumber; i++)
+        {
+            int column = columns[i / batchSize][i % batchSize];
+            int row = rows[i / batchSize][i % batchSize];
+            byte[] expected = getData(Backend.LEVEL_FILES_SET, column, row);
+            for(Backend other : Backend.values())
+            {
+                if(!Arrays.equals(expected, getData(other, column, row)))
+                    throw new IllegalStateException(
+                            other + " differs from " +
+                                    Backend.LEVEL_FILES_SET + " for the tile " +
+                                    Tile.computeName(level, column, row));
+            }
+        }
+    }
+
+    private byte[] getData(Backend backend, int column, int row)
+            throws IOException
+    {
+        Tile tile = backend.getTile(this, level, column, row);
+        return tile == null ? null : tile.getData();
+    }
+
+    @TearDown(Level.Trial) public void tearDown() throws IOException
+    {
+        levelFilesSet.close();
+    }
+
+    /**
+     * Reads the next batch of tiles.
+     */
+    @Benchmark public void getTiles(Blackhole blackhole) throws IOException
+    {
+        int batch = nextBatch;
+        nextBatch = (batch + 1) % batchNumber;
+        int[] batchColumns = columns[batch];
+        int[] batchRows = rows[batch];
+        for(int i = 0; i < batchSize; i++)
+        {
+            blackhole.consume(backend.getTile(this, level, batchColumns[i],
+                                              batchRows[i]));
+        }
+    }
+
+    /**
+     * Runs the benchmark with the GC profiler, which reports the allocation
+     * rate per operation.
+     */
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                           .include(RetrievalBenchmark.class.getSimpleName())
+                           .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,379 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A deterministic synthetic tile pyramid, for benchmarking without a real
+ * tile dataset. Writes the levels 0 to maxLevel to a directory in the
+ * structure that the rest of the code expects
+ * ({@code level/level_column_row.jpg}).
+ *
+ * The sizes of the tiles follow a log-normal distribution (given by its
+ * median and sigma, clamped to a minimum and a maximum), as the sizes of
+ * real JPEG tiles roughly do. A share of the tiles are the same blank tile
+ * (e.g. sea), and a share of the tiles are missing. The content of a tile
+ * depends only on the seed and the tile's coordinates, so the same pyramid is
+ * written whatever the number of threads, and any tile can be computed again
+ * ({@link #getTile}) without reading it.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class SyntheticPyramid
+{
+    /** the directory of the pyramid */
+    private final String directoryPath;
+    /** the last level of the pyramid */
+    private final int maxLevel;
+    /** the seed of the content */
+    private final long seed;
+    /** the median size (bytes) of the tiles */
+    private final int medianTileBytes;
+    /** the sigma of the logarithm of the tiles' sizes */
+    private final double tileBytesSigma;
+    /** the minimum size (bytes) of a tile */
+    private final int minTileBytes;
+    /** the maximum size (bytes) of a tile */
+    private final int maxTileBytes;
+    /** the share of the tiles that are the blank tile */
+    private final double blankTileShare;
+    /** the share of the tiles that are missing */
+    private final double missingTileShare;
+    /** the number of the writing threads */
+    private final int threads;
+    /** the blank tile */
+    private final byte[] blankTile;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private SyntheticPyramid()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private SyntheticPyramid(Builder builder)
+    {
+        directoryPath = builder.directoryPath;
+        maxLevel = builder.maxLevel;
+        seed = builder.seed;
+        medianTileBytes = builder.medianTileBytes;
+        tileBytesSigma = builder.tileBytesSigma;
+        minTileBytes = builder.minTileBytes;
+        maxTileBytes = builder.maxTileBytes;
+        blankTileShare = builder.blankTileShare;
+        missingTileShare = builder.missingTileShare;
+        threads = builder.threads;
+        blankTile = newContent(new SplittableRandom(seed), medianTileBytes / 4);
+    }
+
+    /**
+     * Provides the Builder pattern for the object initialization.
+     */
+    public static class Builder
+    {
+        /** the directory of the pyramid */
+        private final String directoryPath;
+        /** the last level of the pyramid */
+        private final int maxLevel;
+        /** the seed of the content */
+        private long seed = 1;
+        /** the median size (bytes) of the tiles */
+        private int medianTileBytes = 12 * 1024;
+        /** the sigma of the logarithm of the tiles' sizes */
+        private double tileBytesSigma = 0.6;
+        /** the minimum size (bytes) of a tile */
+        private int minTileBytes = 256;
+        /** the maximum size (bytes) of a tile */
+        private int maxTileBytes = 256 * 1024;
+        /** the share of the tiles that are the blank tile */
+        private double blankTileShare = 0.1;
+        /** the share of the tiles that are missing */
+        private double missingTileShare = 0.01;
+        /** the number of the writing threads */
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param directoryPath the directory that the pyramid is written to
+         * @param maxLevel      the last level of the pyramid
+         */
+        public Builder(String directoryPath, int maxLevel)
+        {
+            if(maxLevel < 0 || maxLevel > TileKey.maxLevel)
+                throw new IllegalArgumentException("maxLevel: " + maxLevel);
+            this.directoryPath = directoryPath;
+            this.maxLevel = maxLevel;
+        }
+
+        /**
+         * Sets the seed of the content. The default value is 1.
+         */
+        public Builder seed(long seed)
+        {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Sets the log-normal distribution of the tiles' sizes. The default
+         * values are a median of 12KB and a sigma of 0.6.
+         *
+         * @param medianTileBytes the median size (bytes) of the tiles
+         * @param tileBytesSigma  the standard deviation of the logarithm of
+         *                        the tiles' sizes
+         */
+        public Builder tileBytes(int medianTileBytes, double tileBytesSigma)
+        {
+            if(medianTileBytes < 4 || tileBytesSigma < 0)
+                throw new IllegalArgumentException(
+                        "medianTileBytes: " + medianTileBytes +
+                                ", tileBytesSigma: " + tileBytesSigma);
+            this.medianTileBytes = medianTileBytes;
+            this.tileBytesSigma = tileBytesSigma;
+            return this;
+        }
+
+        /**
+         * Sets the limits of the tiles' sizes. The default values are 256
+         * bytes and 256KB.
+         */
+        public Builder tileBytesLimits(int minTileBytes, int maxTileBytes)
+        {
+            if(minTileBytes < 4 || maxTileBytes < minTileBytes)
+                throw new IllegalArgumentException(
+                        "minTileBytes: " + minTileBytes + ", maxTileBytes: " +
+                                maxTileBytes);
+            this.minTileBytes = minTileBytes;
+            this.maxTileBytes = maxTileBytes;
+            return this;
+        }
+
+        /**
+         * Sets the share of the tiles that are the blank tile. The default
+         * value is 0.1.
+         */
+        public Builder blankTileShare(double blankTileShare)
+        {
+            this.blankTileShare = blankTileShare;
+            return this;
+        }
+
+        /**
+         * Sets the share of the tiles that are missing. The default value is
+         * 0.01.
+         */
+        public Builder missingTileShare(double missingTileShare)
+        {
+            this.missingTileShare = missingTileShare;
+            return this;
+        }
+
+        /**
+         * Sets the number of the writing threads. The default value is the
+         * number of the processors.
+         */
+        public Builder threads(int threads)
+        {
+            if(threads < 1)
+                throw new IllegalArgumentException("threads: " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Initializes the object.
+         */
+        public SyntheticPyramid build()
+        {
+            if(blankTileShare < 0 || missingTileShare < 0 ||
+                    blankTileShare + missingTileShare > 1)
+                throw new IllegalArgumentException(
+                        "blankTileShare: " + blankTileShare +
+                                ", missingTileShare: " + missingTileShare);
+            return new SyntheticPyramid(this);
+        }
+    }
+
+    /**
+     * Writes the pyramid, level by level; each level's columns are shared
+     * among the threads. Existing tiles are overwritten, and the existing
+     * files of the missing tiles are deleted.
+     *
+     * @return the number of the bytes written
+     */
+    public long generate() throws IOException
+    {
+        AtomicLong writtenBytes = new AtomicLong();
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for(int level = 0; level <= maxLevel; level++)
+            {
+                String levelPath = directoryPath + File.separator + level;
+                FileUtilities.createDir(levelPath);
+                int columnNumber = Tile.computeColumnTotalNumber(level);
+                List<Future<?>> columns = new ArrayList<>(columnNumber);
+                for(int column = 0; column < columnNumber; column++)
+                {
+                    int tileLevel = level, tileColumn = column;
+                    columns.add(writers.submit(() -> writtenBytes.addAndGet(
+                            writeColumn(levelPath, tileLevel, tileColumn))));
+                }
+                for(Future<?> column : columns)
+                {
+                    Utilities.getResult(column);
+                }
+                System.out.println("Generated the level: " + level);
+            }
+        }
+        finally
+        {
+            writers.shutdownNow();
+        }
+        return writtenBytes.get();
+    }
+
+    /**
+     * Writes the tiles of a column of a level.
+     *
+     * @return the number of the bytes written
+     */
+    private long writeColumn(String levelPath, int level, int column)
+            throws IOException
+    {
+        StringBuilder tilePath = new StringBuilder(levelPath.length() + 32)
+                .append(levelPath).append(File.separatorChar);
+        long writtenBytes = 0;
+        int rowNumber = Tile.computeColumnTotalNumber(level);
+        for(int row = 0; row < rowNumber; row++)
+        {
+            byte[] tile = getTile(level, column, row);
+            tilePath.setLength(levelPath.length() + 1);
+            String fileName = TileKey.appendFileName(tilePath, level, column,
+                                                     row).toString();
+            FileUtilities.deleteFile(fileName);
+            if(tile == null) continue;
+            FileUtilities.writeToFile(fileName, tile, 0);
+            writtenBytes += tile.length;
+        }
+        return writtenBytes;
+    }
+
+    /**
+     * Returns the content of a tile, the same as written by {@link
+     * #generate()}.
+     *
+     * @param level  the level of the tile
+     * @param column the column of the tile
+     * @param row    the row of the tile
+     *
+     * @return the bytes of the tile, the blank tile, or null for a missing
+     * tile
+     */
+    public byte[] getTile(int level, int column, int row)
+    {
+        if(!TileKey.isValid(level, column, row) || level > maxLevel)
+            throw new IllegalArgumentException(
+                    "level: " + level + ", column: " + column + ", row: " +
+                            row);
+        SplittableRandom random = new SplittableRandom(
+                seed ^ (TileKey.pack(level, column, row) + 1) *
+                        0x9E3779B97F4A7C15L);
+        double kind = random.nextDouble();
+        if(kind < missingTileShare) return null;
+        if(kind < missingTileShare + blankTileShare) return blankTile;
+        return newContent(random, nextTileBytes(random));
+    }
+
+    /**
+     * Draws the size of a tile from the log-normal distribution.
+     */
+    private int nextTileBytes(SplittableRandom random)
+    {
+        double bytes = medianTileBytes * Math.exp(
+                tileBytesSigma * Utilities.nextGaussian(random));
+        return (int) Math.max(minTileBytes, Math.min(maxTileBytes, bytes));
+    }
+
+    /**
+     * Returns random bytes framed by the JPEG start and end markers, so that
+     * they are recognized as a JPEG file by their type and size but, like a
+     * compressed image, not compressible.
+     */
+    private static byte[] newContent(SplittableRandom random, int size)
+    {
+        byte[] content = new byte[Math.max(4, size)];
+        for(int i = 2; i < content.length - 2; i += 8)
+        {
+            long bits = random.nextLong();
+            for(int j = i; j < Math.min(i + 8, content.length - 2); j++)
+            {
+                content[j] = (byte) bits;
+                bits >>>= 8;
+            }
+        }
+        content[0] = (byte) 0xFF;
+        content[1] = (byte) 0xD8;
+        content[content.length - 2] = (byte) 0xFF;
+        content[content.length - 1] = (byte) 0xD9;
+        return content;
+    }
+
+    /** Returns the blank tile of the pyramid. */
+    public byte[] getBlankTile()
+    {
+        return blankTile.clone();
+    }
+
+    /** Returns the directory of the pyramid. */
+    public String getDirectoryPath()
+    {
+        return directoryPath;
+    }
+
+    /** Returns the last level of the pyramid. */
+    public int getMaxLevel()
+    {
+        return maxLevel;
+    }
+
+    @Override public String toString()
+    {
+        return "SyntheticPyramid of the levels 0-" + maxLevel + " at " +
+                directoryPath + " (seed: " + seed + ")";
+    }
+
+    /**
+     * Writes a synthetic pyramid.
+     *
+     * @param args the directory, the last level and optionally the seed
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2)
+        {
+            System.err.println("Usage: SyntheticPyramid <directoryPath> " +
+                                       "<maxLevel> [seed]");
+            System.exit(1);
+        }
+        SyntheticPyramid
+                pyramid =
+                new Builder(args[0], Integer.parseInt(args[1]))
+                        .seed(args.length > 2 ? Long.parseLong(args[2]) : 1)
+                        .build();
+        long start = System.nanoTime();
+        long writtenBytes = pyramid.generate();
+        System.out.println(pyramid + ": " + writtenBytes + " bytes in " +
+                                   (System.nanoTime() - start) / 1000000 +
+                                   " ms");
+    }
+}
@@ -53,7 +53,13 @@ public final class Tile
     /** @return the fileName */
     public String computeFileName()
     {
-        return getLevel() + "_" + getColumn() + "_" + getRow() + ".jpg";
+        return computeName(level, column, row);
+    }
+
+    /** @return the {@link TileKey} of the tile */
+    long getKey()
+    {
+        return TileKey.pack(level, column, row);
     }
 
     /**
@@ -82,9 +88,10 @@ public final class Tile
     {
         try
         {
-            String name = computeName(filePath);
-            return new Builder(getData(filePath), computeLevel(name),
-                               computeColumn(name), computeRow(name))
+            long key = TileKey.parse(filePath);
+            if(key == TileKey.invalidKey) throw new IllegalArgumentException();
+            return new Builder(getData(filePath), TileKey.level(key),
+                               TileKey.column(key), TileKey.row(key))
                     .filePath(filePath).build();
         }
         catch(Exception e)
@@ -109,7 +116,7 @@ public final class Tile
      */
     static long computeExpectedTileNumber(int level)
     {
-        return (long) Math.pow(4, level);
+        return 1L << 2 * level;
     }
 
     /**
@@ -173,24 +180,22 @@ public final class Tile
      * /Users/mkotsollaris/Desktop/tile_dataset/2/2_0_1.jpg will return
      * '2_0_1.jpg'.
      *
-     * FIXME won't work for mac, linux etc. (path hardcoded)! Test
+     * Both '/' and '\' are accepted as separators, whatever the platform.
      *
      * @param filePath the filePath (e.g.: /Users/mkotsollaris/Desktop/tile_dataset/2/2_0_1.jpg)
      */
     static String computeName(String filePath)
     {
-        String[]
-                strArray =
-                (System.getProperty("os.name")
-                        .contains(MyFileNames.Windows.getFileName())) ?
-                        filePath.split("\\\\") : filePath.split("/");
-
-        return strArray[strArray.length - 1].split("\\.")[0];
+        int start = Math.max(filePath.lastIndexOf('/'),
+                             filePath.lastIndexOf('\\')) + 1;
+        int end = filePath.indexOf('.', start);
+        return filePath.substring(start, end < 0 ? filePath.length() : end);
     }
 
     static String computeName(int level, int column, int row)
     {
-        return level + "_" + column + "_" + row + ".jpg";
+        return TileKey.appendFileName(new StringBuilder(24), level, column,
+                                      row).toString();
     }
 
     /**
@@ -220,14 +225,8 @@ public final class Tile
      */
     static int computeLevel(String fileName)
     {
-        try
-        {
-            return Integer.parseInt(fileName.split("_")[0]);
-        }
-        catch(Exception e)
-        {
-            return -1;
-        }
+        long key = TileKey.parse(fileName);
+        return key == TileKey.invalidKey ? -1 : TileKey.level(key);
     }
 
     /**
@@ -238,7 +237,7 @@ public final class Tile
      */
     static int computeColumn(String fileName)
     {
-        return Integer.parseInt(fileName.split("_")[1]);
+        return TileKey.column(parseValid(fileName));
     }
 
     /**
@@ -252,7 +251,21 @@ public final class Tile
      */
     static int computeRow(String fileName)
     {
-        return Integer.parseInt((fileName.split("_")[2]));
+        return TileKey.row(parseValid(fileName));
+    }
+
+    /**
+     * Returns the {@link TileKey} of the name.
+     *
+     * @throws IllegalArgumentException if the name is not a valid tile name
+     */
+    private static long parseValid(String fileName)
+    {
+        long key = TileKey.parse(fileName);
+        if(key == TileKey.invalidKey)
+            throw new IllegalArgumentException(
+                    "Not a valid tile name: " + fileName);
+        return key;
     }
 
     /**
@@ -282,7 +295,7 @@ public final class Tile
      */
     public static int computeColumnTotalNumber(int level)
     {
-        return (int) Math.pow(2, level);
+        return TileKey.columnNumber(level);
     }
 
     private static Comparator<Tile> tileLengthComparator = (tile1, tile2) -> {
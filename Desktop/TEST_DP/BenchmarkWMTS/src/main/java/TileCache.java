@@ -0,0 +1,267 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-heap cache of tiles' bytes, bounded by the total number of the cached
+ * bytes, keyed by the level, column and row of the tile.
+ *
+ * The cache follows the W-TinyLFU policy: a new tile enters a small LRU window
+ * (1% of the capacity); the tiles leaving the window are admitted to the main
+ * LRU area only if they have been requested more often recently than the
+ * tiles they would evict ({@link FrequencySketch}). That keeps one-off scans
+ * (e.g. a crawler walking a whole level) from flushing the popular tiles.
+ *
+ * The cache is split into independently locked segments, so that concurrent
+ * readers do not contend on a global lock; the frequency sketch is shared and
+ * updated without locking.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class TileCache
+{
+    /** the number of the segments, a power of two */
+    private final static int segmentNumber = 16;
+    /** the share of the capacity given to the admission window */
+    private final static double windowShare = 0.01;
+    /** the average tile size assumed for sizing the frequency sketch */
+    private final static int averageTileSize = 16 * 1024;
+    /** the maximum number of the cached bytes */
+    private final long maxBytes;
+    /** the segments of the cache */
+    private final Segment[] segments;
+    /** the recent request frequency of the tiles */
+    private final FrequencySketch sketch;
+    /** the number of the requests served by the cache */
+    private final LongAdder hitCount = new LongAdder();
+    /** the number of the requests not found in the cache */
+    private final LongAdder missCount = new LongAdder();
+    /** the number of the tiles evicted or rejected by the cache */
+    private final LongAdder evictionCount = new LongAdder();
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private TileCache()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxBytes the maximum number of the cached bytes
+     */
+    TileCache(long maxBytes)
+    {
+        if(maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes: " + maxBytes);
+        this.maxBytes = maxBytes;
+        segments = new Segment[segmentNumber];
+        for(int i = 0; i < segmentNumber; i++)
+        {
+            segments[i] = new Segment(maxBytes / segmentNumber);
+        }
+        sketch = new FrequencySketch(maxBytes / averageTileSize);
+    }
+
+    /**
+     * Returns the cached bytes of the tile, or null if the tile is not
+     * cached. The returned array is shared and must not be modified.
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    byte[] get(int level, int column, int row)
+    {
+        long key = TileKey.pack(level, column, row);
+        sketch.increment(key);
+        byte[] data = segment(key).get(key);
+        if(data == null) missCount.increment();
+        else hitCount.increment();
+        return data;
+    }
+
+    /**
+     * Offers the bytes of a tile to the cache, which may keep them or not
+     * depending on the admission policy.
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     * @param data   the bytes of the tile; must not be modified afterwards
+     */
+    void put(int level, int column, int row, byte[] data)
+    {
+        long key = TileKey.pack(level, column, row);
+        segment(key).put(key, data);
+    }
+
+    /**
+     * Removes the tile from the cache (e.g. after the tile has been updated).
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    void invalidate(int level, int column, int row)
+    {
+        long key = TileKey.pack(level, column, row);
+        segment(key).remove(key);
+    }
+
+    /** Returns the number of the requests served by the cache. */
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    /** Returns the number of the requests not found in the cache. */
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    /** Returns the number of the tiles evicted or rejected by the cache. */
+    public long getEvictionCount()
+    {
+        return evictionCount.sum();
+    }
+
+    /** Returns the number of the currently cached bytes. */
+    public long getCachedBytes()
+    {
+        long cachedBytes = 0;
+        for(Segment segment : segments)
+        {
+            synchronized(segment)
+            {
+                cachedBytes += segment.windowBytes + segment.mainBytes;
+            }
+        }
+        return cachedBytes;
+    }
+
+    /** Returns the maximum number of the cached bytes. */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    private Segment segment(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 60) & (segmentNumber - 1)];
+    }
+
+    @Override public String toString()
+    {
+        return "TileCache hits: " + getHitCount() + ", misses: " +
+                getMissCount() + ", evictions: " + getEvictionCount() +
+                ", bytes: " + getCachedBytes() + "/" + maxBytes;
+    }
+
+    /**
+     * A part of the cache with its own lock and its own share of the
+     * capacity.
+     */
+    private final class Segment
+    {
+        /** the admission window, in access order */
+        private final LinkedHashMap<Long, byte[]>
+                window =
+                new LinkedHashMap<>(16, 0.75f, true);
+        /** the main area, in access order */
+        private final LinkedHashMap<Long, byte[]>
+                main =
+                new LinkedHashMap<>(16, 0.75f, true);
+        /** the capacity (bytes) of the window */
+        private final long windowCapacity;
+        /** the capacity (bytes) of the main area */
+        private final long mainCapacity;
+        /** the cached bytes of the window */
+        private long windowBytes;
+        /** the cached bytes of the main area */
+        private long mainBytes;
+
+        Segment(long capacity)
+        {
+            windowCapacity = Math.max(1, (long) (capacity * windowShare));
+            mainCapacity = capacity - windowCapacity;
+        }
+
+        synchronized byte[] get(long key)
+        {
+            byte[] data = window.get(key);
+            return data != null ? data : main.get(key);
+        }
+
+        synchronized void put(long key, byte[] data)
+        {
+            if(data.length > mainCapacity)
+            {
+                evictionCount.increment();
+                return;
+            }
+            byte[] previous = main.remove(key);
+            if(previous != null) mainBytes -= previous.length;
+            previous = window.put(key, data);
+            if(previous != null) windowBytes -= previous.length;
+            windowBytes += data.length;
+            Iterator<Map.Entry<Long, byte[]>>
+                    candidates =
+                    window.entrySet().iterator();
+            while(windowBytes > windowCapacity)
+            {
+                Map.Entry<Long, byte[]> candidate = candidates.next();
+                candidates.remove();
+                windowBytes -= candidate.getValue().length;
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        synchronized void remove(long key)
+        {
+            byte[] data = window.remove(key);
+            if(data != null) windowBytes -= data.length;
+            data = main.remove(key);
+            if(data != null) mainBytes -= data.length;
+        }
+
+        /**
+         * Moves a tile leaving the window to the main area, if it is
+         * requested more often than the tiles that it would evict.
+         */
+        private void admit(long key, byte[] data)
+        {
+            int candidateFrequency = sketch.frequency(key);
+            Iterator<Map.Entry<Long, byte[]>>
+                    victims =
+                    main.entrySet().iterator();
+            long freedBytes = 0;
+            int victimNumber = 0;
+            while(mainBytes - freedBytes + data.length > mainCapacity)
+            {
+                Map.Entry<Long, byte[]> victim = victims.next();
+                if(candidateFrequency <= sketch.frequency(victim.getKey()))
+                {
+                    evictionCount.increment();
+                    return;
+                }
+                freedBytes += victim.getValue().length;
+                victimNumber++;
+            }
+            victims = main.entrySet().iterator();
+            for(int i = 0; i < victimNumber; i++)
+            {
+                victims.next();
+                victims.remove();
+                evictionCount.increment();
+            }
+            mainBytes -= freedBytes;
+            main.put(key, data);
+            mainBytes += data.length;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * A single, immutable file holding all the levels of a tile dataset, as an
+ * alternative to the two files per level of a {@link LevelFilesSet}. It is
+ * created from existing LevelFiles with {@link #convert}.
+ *
+ * File format (big-endian): a header of {@link #headerSize} bytes holding the
+ * magic number, the format version, the number of the levels and a directory
+ * entry per level; followed by the sections of each level, every one of them
+ * aligned to {@link #sectionAlignment} bytes:
+ * <ul>
+ * <li>the index: the records of the level's LookupFile, as they are;</li>
+ * <li>the data: the level's TileDataFile, as it is (the positions of the
+ * index are relative to the start of the section);</li>
+ * <li>the presence bitmap, if the level has one;</li>
+ * <li>the blank tile, if the level has one.</li>
+ * </ul>
+ *
+ * The indexes are mapped into memory when the container is opened, and the
+ * tiles are read with positional reads of a single shared channel.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class TileContainer implements TileSource
+{
+    /** the magic number at the start of the file ("WMTSPACK") */
+    private final static long magic = 0x574D54535041434BL;
+    /** the version of the file format */
+    private final static int formatVersion = 1;
+    /** the size (bytes) of the header */
+    private final static int headerSize = 4096;
+    /** the alignment (bytes) of the sections, a multiple of the page size */
+    private final static int sectionAlignment = 4096;
+    /** the size (bytes) of a level's directory entry */
+    private final static int directoryEntrySize = 80;
+    /** the flag of the levels that have a presence bitmap */
+    private final static int presenceFlag = 1;
+    /** the flag of the levels that have a blank tile */
+    private final static int blankTileFlag = 2;
+    /**
+     * the size (bytes) of each memory mapping of an index; a multiple of the
+     * record size so that a record never spans two mappings
+     */
+    private final static long mappingSize =
+            (Integer.MAX_VALUE / LookupFile.recordAllocationBytes()) *
+                    LookupFile.recordAllocationBytes();
+    /** the path of the file */
+    private final String filePath;
+    /** the channel used for reading the tiles, shared by all the readers */
+    private final FileChannel channel;
+    /** the levels of the container */
+    private final Level[] levels;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private TileContainer()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Opens the container and maps the indexes of its levels.
+     */
+    private TileContainer(String filePath) throws IOException
+    {
+        this.filePath = filePath;
+        channel = FileChannel.open(Paths.get(filePath),
+                                   StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            FileUtilities.readFully(channel, header, 0);
+            header.flip();
+            if(header.getLong() != magic)
+                throw new IOException("Not a tile container: " + filePath);
+            int version = header.getInt();
+            if(version != formatVersion)
+                throw new IOException("Unsupported tile container version: " +
+                                              version + " (" + filePath + ")");
+            levels = new Level[header.getInt()];
+            for(int i = 0; i < levels.length; i++)
+            {
+                levels[i] = readLevel(header);
+            }
+        }
+        catch(IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a container file.
+     *
+     * @param filePath the path of the container
+     */
+    public static TileContainer getInstance(String filePath)
+            throws IOException
+    {
+        return new TileContainer(filePath);
+    }
+
+    /**
+     * Reads a directory entry from the header and loads the level's index,
+     * presence and blank tile.
+     */
+    private Level readLevel(ByteBuffer header) throws IOException
+    {
+        int level = header.getInt();
+        TileLayout layout = TileLayout.values()[header.getInt()];
+        int flags = header.getInt();
+        header.getInt();
+        long indexOffset = header.getLong();
+        long indexLength = header.getLong();
+        long dataOffset = header.getLong();
+        header.getLong();
+        long presenceOffset = header.getLong();
+        long presenceLength = header.getLong();
+        long blankTileOffset = header.getLong();
+        long blankTileLength = header.getLong();
+        BitSet presence = (flags & presenceFlag) == 0 ? null :
+                LevelMetadata.toPresence(
+                        readBytes(presenceOffset, (int) presenceLength));
+        byte[] blankTile = (flags & blankTileFlag) == 0 ? null :
+                readBytes(blankTileOffset, (int) blankTileLength);
+        return new Level(level, layout,
+                         FileUtilities.mapRegion(channel, indexOffset,
+                                                 indexLength, mappingSize),
+                         dataOffset, presence, blankTile);
+    }
+
+    private byte[] readBytes(long position, int length) throws IOException
+    {
+        byte[] bytes = new byte[length];
+        FileUtilities.readFully(channel, ByteBuffer.wrap(bytes), position);
+        return bytes;
+    }
+
+    @Override public int getLevelNumber()
+    {
+        return levels.length;
+    }
+
+    @Override public Tile getTile(int level, int column, int row)
+            throws IOException
+    {
+        Level containerLevel = getLevel(level);
+        long recordPosition = containerLevel.getRecordPosition(column, row);
+        if(!containerLevel.isPresent(recordPosition))
+            return containerLevel.blankTile == null ? null :
+                    new Tile.Builder(containerLevel.blankTile, level, column,
+                                     row).build();
+        byte[] tileData = readBytes(
+                containerLevel.dataOffset +
+                        containerLevel.readPosition(recordPosition),
+                containerLevel.readSize(recordPosition));
+        return new Tile.Builder(tileData, level, column, row).build();
+    }
+
+    /**
+     * Returns a batch of tiles of a level; each tile is read with its own
+     * positional read.
+     */
+    @Override public Tile[] getTiles(int level, int[] columns, int[] rows)
+            throws IOException
+    {
+        if(columns.length != rows.length)
+            throw new IllegalArgumentException(
+                    "columns: " + columns.length + ", rows: " + rows.length);
+        Tile[] tiles = new Tile[columns.length];
+        for(int i = 0; i < columns.length; i++)
+        {
+            tiles[i] = getTile(level, columns[i], rows[i]);
+        }
+        return tiles;
+    }
+
+    @Override public int getTileSize(int level, int column, int row)
+    {
+        Level containerLevel = getLevel(level);
+        long recordPosition = containerLevel.getRecordPosition(column, row);
+        if(!containerLevel.isPresent(recordPosition))
+            return containerLevel.blankTile == null ?
+                    LookupFile.absentTileSize :
+                    containerLevel.blankTile.length;
+        return containerLevel.readSize(recordPosition);
+    }
+
+    @Override public int transferTile(int level, int column, int row,
+                                      WritableByteChannel target)
+            throws IOException
+    {
+        Level containerLevel = getLevel(level);
+        long recordPosition = containerLevel.getRecordPosition(column, row);
+        if(!containerLevel.isPresent(recordPosition))
+        {
+            if(containerLevel.blankTile == null)
+                return LookupFile.absentTileSize;
+            FileUtilities.writeFully(target,
+                                     ByteBuffer.wrap(containerLevel.blankTile));
+            return containerLevel.blankTile.length;
+        }
+        int tileSize = containerLevel.readSize(recordPosition);
+        FileUtilities.transferFully(channel, containerLevel.dataOffset +
+                containerLevel.readPosition(recordPosition), tileSize, target);
+        return tileSize;
+    }
+
+    private Level getLevel(int level)
+    {
+        if(level < 0 || level >= levels.length)
+            throw new IllegalArgumentException("level: " + level);
+        return levels[level];
+    }
+
+    /**
+     * Releases the file; the mapped indexes are released by the garbage
+     * collector.
+     */
+    @Override public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Packs the complete LevelFiles of the levels 0 to maxLevel into a single
+     * container file. The container is written next to its final path and
+     * then renamed, so that a container file is never seen partially
+     * written. Levels that were updated in place should be compacted first
+     * ({@link LevelFilesSet#compact}), since the bytes of the replaced tiles
+     * are copied as well.
+     *
+     * @param fileNames     the {@link FileNames} of the LevelFiles
+     * @param maxLevel      the last level to be packed
+     * @param containerPath the path of the container to be written
+     *
+     * @throws IllegalStateException if the LevelFiles of a level are missing
+     *                               or incomplete
+     */
+    public static void convert(FileNames fileNames, int maxLevel,
+                               String containerPath) throws IOException
+    {
+        if(maxLevel < 0 ||
+                16 + (maxLevel + 1) * directoryEntrySize > headerSize)
+            throw new IllegalArgumentException("maxLevel: " + maxLevel);
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putLong(magic).putInt(formatVersion).putInt(maxLevel + 1);
+        String temporaryPath = containerPath + ".tmp";
+        try(FileChannel target = FileChannel
+                .open(Paths.get(temporaryPath), StandardOpenOption.CREATE,
+                      StandardOpenOption.TRUNCATE_EXISTING,
+                      StandardOpenOption.WRITE))
+        {
+            long position = headerSize;
+            for(int level = 0; level <= maxLevel; level++)
+            {
+                position = convertLevel(fileNames, level, target, position,
+                                        header);
+            }
+            header.flip();
+            FileUtilities.writeFully(target, header, 0);
+            target.force(true);
+        }
+        FileUtilities.moveAtomically(temporaryPath, containerPath);
+    }
+
+    /**
+     * Appends the sections of a level to the container and its directory
+     * entry to the header.
+     *
+     * @return the position after the level's sections
+     */
+    private static long convertLevel(FileNames fileNames, int level,
+                                     FileChannel target, long position,
+                                     ByteBuffer header) throws IOException
+    {
+        String lookupFilePath = fileNames.getLookupFilePath() + level;
+        String tileDataFilePath = fileNames.getTileDataFilePath() + level;
+        LevelMetadata metadata = LevelMetadata.getInstance(lookupFilePath);
+        if(!FileUtilities.exists(lookupFilePath) ||
+                !FileUtilities.exists(tileDataFilePath) ||
+                !metadata.isComplete())
+            throw new IllegalStateException(
+                    "The LevelFiles of the level " + level +
+                            " are not complete");
+        BitSet presence = metadata.loadPresence();
+        byte[] blankTile = metadata.loadBlankTile();
+        int flags = (presence == null ? 0 : presenceFlag) |
+                (blankTile == null ? 0 : blankTileFlag);
+        long indexOffset = position;
+        long indexLength = appendFile(lookupFilePath, target, indexOffset);
+        long dataOffset = align(indexOffset + indexLength);
+        long dataLength = appendFile(tileDataFilePath, target, dataOffset);
+        long presenceOffset = align(dataOffset + dataLength);
+        byte[] presenceBytes = presence == null ? new byte[0] :
+                LevelMetadata.toByteArray(presence);
+        FileUtilities.writeFully(target, ByteBuffer.wrap(presenceBytes),
+                                 presenceOffset);
+        long blankTileOffset = align(presenceOffset + presenceBytes.length);
+        byte[] blankTileBytes = blankTile == null ? new byte[0] : blankTile;
+        FileUtilities.writeFully(target, ByteBuffer.wrap(blankTileBytes),
+                                 blankTileOffset);
+        // the layout is stored by its ordinal, so TileLayout must only grow
+        header.putInt(level).putInt(metadata.getLayout().ordinal())
+                .putInt(flags).putInt(0).putLong(indexOffset)
+                .putLong(indexLength).putLong(dataOffset).putLong(dataLength)
+                .putLong(presenceOffset).putLong(presenceBytes.length)
+                .putLong(blankTileOffset).putLong(blankTileBytes.length);
+        return align(blankTileOffset + blankTileBytes.length);
+    }
+
+    /**
+     * Copies a whole file to the given position of the target.
+     *
+     * @return the length of the copied file
+     */
+    private static long appendFile(String filePath, FileChannel target,
+                                   long position) throws IOException
+    {
+        try(FileChannel source = FileChannel.open(Paths.get(filePath),
+                                                  StandardOpenOption.READ))
+        {
+            long length = source.size();
+            target.position(position);
+            FileUtilities.transferFully(source, 0, length, target);
+            return length;
+        }
+    }
+
+    private static long align(long position)
+    {
+        return (position + sectionAlignment - 1) / sectionAlignment *
+                sectionAlignment;
+    }
+
+    @Override public String toString()
+    {
+        return "TileContainer with the filepath: " + filePath + ", levels: " +
+                levels.length;
+    }
+
+    /**
+     * The index, presence and blank tile of a level of the container.
+     */
+    private final static class Level
+    {
+        /** the level of the tiles */
+        private final int level;
+        /** the order of the index records */
+        private final TileLayout layout;
+        /** the mappings of the index */
+        private final MappedByteBuffer[] index;
+        /** the position of the data section within the file */
+        private final long dataOffset;
+        /** the records of the stored tiles, null if all are stored */
+        private final BitSet presence;
+        /** the tile served in place of the absent tiles, null for none */
+        private final byte[] blankTile;
+
+        Level(int level, TileLayout layout, MappedByteBuffer[] index,
+              long dataOffset, BitSet presence, byte[] blankTile)
+        {
+            this.level = level;
+            this.layout = layout;
+            this.index = index;
+            this.dataOffset = dataOffset;
+            this.presence = presence;
+            this.blankTile = blankTile;
+        }
+
+        /**
+         * Returns the position of the tile's record within the index.
+         */
+        long getRecordPosition(int column, int row)
+        {
+            if(!TileKey.isValid(level, column, row))
+                throw new IllegalArgumentException(
+                        "level: " + level + ", column: " + column +
+                                ", row: " + row);
+            return layout.index(level, column, row) *
+                    LookupFile.recordAllocationBytes();
+        }
+
+        boolean isPresent(long recordPosition)
+        {
+            return presence == null || presence.get(
+                    (int) (recordPosition /
+                            LookupFile.recordAllocationBytes()));
+        }
+
+        long readPosition(long recordPosition)
+        {
+            return index[(int) (recordPosition / mappingSize)]
+                    .getLong((int) (recordPosition % mappingSize));
+        }
+
+        int readSize(long recordPosition)
+        {
+            long sizePosition =
+                    recordPosition + LevelFiles.positionAllocationBytes;
+            return index[(int) (sizePosition / mappingSize)]
+                    .getInt((int) (sizePosition % mappingSize));
+        }
+    }
+}
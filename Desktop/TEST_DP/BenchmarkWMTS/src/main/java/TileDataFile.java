@@ -1,4 +1,12 @@
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class Explanation: Represents a tileDataFile where the tiles' bytes are being
@@ -7,12 +15,22 @@ import java.io.IOException;
  * @author mkotsollaris
  * @since 1.0
  */
-final class TileDataFile
+final class TileDataFile implements Closeable
 {
     /** the level of the tiledata file */
     private int level;
     /** the filename */
     private final String filePath;
+    /**
+     * the channel used for reading the tiles; reads are positional so it is
+     * shared among all the reading threads
+     */
+    private final FileChannel channel;
+    /**
+     * the channel used for the asynchronous reads; opened on the first
+     * asynchronous read
+     */
+    private volatile AsynchronousFileChannel asyncChannel;
 
     // Suppresses default constructor, ensuring non-instantiability.
     private TileDataFile()
@@ -36,6 +54,8 @@ final class TileDataFile
             FileUtilities.deleteFile(filePath);
             FileUtilities.createFile(filePath);
         }
+        channel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.READ);
     }
 
     /**
@@ -46,7 +66,104 @@ final class TileDataFile
      */
     byte[] getTile(long tileDataPos, int tileSize) throws IOException
     {
-        return FileUtilities.readFromFile(filePath, tileDataPos, tileSize);
+        byte[] tileData = new byte[tileSize];
+        FileUtilities.readFully(channel, ByteBuffer.wrap(tileData),
+                                tileDataPos);
+        return tileData;
+    }
+
+    /**
+     * Reads the {@link Tile} from a given position within the file without
+     * blocking the calling thread.
+     *
+     * @param tileDataPos the {@link TileDataFile} position
+     * @param tileSize    the {@link Tile} size
+     *
+     * @return a future completed with the tile's bytes
+     */
+    CompletableFuture<byte[]> getTileAsync(long tileDataPos, int tileSize)
+    {
+        AsynchronousFileChannel asyncChannel;
+        try
+        {
+            asyncChannel = getAsyncChannel();
+        }
+        catch(IOException e)
+        {
+            return FileUtilities.failedFuture(e);
+        }
+        return FileUtilities.readFullyAsync(asyncChannel, ByteBuffer
+                .wrap(new byte[tileSize]), tileDataPos).thenApply(
+                ByteBuffer::array);
+    }
+
+    /**
+     * Returns the asynchronous channel of the file, opening it if needed.
+     */
+    private AsynchronousFileChannel getAsyncChannel() throws IOException
+    {
+        AsynchronousFileChannel asyncChannel = this.asyncChannel;
+        if(asyncChannel != null) return asyncChannel;
+        synchronized(this)
+        {
+            if(this.asyncChannel == null)
+                this.asyncChannel = AsynchronousFileChannel
+                        .open(Paths.get(filePath), StandardOpenOption.READ);
+            return this.asyncChannel;
+        }
+    }
+
+    /**
+     * Appends the tiles to the end of the file and makes them durable.
+     *
+     * @param tiles     the tiles' bytes; the null entries are skipped
+     * @param positions filled with the positions of the appended tiles
+     */
+    void appendTiles(byte[][] tiles, long[] positions) throws IOException
+    {
+        try(FileChannel appendChannel = FileChannel
+                .open(Paths.get(filePath), StandardOpenOption.WRITE))
+        {
+            long fileLength = appendChannel.size();
+            for(int i = 0; i < tiles.length; i++)
+            {
+                if(tiles[i] == null) continue;
+                FileUtilities.writeFully(appendChannel,
+                                         ByteBuffer.wrap(tiles[i]),
+                                         fileLength);
+                positions[i] = fileLength;
+                fileLength += tiles[i].length;
+            }
+            appendChannel.force(false);
+        }
+    }
+
+    /**
+     * Reads the {@link Tile} from a given position within the file into the
+     * remaining bytes of the target buffer (e.g. an off-heap buffer).
+     *
+     * @param tileDataPos the {@link TileDataFile} position
+     * @param target      the buffer that will be filled with the tile
+     */
+    void readTile(long tileDataPos, ByteBuffer target) throws IOException
+    {
+        FileUtilities.readFully(channel, target, tileDataPos);
+    }
+
+    /**
+     * Transfers the {@link Tile} from a given position within the file to
+     * the target channel. The tile is not copied into the heap when the
+     * target is a file or a socket channel; any other target (e.g. a channel
+     * wrapping an OutputStream) is written through a small temporary buffer.
+     *
+     * @param tileDataPos the {@link TileDataFile} position
+     * @param tileSize    the {@link Tile} size
+     * @param target      the channel that the tile will be written to
+     */
+    void transferTile(long tileDataPos, int tileSize,
+                      WritableByteChannel target) throws IOException
+    {
+        FileUtilities.transferFully(channel, tileDataPos, tileSize, target);
     }
 
     /**
@@ -96,6 +213,24 @@ final class TileDataFile
         FileUtilities.writeToFile(filePath, tileData, position);
     }
 
+    /**
+     * Closes the reading channels of the file.
+     */
+    @Override public void close() throws IOException
+    {
+        try
+        {
+            channel.close();
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                if(asyncChannel != null) asyncChannel.close();
+            }
+        }
+    }
+
     @Override public String toString()
     {
         return "LookupFile for the level: " + level + " with the filepath:" +
@@ -0,0 +1,143 @@
+/**
+ * Packs the level, column and row of a {@link Tile} into a single long, and
+ * parses and formats the tile names (e.g. 3_5_1.jpg) without allocating
+ * intermediate strings.
+ *
+ * The key holds the level in its top 6 bits, and the column and the row in
+ * 29 bits each, which covers all the levels up to {@link #maxLevel}. The keys
+ * of the valid tiles are never negative, so -1 is used for "no tile".
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+final class TileKey
+{
+    /** the highest level that fits in a key */
+    final static int maxLevel = 29;
+    /** the key returned for the names that are not valid tile names */
+    final static long invalidKey = -1;
+    /** the number of the bits of the column and of the row */
+    private final static int coordinateBits = 29;
+    /** the mask of the column and of the row bits */
+    private final static long coordinateMask = (1L << coordinateBits) - 1;
+    /** the file extension of the tiles */
+    private final static String fileExtension = ".jpg";
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private TileKey()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the key of the tile.
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    static long pack(int level, int column, int row)
+    {
+        return ((long) level << 2 * coordinateBits) |
+                ((long) column << coordinateBits) | row;
+    }
+
+    /** Returns the level of the keyed tile. */
+    static int level(long key)
+    {
+        return (int) (key >>> 2 * coordinateBits);
+    }
+
+    /** Returns the column of the keyed tile. */
+    static int column(long key)
+    {
+        return (int) ((key >>> coordinateBits) & coordinateMask);
+    }
+
+    /** Returns the row of the keyed tile. */
+    static int row(long key)
+    {
+        return (int) (key & coordinateMask);
+    }
+
+    /**
+     * Returns the number of the columns (and of the rows) of a level.
+     */
+    static int columnNumber(int level)
+    {
+        return 1 << level;
+    }
+
+    /**
+     * Returns true if the level, column and row address an existing tile.
+     */
+    static boolean isValid(int level, int column, int row)
+    {
+        return level >= 0 && level <= maxLevel && column >= 0 &&
+                column < columnNumber(level) && row >= 0 &&
+                row < columnNumber(level);
+    }
+
+    /**
+     * Parses the name of the tile at the end of a path. Both '/' and '\'
+     * are accepted as separators, and the extension is ignored. For instance,
+     * given /Users/mkotsollaris/Desktop/tile_dataset/2/2_0_1.jpg the key of
+     * the level 2, column 0 and row 1 is returned.
+     *
+     * @param path the path or the name of the tile
+     *
+     * @return the key of the tile, or {@link #invalidKey} if the name is not
+     * in the format X_Y_Z where X = Level, Y = Column, Z = Row
+     */
+    static long parse(CharSequence path)
+    {
+        int end = path.length();
+        int start = end;
+        while(start > 0 && path.charAt(start - 1) != '/' &&
+                path.charAt(start - 1) != '\\')
+        {
+            start--;
+        }
+        int level = 0, column = 0, value = 0, field = 0, digits = 0;
+        for(int i = start; i < end; i++)
+        {
+            char c = path.charAt(i);
+            if(c >= '0' && c <= '9')
+            {
+                if(++digits > 9) return invalidKey;
+                value = value * 10 + (c - '0');
+            }
+            else if(c == '_' && digits > 0 && field < 2)
+            {
+                if(field == 0) level = value;
+                else column = value;
+                field++;
+                value = 0;
+                digits = 0;
+            }
+            else if(c == '.') break;
+            else return invalidKey;
+        }
+        if(field != 2 || digits == 0 || !isValid(level, column, value))
+            return invalidKey;
+        return pack(level, column, value);
+    }
+
+    /**
+     * Appends the file name of the tile (e.g. 3_5_1.jpg) to the target.
+     *
+     * @param target the builder that the name is appended to, and which may
+     *               be reused for the following names
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     *
+     * @return the target
+     */
+    static StringBuilder appendFileName(StringBuilder target, int level,
+                                        int column, int row)
+    {
+        return target.append(level).append('_').append(column).append('_')
+                .append(row).append(fileExtension);
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * The order in which the tiles of a level are laid out within the LookupFile
+ * and the TileDataFile.
+ *
+ * Each layout maps the column and row of a tile to its index along the
+ * layout's curve (and back); the index is the number of the tile's record in
+ * the LookupFile, while the TileDataFile holds the tiles' bytes in the same
+ * order. With a space filling curve, the tiles that are neighbours on the map
+ * are also close to each other within the files.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public enum TileLayout
+{
+    /** index = column * 2^level + row */
+    ROW_MAJOR
+            {
+                @Override long index(int level, int column, int row)
+                {
+                    return ((long) column << level) + row;
+                }
+
+                @Override int column(int level, long index)
+                {
+                    return (int) (index >>> level);
+                }
+
+                @Override int row(int level, long index)
+                {
+                    return (int) (index & ((1L << level) - 1));
+                }
+            },
+    /** Z-order curve: the bits of the column and the row are interleaved */
+    MORTON
+            {
+                @Override long index(int level, int column, int row)
+                {
+                    return (spread(column) << 1) | spread(row);
+                }
+
+                @Override int column(int level, long index)
+                {
+                    return compact(index >>> 1);
+                }
+
+                @Override int row(int level, long index)
+                {
+                    return compact(index);
+                }
+            },
+    /** Hilbert curve: neighbouring indices are always neighbouring tiles */
+    HILBERT
+            {
+                @Override long index(int level, int column, int row)
+                {
+                    long index = 0;
+                    for(int s = (1 << level) >>> 1; s > 0; s >>>= 1)
+                    {
+                        int rx = (column & s) > 0 ? 1 : 0;
+                        int ry = (row & s) > 0 ? 1 : 0;
+                        index += (long) s * s * ((3 * rx) ^ ry);
+                        if(ry == 0)
+                        {
+                            if(rx == 1)
+                            {
+                                column = s - 1 - column;
+                                row = s - 1 - row;
+                            }
+                            int temp = column;
+                            column = row;
+                            row = temp;
+                        }
+                    }
+                    return index;
+                }
+
+                @Override int column(int level, long index)
+                {
+                    return hilbertPoint(level, index)[0];
+                }
+
+                @Override int row(int level, long index)
+                {
+                    return hilbertPoint(level, index)[1];
+                }
+            };
+
+    /**
+     * Returns the index of the tile along the layout.
+     *
+     * @param level  the level of the {@link Tile}
+     * @param column the column of the {@link Tile}
+     * @param row    the row of the {@link Tile}
+     */
+    abstract long index(int level, int column, int row);
+
+    /**
+     * Returns the column of the tile with the given index.
+     *
+     * @param level the level of the {@link Tile}
+     * @param index the index of the {@link Tile} along the layout
+     */
+    abstract int column(int level, long index);
+
+    /**
+     * Returns the row of the tile with the given index.
+     *
+     * @param level the level of the {@link Tile}
+     * @param index the index of the {@link Tile} along the layout
+     */
+    abstract int row(int level, long index);
+
+    /**
+     * Spreads the bits of the value, so that there is a zero bit between
+     * every two of them (e.g. 0b111 to 0b10101).
+     */
+    private static long spread(int value)
+    {
+        long x = value & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * The inverse of {@link #spread(int)}: gathers the even bits of the
+     * value.
+     */
+    private static int compact(long value)
+    {
+        long x = value & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    /**
+     * Returns the column and the row of the tile with the given Hilbert
+     * index.
+     */
+    private static int[] hilbertPoint(int level, long index)
+    {
+        int column = 0, row = 0;
+        long t = index;
+        for(int s = 1; s < (1 << level); s <<= 1)
+        {
+            int rx = (int) (1 & (t >>> 1));
+            int ry = (int) (1 & (t ^ rx));
+            if(ry == 0)
+            {
+                if(rx == 1)
+                {
+                    column = s - 1 - column;
+                    row = s - 1 - row;
+                }
+                int temp = column;
+                column = row;
+                row = temp;
+            }
+            column += s * rx;
+            row += s * ry;
+            t >>>= 2;
+        }
+        return new int[]{column, row};
+    }
+}
@@ -0,0 +1,367 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal standalone tile server on the JDK's built-in HTTP server, with no
+ * servlet stack: it answers {@code GET /{level}/{column}/{row}} (optionally
+ * followed by ".jpg") with the bytes of the tile. The tile is written by
+ * {@link TileSource#transferTile} into the response body; since the JDK server
+ * exposes only a stream of the connection, the bytes go through a channel
+ * adapter and a heap buffer on their way to the socket.
+ *
+ * Each request is handled on its own virtual thread where the JVM provides
+ * them (Java 21 and later), so that blocking reads do not limit the number of
+ * concurrent connections; otherwise on a cached pool of daemon threads.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class TileServer
+{
+    /** the content type of the tiles */
+    private final static String contentType = "image/jpeg";
+    /** the extension of the tiles, optional within the path */
+    private final static String extension = ".jpg";
+    /** the server */
+    private final HttpServer server;
+    /** the executor handling the requests */
+    private final ExecutorService executor;
+    /** the tiles served */
+    private final TileSource tileSource;
+
+    static
+    {
+        // The JDK server writes the headers and the body of a response
+        // separately; with Nagle's algorithm on, the body then waits for the
+        // client's delayed ACK (about 40 ms per request). Read once, by the
+        // first server created in the JVM.
+        if(System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private TileServer()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Creates the server, bound to its port but not started.
+     *
+     * @param builder the builder object
+     */
+    private TileServer(Builder builder) throws IOException
+    {
+        tileSource = builder.tileSource;
+        server = HttpServer.create(
+                new InetSocketAddress(builder.port), builder.backlog);
+        executor = builder.virtualThreads ? newVirtualThreadExecutor() :
+                null;
+        server.setExecutor(executor != null ? executor :
+                                   Executors.newCachedThreadPool(runnable ->
+                                   {
+                                       Thread thread = new Thread(runnable);
+                                       thread.setDaemon(true);
+                                       return thread;
+                                   }));
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task, or null if the
+     * JVM has no virtual threads. Looked up reflectively so that the code
+     * still builds and runs on older JVMs.
+     */
+    static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Provides the Builder pattern for the object initialization.
+     */
+    public static class Builder
+    {
+        /** the tiles served */
+        private final TileSource tileSource;
+        /** the port of the server, 0 for any free port */
+        private int port = 8080;
+        /** the maximum number of the pending connections, 0 for the default */
+        private int backlog = 0;
+        /** true to handle the requests on virtual threads where available */
+        private boolean virtualThreads = true;
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param tileSource the tiles served (e.g. a {@link LevelFilesSet})
+         */
+        public Builder(TileSource tileSource)
+        {
+            this.tileSource = tileSource;
+        }
+
+        /**
+         * Sets the port of the server; 0 binds any free port. The default
+         * value is 8080.
+         */
+        public Builder port(int port)
+        {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of the connections waiting to be accepted;
+         * 0 uses the system's default.
+         */
+        public Builder backlog(int backlog)
+        {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Sets whether the requests are handled on virtual threads, where the
+         * JVM provides them. The default value is true.
+         */
+        public Builder virtualThreads(boolean virtualThreads)
+        {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Initializes the object.
+         */
+        public TileServer build() throws IOException
+        {
+            return new TileServer(this);
+        }
+    }
+
+    /**
+     * Starts serving the tiles.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to the given delay for the requests being
+     * handled. The {@link TileSource} is not closed.
+     *
+     * @param delaySeconds the maximum time (seconds) to wait
+     */
+    public void stop(int delaySeconds)
+    {
+        server.stop(delaySeconds);
+        if(executor == null) return;
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port that the server is bound to.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns true if the requests are handled on virtual threads.
+     */
+    public boolean isUsingVirtualThreads()
+    {
+        return executor != null;
+    }
+
+    /**
+     * Answers a request: 200 with the tile, 404 for no such tile, 400 for a
+     * malformed path, 405 for methods other than GET and HEAD and 500 if the
+     * tile cannot be read. A failure after the headers have been sent can
+     * only abort the response.
+     */
+    private void handle(HttpExchange exchange)
+    {
+        try
+        {
+            respond(exchange);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            e.printStackTrace();
+            if(exchange.getResponseCode() < 0)
+            {
+                try
+                {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                catch(IOException ignored)
+                {
+                    // the connection is lost
+                }
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Writes the response of a request; see {@link #handle}.
+     */
+    private void respond(HttpExchange exchange) throws IOException
+    {
+        String method = exchange.getRequestMethod();
+        boolean head = "HEAD".equals(method);
+        if(!head && !"GET".equals(method))
+        {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        long key = parseKey(exchange.getRequestURI().getRawPath());
+        if(key == TileKey.invalidKey)
+        {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        int level = TileKey.level(key);
+        int column = TileKey.column(key);
+        int row = TileKey.row(key);
+        int tileSize = level < tileSource.getLevelNumber() ?
+                tileSource.getTileSize(level, column, row) : -1;
+        if(tileSize < 0)
+        {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if(head)
+        {
+            exchange.getResponseHeaders()
+                    .set("Content-Length", Integer.toString(tileSize));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, tileSize);
+        try(OutputStream body = exchange.getResponseBody())
+        {
+            tileSource.transferTile(level, column, row,
+                                    Channels.newChannel(body));
+        }
+    }
+
+    /**
+     * Parses a path of the form "/{level}/{column}/{row}", optionally
+     * followed by ".jpg", without allocating.
+     *
+     * @return the packed {@link TileKey}, or {@link TileKey#invalidKey} if
+     * the path is malformed or out of range
+     */
+    static long parseKey(String path)
+    {
+        int level = 0, column = 0, value = 0, field = -1, digits = 0;
+        for(int i = 0; i < path.length(); i++)
+        {
+            char c = path.charAt(i);
+            if(c >= '0' && c <= '9' && field >= 0)
+            {
+                if(++digits > 9) return TileKey.invalidKey;
+                value = value * 10 + (c - '0');
+            }
+            else if(c == '/' && field < 2 && (field < 0 || digits > 0))
+            {
+                if(field == 0) level = value;
+                else if(field == 1) column = value;
+                field++;
+                value = 0;
+                digits = 0;
+            }
+            else if(c == '.' && path.length() - i == extension.length() &&
+                    path.regionMatches(i, extension, 0, extension.length()))
+                break;
+            else return TileKey.invalidKey;
+        }
+        if(field != 2 || digits == 0 || !TileKey.isValid(level, column, value))
+            return TileKey.invalidKey;
+        return TileKey.pack(level, column, value);
+    }
+
+    /**
+     * Serves a tile dataset.
+     *
+     * @param args the tile dataset path, the lookup file path, the tile data
+     *             file path and optionally the port
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 3)
+        {
+            System.err.println("Usage: TileServer <tileDataSetPath> " +
+                                       "<lookupFilePath> <tileDataFilePath> " +
+                                       "[port]");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        FileNames
+                fileNames =
+                new FileNames.Builder(args[0], args[1], args[2]).build();
+        LevelFilesSet
+                levelFilesSet =
+                new LevelFilesSet.Builder(fileNames).memoryMapped(true)
+                        .generate(false).build();
+        TileServer
+                tileServer =
+                new Builder(levelFilesSet)
+                        .port(args.length > 3 ? Integer.parseInt(args[3]) :
+                                      8080).build();
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            tileServer.stop(1);
+            try
+            {
+                levelFilesSet.close();
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+            }
+        }));
+        tileServer.start();
+        System.out.println("Serving " + levelFilesSet.getLevelNumber() +
+                                   " levels on port " + tileServer.getPort() +
+                                   (tileServer.isUsingVirtualThreads() ?
+                                           " (virtual threads)" : "") +
+                                   " in " + TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - start) + " ms");
+    }
+}
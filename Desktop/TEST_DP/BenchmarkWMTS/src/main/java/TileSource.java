@@ -0,0 +1,172 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A read-only source of tiles, addressed by level, column and row: either a
+ * {@link LevelFilesSet} or a single-file {@link TileContainer}. The servers
+ * and the benchmarks read the tiles through it, whatever the storage format.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public interface TileSource extends Closeable
+{
+    /**
+     * Returns the number of the levels, which are numbered from 0.
+     */
+    int getLevelNumber();
+
+    /**
+     * Returns a {@link Tile} object. For a tile that is absent from the
+     * dataset, returns the level's blank tile or null if the level has no
+     * blank tile.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     */
+    Tile getTile(int level, int column, int row) throws IOException;
+
+    /**
+     * Returns a {@link Tile} object without blocking the calling thread,
+     * where the source supports it. The default implementation reads the
+     * tile synchronously and returns a completed future.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     *
+     * @return a future completed with the tile, the level's blank tile or
+     * null, as in {@link #getTile(int, int, int)}
+     */
+    default CompletableFuture<Tile> getTileAsync(int level, int column,
+                                                 int row)
+    {
+        CompletableFuture<Tile> future = new CompletableFuture<>();
+        try
+        {
+            future.complete(getTile(level, column, row));
+        }
+        catch(IOException | RuntimeException e)
+        {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns a batch of tiles of a level without blocking the calling
+     * thread. The reads are issued at once and each future is completed as
+     * soon as its own read finishes, whatever the order of the batch.
+     *
+     * @param level   the level.
+     * @param columns the columns of the tiles.
+     * @param rows    the rows of the tiles, in the same order.
+     *
+     * @return the futures of the tiles, in the order of the given columns and
+     * rows
+     */
+    default List<CompletableFuture<Tile>> getTilesAsync(int level,
+                                                        int[] columns,
+                                                        int[] rows)
+    {
+        if(columns.length != rows.length)
+            throw new IllegalArgumentException(
+                    "columns: " + columns.length + ", rows: " + rows.length);
+        List<CompletableFuture<Tile>> tiles = new ArrayList<>(columns.length);
+        for(int i = 0; i < columns.length; i++)
+        {
+            tiles.add(getTileAsync(level, columns[i], rows[i]));
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns a batch of tiles of a level (e.g. the tiles of a viewport).
+     *
+     * @param level   the level.
+     * @param columns the columns of the tiles.
+     * @param rows    the rows of the tiles, in the same order.
+     *
+     * @return the tiles, in the order of the given columns and rows
+     */
+    Tile[] getTiles(int level, int[] columns, int[] rows) throws IOException;
+
+    /**
+     * Returns all the tiles of the given rectangle of a level (inclusive),
+     * ordered by column and then by row.
+     *
+     * @param level     the level.
+     * @param minColumn the first column of the rectangle.
+     * @param minRow    the first row of the rectangle.
+     * @param maxColumn the last column of the rectangle.
+     * @param maxRow    the last row of the rectangle.
+     */
+    default Tile[] getTiles(int level, int minColumn, int minRow,
+                            int maxColumn, int maxRow) throws IOException
+    {
+        int columnNumber = maxColumn - minColumn + 1;
+        int rowNumber = maxRow - minRow + 1;
+        if(columnNumber < 1 || rowNumber < 1)
+            throw new IllegalArgumentException(
+                    "columns: " + minColumn + "-" + maxColumn + ", rows: " +
+                            minRow + "-" + maxRow);
+        int[] columns = new int[columnNumber * rowNumber];
+        int[] rows = new int[columnNumber * rowNumber];
+        int i = 0;
+        for(int column = minColumn; column <= maxColumn; column++)
+        {
+            for(int row = minRow; row <= maxRow; row++)
+            {
+                columns[i] = column;
+                rows[i] = row;
+                i++;
+            }
+        }
+        return getTiles(level, columns, rows);
+    }
+
+    /**
+     * Returns the size (bytes) of a tile without reading it, or a negative
+     * number if there is no such tile.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     */
+    int getTileSize(int level, int column, int row) throws IOException;
+
+    /**
+     * Returns a 64 bits hash of the tile's bytes without reading the tile
+     * (e.g. for an ETag), or 0 if the source does not know it. The default
+     * implementation knows no hashes.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     */
+    default long getContentHash(int level, int column, int row)
+            throws IOException
+    {
+        return 0;
+    }
+
+    /**
+     * Writes the bytes of a tile to the target channel (e.g. a socket),
+     * without copying them into the heap where possible.
+     *
+     * @param level  the level.
+     * @param column the column of the tile.
+     * @param row    the row of the tile.
+     * @param target the channel that the tile will be written to.
+     *
+     * @return the number of bytes written, or a negative number if there is
+     * no such tile
+     */
+    int transferTile(int level, int column, int row,
+                     WritableByteChannel target) throws IOException;
+}
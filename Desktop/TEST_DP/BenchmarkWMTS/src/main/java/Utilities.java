@@ -8,10 +8,14 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Iterator;
+import java.util.SplittableRandom;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -97,7 +101,8 @@ final class Utilities
     }
 
     /**
-     * Measures the Generation time
+     * Measures the Generation time. For all the levels and formats, see
+     * {@link BuildBenchmark}.
      */
     static void measureGenerationTime(FileNames fileNames) throws IOException
     {
@@ -125,7 +130,8 @@ final class Utilities
     }
 
     /**
-     * Adds any missing tiles.
+     * Adds any missing tiles. For a dataset written from scratch, see {@link
+     * SyntheticPyramid}.
      *
      * @param tileDataSetPath the tileDataSetPath file path
      */
@@ -138,7 +144,7 @@ final class Utilities
             System.out.println(directoryPath);
             int counter = 0;
             long expectedTileNumber = Tile.computeExpectedTileNumber(level);
-            int columnTotalNumber = (int) Math.pow(2, level); // same as row
+            int columnTotalNumber = Tile.computeColumnTotalNumber(level); // same as row
             for(int column = 0; column < columnTotalNumber; column++)
             {
                 for(int row = 0; row < columnTotalNumber; row++)
@@ -158,6 +164,46 @@ final class Utilities
         }
     }
 
+    /**
+     * Waits for the result of the given future. An {@link IOException} or an
+     * unchecked exception thrown by the task is rethrown as is.
+     *
+     * @param future the future of the task
+     */
+    static <T> T getResult(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Draws a standard normal number from two uniform numbers in (0, 1]
+     * (Box-Muller transform).
+     *
+     * @param random the source of the uniform numbers
+     */
+    static double nextGaussian(SplittableRandom random)
+    {
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) *
+                Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
     /**
      * Prints the writting status each time a specific number of tiles
      * (threshold) is written.
@@ -227,7 +273,7 @@ final class Utilities
         {
             LevelFiles levelFiles = LevelFiles.getInstance(fileNames, level);
             long time1 = System.nanoTime();
-            int rowNum = (int) Math.pow(2, level);
+            int rowNum = Tile.computeColumnTotalNumber(level);
             for(int i = 0; i < rowNum; i++)
             {
                 for(int j = 0; j < rowNum; j++)
@@ -281,7 +327,7 @@ final class Utilities
         for(int level = 0; level <= 13; level++)
         {
             long time1 = System.nanoTime();
-            int rowNum = (int) Math.pow(2, level);
+            int rowNum = Tile.computeColumnTotalNumber(level);
             for(int i = 0; i < rowNum; i++)
             {
                 for(int j = 0; j < rowNum; j++)
@@ -318,7 +364,7 @@ final class Utilities
         {
             ImageBlock.getTile(imageBlockPath, level, 0, 0);//dummy load!
             long time1 = System.nanoTime();
-            int rowNum = (int) Math.pow(2, level);
+            int rowNum = Tile.computeColumnTotalNumber(level);
             for(int column = 0; column < rowNum; column++)
             {
                 for(int row = 0; row < rowNum; row++)
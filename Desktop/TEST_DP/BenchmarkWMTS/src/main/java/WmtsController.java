@@ -0,0 +1,241 @@
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The WMTS GetTile operation, in both its KVP form ({@code
+ * /wmts?SERVICE=WMTS&REQUEST=GetTile&...&TILEMATRIX=&TILEROW=&TILECOL=}) and
+ * its RESTful form ({@code
+ * /wmts/1.0.0/{layer}/{style}/{tileMatrixSet}/{tileMatrix}/{tileRow}/{tileCol}.jpg}),
+ * served from a single-layer {@link TileSource}. The tile matrix is the
+ * level; an identifier such as "EPSG:3857:5" is read up to its last number.
+ *
+ * The tiles are sent with a strong ETag (their content hash) and a long-lived
+ * Cache-Control header, and the revalidation requests (If-None-Match) are
+ * answered with 304 from the stored hash, without reading the tile.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+@RestController public class WmtsController
+{
+    /** the only supported format of the tiles */
+    private final static String format = "image/jpeg";
+    /** the content type of the exception reports */
+    private final static String exceptionContentType = "application/xml";
+    /** the tiles served */
+    private final TileSource tileSource;
+    /** the value of the Cache-Control header of the tiles */
+    private final String cacheControl;
+
+    /**
+     * Creates the controller.
+     *
+     * @param tileSource        the tiles served
+     * @param cacheMaxAgeSeconds the time (seconds) that the clients may cache
+     *                           a tile for without revalidating it
+     */
+    public WmtsController(TileSource tileSource,
+                          @Value("${wmts.cache-max-age-seconds:604800}")
+                                  long cacheMaxAgeSeconds)
+    {
+        this.tileSource = tileSource;
+        cacheControl = "public, max-age=" + cacheMaxAgeSeconds;
+    }
+
+    /**
+     * The KVP form of GetTile; the parameter names are case insensitive.
+     */
+    @GetMapping("/wmts") public void getTile(
+            @RequestParam Map<String, String> parameters,
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException
+    {
+        Map<String, String> kvp = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        kvp.putAll(parameters);
+        for(String name : new String[]{"SERVICE", "REQUEST", "VERSION",
+                "LAYER", "STYLE", "FORMAT", "TILEMATRIXSET", "TILEMATRIX",
+                "TILEROW", "TILECOL"})
+        {
+            if(kvp.get(name) == null || kvp.get(name).isEmpty())
+            {
+                sendException(response, HttpServletResponse.SC_BAD_REQUEST,
+                              "MissingParameterValue", name);
+                return;
+            }
+        }
+        if(!"WMTS".equalsIgnoreCase(kvp.get("SERVICE")))
+        {
+            sendException(response, HttpServletResponse.SC_BAD_REQUEST,
+                          "InvalidParameterValue", "SERVICE");
+            return;
+        }
+        if(!"GetTile".equals(kvp.get("REQUEST")))
+        {
+            sendException(response, HttpServletResponse.SC_NOT_IMPLEMENTED,
+                          "OperationNotSupported", "REQUEST");
+            return;
+        }
+        if(!format.equals(kvp.get("FORMAT")))
+        {
+            sendException(response, HttpServletResponse.SC_BAD_REQUEST,
+                          "InvalidParameterValue", "FORMAT");
+            return;
+        }
+        serveTile(kvp.get("TILEMATRIX"), kvp.get("TILEROW"),
+                  kvp.get("TILECOL"), request, response);
+    }
+
+    /**
+     * The RESTful form of GetTile.
+     */
+    @GetMapping("/wmts/1.0.0/{layer}/{style}/{tileMatrixSet}/{tileMatrix}/" +
+            "{tileRow}/{tileCol}.jpg") public void getTile(
+            @PathVariable String tileMatrix, @PathVariable String tileRow,
+            @PathVariable String tileCol, HttpServletRequest request,
+            HttpServletResponse response) throws IOException
+    {
+        serveTile(tileMatrix, tileRow, tileCol, request, response);
+    }
+
+    /**
+     * Answers with the tile, or with 304 if the client's copy is current.
+     */
+    private void serveTile(String tileMatrix, String tileRow, String tileCol,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException
+    {
+        int level = parseLevel(tileMatrix);
+        if(level < 0 || level >= tileSource.getLevelNumber())
+        {
+            sendException(response, HttpServletResponse.SC_BAD_REQUEST,
+                          "InvalidParameterValue", "TILEMATRIX");
+            return;
+        }
+        int row = parseIndex(tileRow);
+        int column = parseIndex(tileCol);
+        if(!TileKey.isValid(level, column, row))
+        {
+            sendException(response, HttpServletResponse.SC_BAD_REQUEST,
+                          "TileOutOfRange",
+                          TileKey.isValid(level, column, 0) ? "TILEROW" :
+                                  "TILECOL");
+            return;
+        }
+        long contentHash = tileSource.getContentHash(level, column, row);
+        if(contentHash != ContentHashFile.unknownHash)
+        {
+            String entityTag = toEntityTag(contentHash);
+            response.setHeader("ETag", entityTag);
+            response.setHeader("Cache-Control", cacheControl);
+            if(matches(request.getHeader("If-None-Match"), entityTag))
+            {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        int tileSize = tileSource.getTileSize(level, column, row);
+        if(tileSize < 0)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType(format);
+        response.setContentLength(tileSize);
+        tileSource.transferTile(level, column, row, Channels.newChannel(
+                response.getOutputStream()));
+    }
+
+    /**
+     * Returns the level of a tile matrix identifier (its trailing number,
+     * e.g. 5 for "EPSG:3857:5"), or -1 if it has none.
+     */
+    private static int parseLevel(String tileMatrix)
+    {
+        return parseIndex(
+                tileMatrix.substring(tileMatrix.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * Returns the non negative integer of the value, or -1 if it is not one.
+     */
+    private static int parseIndex(String value)
+    {
+        if(value.isEmpty() || value.length() > 9) return -1;
+        int index = 0;
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Returns the strong entity tag of a content hash.
+     */
+    static String toEntityTag(long contentHash)
+    {
+        String hex = Long.toHexString(contentHash);
+        StringBuilder entityTag = new StringBuilder(18).append('"');
+        for(int i = hex.length(); i < 16; i++)
+        {
+            entityTag.append('0');
+        }
+        return entityTag.append(hex).append('"').toString();
+    }
+
+    /**
+     * Returns true if the If-None-Match header matches the entity tag. The
+     * comparison is weak, as RFC 7232 requires for If-None-Match.
+     *
+     * @param ifNoneMatch the value of the header, may be null
+     * @param entityTag   the entity tag of the tile
+     */
+    static boolean matches(String ifNoneMatch, String entityTag)
+    {
+        if(ifNoneMatch == null) return false;
+        for(String candidate : ifNoneMatch.split(","))
+        {
+            String tag = candidate.trim();
+            if(tag.equals("*")) return true;
+            if(tag.startsWith("W/")) tag = tag.substring(2);
+            if(tag.equals(entityTag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Answers with an OWS exception report.
+     *
+     * @param status        the HTTP status
+     * @param exceptionCode the OWS exception code
+     * @param locator       the parameter that caused the exception
+     */
+    private static void sendException(HttpServletResponse response,
+                                      int status, String exceptionCode,
+                                      String locator) throws IOException
+    {
+        response.setStatus(status);
+        response.setContentType(exceptionContentType);
+        PrintWriter writer = response.getWriter();
+        writer.print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                             "<ExceptionReport xmlns=\"http://www.opengis" +
+                             ".net/ows/1.1\" version=\"1.1.0\" " +
+                             "xml:lang=\"en\">\n  <Exception exceptionCode=\"" +
+                             exceptionCode + "\" locator=\"" + locator +
+                             "\"/>\n</ExceptionReport>\n");
+        writer.flush();
+    }
+}
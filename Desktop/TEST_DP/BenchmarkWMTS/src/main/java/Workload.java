@@ -0,0 +1,484 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A trace of tile requests, in the order that they are issued: either
+ * synthesized as map viewing sessions ({@link Builder}) or read from a
+ * recorded request log ({@link #readLog}).
+ *
+ * A synthesized session starts at a random level around one of a number of
+ * hot regions, chosen by a Zipf distribution of their popularity, and then
+ * pans in small steps or zooms in and out, like a user of a map. Every step
+ * requests the tiles of the viewport that the previous step did not show, as
+ * a client with a cache does. The trace depends only on the seed.
+ *
+ * The requests are kept as {@link TileKey}s, 8 bytes per request.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class Workload
+{
+    /** a line of a trace file or of a tab- or space-separated log */
+    private final static Pattern triplePattern =
+            Pattern.compile("^\\s*(\\d+)[,;\\s]+(\\d+)[,;\\s]+(\\d+)\\s*$");
+    /** a WMTS RESTful request: .../{tileMatrix}/{tileRow}/{tileCol}.ext */
+    private final static Pattern wmtsRestPattern =
+            Pattern.compile("/wmts/[^\\s?]*/(\\d+)/(\\d+)/(\\d+)\\.\\w+");
+    /** a request of the form /{level}/{column}/{row}[.ext] */
+    private final static Pattern pathPattern =
+            Pattern.compile("/(\\d+)/(\\d+)/(\\d+)(\\.\\w+)?(?=[\\s?\"]|$)");
+    /** a tile name of the form level_column_row.ext */
+    private final static Pattern namePattern =
+            Pattern.compile("(?<![\\w.])(\\d+)_(\\d+)_(\\d+)\\.\\w+");
+    /** the parameters of a WMTS KVP request */
+    private final static Pattern[] wmtsKvpPatterns = {
+            Pattern.compile("[?&]TileMatrix=(\\d+)", Pattern.CASE_INSENSITIVE),
+            Pattern.compile("[?&]TileCol=(\\d+)", Pattern.CASE_INSENSITIVE),
+            Pattern.compile("[?&]TileRow=(\\d+)", Pattern.CASE_INSENSITIVE)};
+
+    /** the share of the zooms that zoom in, as users look for details */
+    private final static double zoomInShare = 0.6;
+
+    /** the requested tiles, in order */
+    private final long[] keys;
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private Workload()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private Workload(long[] keys)
+    {
+        this.keys = keys;
+    }
+
+    /**
+     * Provides the Builder pattern for the synthesized sessions.
+     */
+    public static class Builder
+    {
+        /** the lowest level of the requests */
+        private final int minLevel;
+        /** the highest level of the requests */
+        private final int maxLevel;
+        /** the number of the requests */
+        private final int requestNumber;
+        /** the seed of the trace */
+        private long seed = 1;
+        /** the number of the columns of the viewport */
+        private int viewportColumns = 5;
+        /** the number of the rows of the viewport */
+        private int viewportRows = 4;
+        /** the mean number of the steps of a session */
+        private int meanSessionSteps = 20;
+        /** the share of the steps that pan; the rest zoom */
+        private double panShare = 0.75;
+        /** the number of the hot regions */
+        private int hotRegionNumber = 64;
+        /** the exponent of the Zipf distribution of the hot regions */
+        private double zipfExponent = 1.0;
+        /**
+         * the spread of the sessions' starts around their hot region, as a
+         * share of the map's width
+         */
+        private double hotRegionSpread = 0.01;
+
+        /**
+         * Implements the Builder Pattern for the object initialization.
+         *
+         * @param minLevel      the lowest level of the requests
+         * @param maxLevel      the highest level of the requests
+         * @param requestNumber the number of the requests
+         */
+        public Builder(int minLevel, int maxLevel, int requestNumber)
+        {
+            if(minLevel < 0 || maxLevel < minLevel ||
+                    maxLevel > TileKey.maxLevel || requestNumber < 0)
+                throw new IllegalArgumentException(
+                        "levels: " + minLevel + "-" + maxLevel +
+                                ", requestNumber: " + requestNumber);
+            this.minLevel = minLevel;
+            this.maxLevel = maxLevel;
+            this.requestNumber = requestNumber;
+        }
+
+        /**
+         * Sets the seed of the trace. The default value is 1.
+         */
+        public Builder seed(long seed)
+        {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Sets the size (tiles) of the viewport. The default value is 5x4,
+         * about a screen of 256 pixels tiles.
+         */
+        public Builder viewport(int viewportColumns, int viewportRows)
+        {
+            if(viewportColumns < 1 || viewportRows < 1)
+                throw new IllegalArgumentException(
+                        "viewport: " + viewportColumns + "x" + viewportRows);
+            this.viewportColumns = viewportColumns;
+            this.viewportRows = viewportRows;
+            return this;
+        }
+
+        /**
+         * Sets the steps of the sessions. The default values are a mean of
+         * 20 steps and a pan share of 0.75.
+         *
+         * @param meanSessionSteps the mean number of the steps of a session
+         * @param panShare         the share of the steps that pan; the rest
+         *                         zoom in or out
+         */
+        public Builder sessions(int meanSessionSteps, double panShare)
+        {
+            if(meanSessionSteps < 1 || panShare < 0 || panShare > 1)
+                throw new IllegalArgumentException(
+                        "meanSessionSteps: " + meanSessionSteps +
+                                ", panShare: " + panShare);
+            this.meanSessionSteps = meanSessionSteps;
+            this.panShare = panShare;
+            return this;
+        }
+
+        /**
+         * Sets the hot regions. The default values are 64 regions, an
+         * exponent of 1.0 and a spread of 0.01.
+         *
+         * @param hotRegionNumber the number of the hot regions
+         * @param zipfExponent    the exponent of the Zipf distribution of the
+         *                        regions' popularity; 0 for uniform
+         * @param hotRegionSpread the standard deviation of the sessions'
+         *                        starts around their region, as a share of
+         *                        the map's width
+         */
+        public Builder hotRegions(int hotRegionNumber, double zipfExponent,
+                                  double hotRegionSpread)
+        {
+            if(hotRegionNumber < 1 || zipfExponent < 0 ||
+                    hotRegionSpread < 0)
+                throw new IllegalArgumentException(
+                        "hotRegionNumber: " + hotRegionNumber +
+                                ", zipfExponent: " + zipfExponent +
+                                ", hotRegionSpread: " + hotRegionSpread);
+            this.hotRegionNumber = hotRegionNumber;
+            this.zipfExponent = zipfExponent;
+            this.hotRegionSpread = hotRegionSpread;
+            return this;
+        }
+
+        /**
+         * Synthesizes the trace.
+         */
+        public Workload build()
+        {
+            return new Workload(new SessionGenerator(this).generate());
+        }
+    }
+
+    /**
+     * Synthesizes the sessions of a {@link Builder}. The position of a
+     * session is kept as a level and the center of the viewport in map
+     * coordinates (0 to 1), so that zooming keeps the center.
+     */
+    private static final class SessionGenerator
+    {
+        /** the settings of the trace */
+        private final Builder builder;
+        /** the random numbers of the trace */
+        private final SplittableRandom random;
+        /** the centers of the hot regions, x and y in turn */
+        private final double[] hotRegions;
+        /** the cumulative popularity of the hot regions, up to 1 */
+        private final double[] cumulativePopularity;
+        /** the requests */
+        private final long[] keys;
+        /** the number of the requests so far */
+        private int requestCount;
+
+        private SessionGenerator(Builder builder)
+        {
+            this.builder = builder;
+            random = new SplittableRandom(builder.seed);
+            hotRegions = new double[2 * builder.hotRegionNumber];
+            for(int i = 0; i < hotRegions.length; i++)
+            {
+                hotRegions[i] = random.nextDouble();
+            }
+            cumulativePopularity = new double[builder.hotRegionNumber];
+            double sum = 0;
+            for(int i = 0; i < cumulativePopularity.length; i++)
+            {
+                sum += 1 / Math.pow(i + 1, builder.zipfExponent);
+                cumulativePopularity[i] = sum;
+            }
+            for(int i = 0; i < cumulativePopularity.length; i++)
+            {
+                cumulativePopularity[i] /= sum;
+            }
+            keys = new long[builder.requestNumber];
+        }
+
+        private long[] generate()
+        {
+            while(requestCount < keys.length)
+            {
+                generateSession();
+            }
+            return keys;
+        }
+
+        /**
+         * Adds the requests of a session, until the session ends or the
+         * trace is full.
+         */
+        private void generateSession()
+        {
+            int region = Arrays.binarySearch(cumulativePopularity,
+                                             random.nextDouble());
+            region = region < 0 ? -region - 1 : region;
+            region = Math.min(region, builder.hotRegionNumber - 1);
+            double x = clamp(hotRegions[2 * region] +
+                                     builder.hotRegionSpread *
+                                             Utilities.nextGaussian(random));
+            double y = clamp(hotRegions[2 * region + 1] +
+                                     builder.hotRegionSpread *
+                                             Utilities.nextGaussian(random));
+            int level = builder.minLevel + random.nextInt(
+                    builder.maxLevel - builder.minLevel + 1);
+            // the viewport shown by the previous step, none at first
+            int shownLevel = -1, shownMinColumn = 0, shownMinRow = 0;
+            do
+            {
+                int columnNumber = TileKey.columnNumber(level);
+                int minColumn = (int) (x * columnNumber) -
+                        builder.viewportColumns / 2;
+                int minRow = (int) (y * columnNumber) -
+                        builder.viewportRows / 2;
+                for(int column = minColumn;
+                    column < minColumn + builder.viewportColumns; column++)
+                {
+                    for(int row = minRow;
+                        row < minRow + builder.viewportRows; row++)
+                    {
+                        if(requestCount == keys.length) return;
+                        if(!TileKey.isValid(level, column, row)) continue;
+                        if(level == shownLevel &&
+                                column >= shownMinColumn &&
+                                column < shownMinColumn +
+                                        builder.viewportColumns &&
+                                row >= shownMinRow &&
+                                row < shownMinRow + builder.viewportRows)
+                            continue;
+                        keys[requestCount++] = TileKey.pack(level, column,
+                                                            row);
+                    }
+                }
+                shownLevel = level;
+                shownMinColumn = minColumn;
+                shownMinRow = minRow;
+                if(random.nextDouble() < builder.panShare)
+                {
+                    // up to half a viewport in one of the 8 directions
+                    int direction = random.nextInt(8);
+                    int step = 1 + random.nextInt(Math.max(
+                            1, Math.max(builder.viewportColumns,
+                                        builder.viewportRows) / 2));
+                    int dx = direction < 3 ? -1 : direction < 5 ? 0 : 1;
+                    int dy = direction % 3 - 1;
+                    if(dx == 0 && dy == 0) dy = 1;
+                    x = clamp(x + (double) dx * step / columnNumber);
+                    y = clamp(y + (double) dy * step / columnNumber);
+                }
+                else
+                {
+                    boolean zoomIn = random.nextDouble() < zoomInShare;
+                    if(zoomIn && level < builder.maxLevel ||
+                            level == builder.minLevel)
+                        level = Math.min(level + 1, builder.maxLevel);
+                    else
+                        level--;
+                }
+            }
+            while(random.nextInt(builder.meanSessionSteps) != 0);
+        }
+
+        /**
+         * Keeps a map coordinate within the map.
+         */
+        private static double clamp(double coordinate)
+        {
+            return Math.max(0, Math.min(Math.nextDown(1.0), coordinate));
+        }
+    }
+
+    /**
+     * Returns a trace of the given requests.
+     *
+     * @param keys the {@link TileKey}s of the requested tiles, in order
+     */
+    static Workload of(long[] keys)
+    {
+        return new Workload(keys.clone());
+    }
+
+    /**
+     * Reads a recorded request log, one request per line. A line holds
+     * either "level,column,row" (the format of {@link #write}), or a request
+     * of the servers (an access log line): /{level}/{column}/{row}[.jpg], a
+     * WMTS RESTful or KVP GetTile, or a tile name level_column_row.jpg. The
+     * blank lines, the lines starting with '#' and the lines without a valid
+     * tile are skipped.
+     *
+     * @param filePath the path of the log
+     */
+    public static Workload readLog(String filePath) throws IOException
+    {
+        long[] keys = new long[1024];
+        int requestCount = 0, skippedLines = 0;
+        try(BufferedReader reader = Files.newBufferedReader(
+                Paths.get(filePath), StandardCharsets.UTF_8))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(line.trim().isEmpty() || line.startsWith("#")) continue;
+                long key = parseRequest(line);
+                if(key == TileKey.invalidKey)
+                {
+                    skippedLines++;
+                    continue;
+                }
+                if(requestCount == keys.length)
+                    keys = Arrays.copyOf(keys, 2 * keys.length);
+                keys[requestCount++] = key;
+            }
+        }
+        if(skippedLines > 0)
+            System.out.println("Skipped " + skippedLines +
+                                       " lines without a tile request in " +
+                                       filePath);
+        return new Workload(Arrays.copyOf(keys, requestCount));
+    }
+
+    /**
+     * Returns the key of the tile requested by a line of a log, or {@link
+     * TileKey#invalidKey}.
+     */
+    static long parseRequest(String line)
+    {
+        Matcher matcher = triplePattern.matcher(line);
+        if(matcher.find()) return toKey(matcher, 1, 2, 3);
+        matcher = wmtsRestPattern.matcher(line);
+        if(matcher.find()) return toKey(matcher, 1, 3, 2);
+        int[] values = new int[wmtsKvpPatterns.length];
+        for(int i = 0; i < values.length; i++)
+        {
+            matcher = wmtsKvpPatterns[i].matcher(line);
+            if(!matcher.find()) break;
+            values[i] = parseInt(matcher.group(1));
+            if(i == values.length - 1)
+                return toKey(values[0], values[1], values[2]);
+        }
+        matcher = pathPattern.matcher(line);
+        if(matcher.find()) return toKey(matcher, 1, 2, 3);
+        matcher = namePattern.matcher(line);
+        if(matcher.find()) return toKey(matcher, 1, 2, 3);
+        return TileKey.invalidKey;
+    }
+
+    private static long toKey(Matcher matcher, int levelGroup,
+                              int columnGroup, int rowGroup)
+    {
+        return toKey(parseInt(matcher.group(levelGroup)),
+                     parseInt(matcher.group(columnGroup)),
+                     parseInt(matcher.group(rowGroup)));
+    }
+
+    private static long toKey(int level, int column, int row)
+    {
+        return TileKey.isValid(level, column, row) ?
+                TileKey.pack(level, column, row) : TileKey.invalidKey;
+    }
+
+    /**
+     * Parses a number of a log, or returns -1 if it does not fit an int.
+     */
+    private static int parseInt(String digits)
+    {
+        return digits.length() > 9 ? -1 : Integer.parseInt(digits);
+    }
+
+    /**
+     * Writes the trace, one "level,column,row" line per request, so that it
+     * can be replayed with {@link #readLog}.
+     *
+     * @param filePath the path of the written file
+     */
+    public void write(String filePath) throws IOException
+    {
+        try(BufferedWriter writer = Files.newBufferedWriter(
+                Paths.get(filePath), StandardCharsets.UTF_8))
+        {
+            for(long key : keys)
+            {
+                writer.write(TileKey.level(key) + "," + TileKey.column(key) +
+                                     "," + TileKey.row(key));
+                writer.newLine();
+            }
+        }
+    }
+
+    /** Returns the number of the requests. */
+    public int size()
+    {
+        return keys.length;
+    }
+
+    /**
+     * Returns the {@link TileKey} of a request.
+     *
+     * @param index the number of the request
+     */
+    long getKey(int index)
+    {
+        return keys[index];
+    }
+
+    /**
+     * Returns the number of the distinct requested tiles.
+     */
+    public int getDistinctTileNumber()
+    {
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for(int i = 0; i < sorted.length; i++)
+        {
+            if(i == 0 || sorted[i] != sorted[i - 1]) distinct++;
+        }
+        return distinct;
+    }
+
+    @Override public String toString()
+    {
+        return "Workload of " + keys.length + " requests (" +
+                getDistinctTileNumber() + " distinct tiles)";
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+
+/**
+ * Replays a {@link Workload} against a storage format: a file per tile
+ * (SimpleFormat), the {@link ImageBlock} directories or a {@link TileSource}
+ * such as the {@link LevelFilesSet}. The requests are issued one after the
+ * other, in the order of the trace, from the calling thread.
+ *
+ * @author mkotsollaris
+ * @since 1.0
+ */
+public final class WorkloadDriver
+{
+    // Suppresses default constructor, ensuring non-instantiability.
+    private WorkloadDriver()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * Reads the tiles of a storage format.
+     */
+    @FunctionalInterface public interface TileReader
+    {
+        /**
+         * Returns a {@link Tile} object, or null if there is no such tile.
+         *
+         * @param level  the level.
+         * @param column the column of the tile.
+         * @param row    the row of the tile.
+         */
+        Tile getTile(int level, int column, int row) throws IOException;
+    }
+
+    /**
+     * Returns the reader of a dataset with a file per tile.
+     *
+     * @param fileNames the file names of the dataset
+     */
+    public static TileReader simpleFormat(FileNames fileNames)
+    {
+        return (level, column, row) ->
+        {
+            String tileName = fileNames.getTileName(level, column, row);
+            return FileUtilities.exists(tileName) ?
+                    Tile.getInstance(tileName) : null;
+        };
+    }
+
+    /**
+     * Returns the reader of the {@link ImageBlock} directories.
+     *
+     * @param imageBlockPath the path of the ImageBlock dataset
+     */
+    public static TileReader imageBlock(String imageBlockPath)
+    {
+        return (level, column, row) ->
+        {
+            try
+            {
+                return ImageBlock.getTile(imageBlockPath, level, column, row);
+            }
+            catch(IllegalArgumentException e)
+            {
+                // Tile.getInstance rejects the paths of the missing files
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the reader of a {@link TileSource}.
+     */
+    public static TileReader tileSource(TileSource tileSource)
+    {
+        return tileSource::getTile;
+    }
+
+    /**
+     * Replays the workload.
+     *
+     * @param workload the requests
+     * @param reader   the storage format
+     *
+     * @return the totals of the replay
+     */
+    public static Result replay(Workload workload, TileReader reader)
+            throws IOException
+    {
+        long foundTiles = 0, readBytes = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < workload.size(); i++)
+        {
+            long key = workload.getKey(i);
+            Tile tile = reader.getTile(TileKey.level(key), TileKey.column(key),
+                                       TileKey.row(key));
+            if(tile == null) continue;
+            foundTiles++;
+            readBytes += tile.getData().length;
+        }
+        return new Result(workload.size(), foundTiles, readBytes,
+                          System.nanoTime() - start);
+    }
+
+    /**
+     * The totals of a replay.
+     */
+    public static final class Result
+    {
+        /** the number of the requests */
+        private final long requests;
+        /** the number of the requests answered with a tile */
+        private final long foundTiles;
+        /** the bytes of the tiles read */
+        private final long readBytes;
+        /** the duration of the replay */
+        private final long elapsedNanos;
+
+        private Result(long requests, long foundTiles, long readBytes,
+                       long elapsedNanos)
+        {
+            this.requests = requests;
+            this.foundTiles = foundTiles;
+            this.readBytes = readBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Returns the number of the requests. */
+        public long getRequests()
+        {
+            return requests;
+        }
+
+        /** Returns the number of the requests answered with a tile. */
+        public long getFoundTiles()
+        {
+            return foundTiles;
+        }
+
+        /** Returns the bytes of the tiles read. */
+        public long getReadBytes()
+        {
+            return readBytes;
+        }
+
+        /** Returns the duration (ns) of the replay. */
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        /** Returns the number of the requests per second. */
+        public double getThroughput()
+        {
+            return requests * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override public String toString()
+        {
+            return String.format(
+                    "%d requests (%d found, %d bytes) in %.1f ms: %.0f " +
+                            "requests/s, %.1f us/request", requests,
+                    foundTiles, readBytes, elapsedNanos / 1e6,
+                    getThroughput(),
+                    elapsedNanos / 1e3 / Math.max(1, requests));
+        }
+    }
+
+    /**
+     * Replays a recorded log, or synthesized sessions, against the three
+     * storage formats.
+     *
+     * @param args the tile dataset, the lookup file, the tile data file and
+     *             the ImageBlock paths, then either the path of a log or the
+     *             lowest level, the highest level and the number of the
+     *             requests of synthesized sessions
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 5 && args.length != 7)
+        {
+            System.err.println("Usage: WorkloadDriver <tileDatasetPath> " +
+                                       "<lookupFilePath> <tileDataFilePath> " +
+                                       "<imageBlockPath> (<logFilePath> | " +
+                                       "<minLevel> <maxLevel> " +
+                                       "<requestNumber>)");
+            System.exit(1);
+        }
+        FileNames fileNames = new FileNames.Builder(args[0], args[1], args[2])
+                .build();
+        Workload
+                workload =
+                args.length == 5 ? Workload.readLog(args[4]) :
+                        new Workload.Builder(Integer.parseInt(args[4]),
+                                             Integer.parseInt(args[5]),
+                                             Integer.parseInt(args[6]))
+                                .build();
+        System.out.println(workload);
+        System.out.println("SimpleFormat: " +
+                                   replay(workload, simpleFormat(fileNames)));
+        System.out.println("ImageBlock: " +
+                                   replay(workload, imageBlock(args[3])));
+        try(LevelFilesSet levelFilesSet = new LevelFilesSet.Builder(fileNames)
+                .build())
+        {
+            System.out.println("LevelFilesSet: " + replay(
+                    workload, tileSource(levelFilesSet)));
+        }
+    }
+}